@@ -0,0 +1,279 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.nio.ByteBuffer;
+
+/**
+ * This class implements fast matching in UTF-8 encoded bytes, using DFAs built with
+ * {@link DfaBuilder#buildUtf8(DfaAmbiguityResolver)}
+ * <P>
+ * The bytes are matched directly, without decoding them into characters first, so this is the
+ * fastest way to search memory-mapped files and network buffers.  Like {@link StringMatcher}, it
+ * maintains LastMatchStart, LastMatchEnd, and SearchLimit positions, which are byte offsets
+ * from the start of the source.
+ * <P>
+ * Matches only start at code point boundaries.  Invalid UTF-8 sequences never match any pattern.
+ * <P>
+ * Like {@link StringMatcher}, this class keeps a non-matching memo, so that failed searches take
+ * linear time.
+ */
+public class ByteMatcher
+{
+    private static final int NMM_SIZE = 40;
+    private final ByteBuffer m_src;
+    //if this is non-null, it has the bytes of m_src, starting at m_arrayBase
+    private final byte[] m_array;
+    private final int m_arrayBase;
+    private final int m_srcBase;
+    private final int m_srcLen;
+    private int m_lastMatchStart = 0;
+    private int m_lastMatchEnd = 0;
+    private int m_limit;
+
+    //non-matching memo, as in StringMatcher
+    //For all x >= m_nmmStart, whenever you're in m_nmmStates[x] at position m_nmmPositions[x],
+    //you will fail to find a match
+    private int m_nmmStart = NMM_SIZE;
+    private final int[] m_nmmPositions = new int[NMM_SIZE];
+    private final int[] m_nmmStates = new int[NMM_SIZE];
+    //the DFA that the states in the memo belong to
+    private FlatDfa<?> m_nmmDfa = null;
+
+    /**
+     * Create a new ByteMatcher for the remaining bytes in a buffer
+     * <P>
+     * The bytes are not copied, so they must not be modified while the matcher is in use.  The buffer's
+     * position and limit are not changed.  If the buffer has an accessible array, then the array is read
+     * directly.
+     *
+     * @param src the buffer to search, from its position to its limit
+     */
+    public ByteMatcher(ByteBuffer src)
+    {
+        m_src = src;
+        m_srcBase = src.position();
+        m_srcLen = src.remaining();
+        if (src.hasArray())
+        {
+            m_array = src.array();
+            m_arrayBase = src.arrayOffset() + m_srcBase;
+        }
+        else
+        {
+            m_array = null;
+            m_arrayBase = 0;
+        }
+        m_limit = m_srcLen;
+    }
+
+    /**
+     * Create a new ByteMatcher for a range of a byte array.
+     * <P>
+     * The array is not copied, so it must not be modified while the matcher is in use.
+     * All positions are relative to offset.
+     *
+     * @param src array containing the bytes to be searched
+     * @param offset the position of the first byte to search in src
+     * @param length the number of bytes to search
+     * @throws IndexOutOfBoundsException if the range is not within src
+     */
+    public ByteMatcher(byte[] src, int offset, int length)
+    {
+        this(ByteBuffer.wrap(src, offset, length));
+    }
+
+    /**
+     * Set the LastMatchStart, LastMatchEnd, and SearchLimit positions explicitly.
+     *
+     * @param lastMatchStart  the new lastMatchStartPosition
+     * @param lastMatchEnd the new lastMatchEnd position
+     * @param searchLimit the new searchLimit.  This will be limited to the source
+     *  length, so you can pass Integer.MAX_VALUE to set it to the source length
+     *  explicitly.
+     *  @throws IndexOutOfBoundsException if (lastMatchStart &lt; 0 || lastMatchEnd &lt; lastMatchStart || searchLimit &lt; lastMatchEnd)
+     */
+    public void setPositions(int lastMatchStart, int lastMatchEnd, int searchLimit)
+    {
+        searchLimit = Math.min(searchLimit, m_srcLen);
+        if (lastMatchStart < 0 || lastMatchEnd < lastMatchStart || searchLimit < lastMatchEnd)
+        {
+            throw new IndexOutOfBoundsException("Invalid positions in ByteMatcher.setPositions");
+        }
+        m_lastMatchStart = lastMatchStart;
+        m_lastMatchEnd = lastMatchEnd;
+        m_limit = searchLimit;
+        m_nmmStart = NMM_SIZE;
+    }
+
+    /**
+     * Resets the matcher to its initial state
+     * <P>
+     * This is equivalent to setPositions(0,0,Integer.MAX_VALUE);
+     */
+    public void reset()
+    {
+        setPositions(0,0,Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the start position of the last successful match, or 0 if there isn't one
+     *
+     * @return the current LastMatchStart position
+     */
+    public int getLastMatchStart()
+    {
+        return m_lastMatchStart;
+    }
+
+    /**
+     * Get the end position of the last successful match, or 0 if there isn't one
+     *
+     * @return the current LastMatchEnd position
+     */
+    public int getLastMatchEnd()
+    {
+        return m_lastMatchEnd;
+    }
+
+    /**
+     * Find the next non-empty match
+     * <P>
+     * The bytes are searched from getLastMatchEnd() to the search limit to find a sequence that
+     * matches a pattern in the given DFA.  If there is a match, then the LastMatchStart and
+     * LastMatchEnd positions are set to the start and end of the first match, and the MATCHRESULT
+     * that the DFA produces for that match is returned.
+     * <P>
+     * If there is more than one match starting at the same position, the longest one is selected.
+     *
+     * @param <MATCHRESULT> the type of results produced by the DFA
+     * @param dfa The DFA for the patterns you want to find, from {@link DfaBuilder#buildUtf8(DfaAmbiguityResolver)}
+     * @param state The number of the DFA start state, usually from {@link FlatDfa#getStartState(int)}
+     * @return The MATCHRESULT for the next non-empty match, or null if there isn't one
+     */
+    public <MATCHRESULT> MATCHRESULT findNext(FlatDfa<MATCHRESULT> dfa, int state)
+    {
+        for (int pos = m_lastMatchEnd; pos < m_limit; ++pos)
+        {
+            if ((_byteAt(pos) & 0xC0) == 0x80)
+            {
+                //continuation byte
+                continue;
+            }
+            MATCHRESULT ret = matchAt(dfa, state, pos);
+            if (ret != null)
+            {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the longest match starting at a given position
+     * <P>
+     * If the bytes starting at startPos match a pattern in the DFA, then the LastMatchStart and
+     * LastMatchEnd positions are set to the start and end of the longest match, and the
+     * MATCHRESULT for that match is returned.  Otherwise the positions are not changed.
+     *
+     * @param <MATCHRESULT> the type of results produced by the DFA
+     * @param dfa The DFA for the patterns you want to match, from {@link DfaBuilder#buildUtf8(DfaAmbiguityResolver)}
+     * @param state The number of the DFA start state, usually from {@link FlatDfa#getStartState(int)}
+     * @param startPos the position in the source to test for a match
+     * @return If the source matches a pattern in the DFA at startPos, the MATCHRESULT that
+     *      the pattern match produces.  Otherwise null.
+     */
+    public <MATCHRESULT> MATCHRESULT matchAt(FlatDfa<MATCHRESULT> dfa, int state, final int startPos)
+    {
+        if (dfa != m_nmmDfa)
+        {
+            //state numbers from different DFAs can't be compared
+            m_nmmDfa = dfa;
+            m_nmmStart = NMM_SIZE;
+        }
+        MATCHRESULT ret = null;
+        int matchEnd = 0;
+        int newNmmSize = 0;
+        int writeNmmNext = startPos + 4;
+        final byte[] array = m_array;
+        final int base = m_arrayBase;
+
+        POSLOOP:
+        for (int pos = startPos; pos < m_limit;)
+        {
+            state = dfa.getNextState(state, (char)((array != null ? array[base + pos] : _byteAt(pos)) & 0xFF));
+            pos++;
+            if (state < 0)
+            {
+                break;
+            }
+            MATCHRESULT match = dfa.getMatch(state);
+            if (match != null)
+            {
+                ret = match;
+                matchEnd = pos;
+                newNmmSize = 0;
+                continue;
+            }
+
+            //Check and update the non-matching memo, as in StringMatcher
+            while (m_nmmStart < NMM_SIZE && m_nmmPositions[m_nmmStart] <= pos)
+            {
+                if (m_nmmPositions[m_nmmStart] == pos && m_nmmStates[m_nmmStart] == state)
+                {
+                    //hit the memo -- we won't find a match.
+                    break POSLOOP;
+                }
+                //we passed this memo entry without using it -- remove it.
+                ++m_nmmStart;
+            }
+            if (pos >= writeNmmNext && newNmmSize < NMM_SIZE)
+            {
+                m_nmmPositions[newNmmSize] = pos;
+                m_nmmStates[newNmmSize] = state;
+                ++newNmmSize;
+                writeNmmNext = pos+(2<<newNmmSize);
+                if (m_nmmStart < newNmmSize)
+                {
+                    m_nmmStart = newNmmSize;
+                }
+            }
+        }
+        //successful or not, we're done.  Merge in our new entries for the non-matching memo
+        while (m_nmmStart < NMM_SIZE && m_nmmPositions[m_nmmStart] < writeNmmNext)
+        {
+            ++m_nmmStart;
+        }
+        while (newNmmSize > 0)
+        {
+            --newNmmSize;
+            --m_nmmStart;
+            m_nmmPositions[m_nmmStart] = m_nmmPositions[newNmmSize];
+            m_nmmStates[m_nmmStart] = m_nmmStates[newNmmSize];
+        }
+        if (ret != null)
+        {
+            m_lastMatchStart = startPos;
+            m_lastMatchEnd = matchEnd;
+        }
+        return ret;
+    }
+
+    private byte _byteAt(int pos)
+    {
+        return m_array != null ? m_array[m_arrayBase + pos] : m_src.get(m_srcBase + pos);
+    }
+}
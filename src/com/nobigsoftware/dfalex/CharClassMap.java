@@ -0,0 +1,235 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Maps characters to alphabet equivalence classes for a whole DFA
+ * <P>
+ * Two characters are in the same class iff they have the same transition in every
+ * state of the DFA, so the transitions for each state can be indexed by class number
+ * instead of by character.
+ * <P>
+ * The map is stored as a two-level table: the high byte of a character selects a 256-entry
+ * block, and the low byte selects the class within that block.  Identical blocks are shared, and
+ * the class numbers are stored in bytes when there are at most 256 classes, or shorts otherwise.
+ */
+class CharClassMap implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private final int m_numClasses;
+    //start of the block for each high byte, in m_byteClasses or m_shortClasses
+    private final int[] m_blockStarts;
+    //exactly one of these is non-null
+    private final byte[] m_byteClasses;
+    private final short[] m_shortClasses;
+
+    private CharClassMap(int[] classes, int numClasses)
+    {
+        m_numClasses = numClasses;
+        m_blockStarts = new int[256];
+
+        //dedup the blocks
+        HashMap<BlockKey, Integer> blockMap = new HashMap<>();
+        int[] blockData = new int[0x10000];
+        int dataLen = 0;
+        for (int block = 0; block < 256; ++block)
+        {
+            BlockKey key = new BlockKey(classes, block<<8);
+            Integer start = blockMap.get(key);
+            if (start == null)
+            {
+                start = dataLen;
+                blockMap.put(key, start);
+                System.arraycopy(classes, block<<8, blockData, dataLen, 256);
+                dataLen += 256;
+            }
+            m_blockStarts[block] = start;
+        }
+
+        if (numClasses <= 256)
+        {
+            m_byteClasses = new byte[dataLen];
+            m_shortClasses = null;
+            for (int i = 0; i < dataLen; ++i)
+            {
+                m_byteClasses[i] = (byte)blockData[i];
+            }
+        }
+        else
+        {
+            m_byteClasses = null;
+            m_shortClasses = new short[dataLen];
+            for (int i = 0; i < dataLen; ++i)
+            {
+                m_shortClasses[i] = (short)blockData[i];
+            }
+        }
+    }
+
+    /**
+     * Calculate the alphabet equivalence classes for a DFA
+     *
+     * @param dfa the DFA
+     * @return a map from characters to classes such that characters in the same class have the
+     *      same transitions in all states of the DFA
+     */
+    static CharClassMap forDfa(RawDfa<?> dfa)
+    {
+        final List<DfaStateInfo> states = dfa.getStates();
+
+        //Mark every character c such that the transition on c may be different from
+        //the transition on c-1 in some state.  Ranges between marks are elementary intervals
+        final boolean[] marks = new boolean[0x10001];
+        marks[0] = true;
+        for (DfaStateInfo info : states)
+        {
+            info.forEachTransition(trans -> {
+                marks[trans.m_firstChar] = true;
+                marks[trans.m_lastChar+1] = true;
+            });
+        }
+        int numIntervals = 0;
+        final int[] intervalStarts = new int[0x10001];
+        final int[] charIntervals = new int[0x10000];
+        for (int c = 0; c < 0x10000; ++c)
+        {
+            if (marks[c])
+            {
+                intervalStarts[numIntervals++] = c;
+            }
+            charIntervals[c] = numIntervals-1;
+        }
+        intervalStarts[numIntervals] = 0x10000;
+
+        //Start with all intervals in one class, and refine the partition by the
+        //transitions of each state in turn.  Only intervals that a state transitions
+        //on are moved.  Class numbers can become sparse here, but we renumber them later.
+        final int[] intervalClasses = new int[numIntervals];
+        int nextClass = 1;
+        final HashMap<Long, Integer> splits = new HashMap<>();
+        for (DfaStateInfo info : states)
+        {
+            splits.clear();
+            final int len = info.getTransitionCount();
+            for (int i = 0; i < len; ++i)
+            {
+                NfaTransition trans = info.getTransition(i);
+                final int lastInterval = charIntervals[trans.m_lastChar];
+                for (int iv = charIntervals[trans.m_firstChar]; iv <= lastInterval; ++iv)
+                {
+                    Long key = (((long)intervalClasses[iv])<<32) | trans.m_stateNum;
+                    Integer newClass = splits.get(key);
+                    if (newClass == null)
+                    {
+                        newClass = nextClass++;
+                        splits.put(key, newClass);
+                    }
+                    intervalClasses[iv] = newClass;
+                }
+            }
+        }
+
+        //renumber the classes compactly, in order of first character
+        final int[] renumber = new int[nextClass];
+        Arrays.fill(renumber, -1);
+        int numClasses = 0;
+        final int[] classes = new int[0x10000];
+        for (int iv = 0; iv < numIntervals; ++iv)
+        {
+            int cls = intervalClasses[iv];
+            if (renumber[cls] < 0)
+            {
+                renumber[cls] = numClasses++;
+            }
+            Arrays.fill(classes, intervalStarts[iv], intervalStarts[iv+1], renumber[cls]);
+        }
+        return new CharClassMap(classes, numClasses);
+    }
+
+    /**
+     * @return the number of classes.  Classes are compactly numbered from 0
+     */
+    public int getClassCount()
+    {
+        return m_numClasses;
+    }
+
+    /**
+     * Get the class for a character
+     *
+     * @param c the character
+     * @return the class that contains c
+     */
+    public int getCharClass(char c)
+    {
+        final int i = m_blockStarts[c>>>8] + (c & 0xFF);
+        return (m_byteClasses != null ? (m_byteClasses[i] & 0xFF) : (m_shortClasses[i] & 0xFFFF));
+    }
+
+    //hash key for a 256-entry block in an array of classes
+    private static class BlockKey
+    {
+        private final int[] m_classes;
+        private final int m_start;
+        private final int m_hash;
+
+        BlockKey(int[] classes, int start)
+        {
+            m_classes = classes;
+            m_start = start;
+            int h = 0;
+            for (int i = start; i < start+256; ++i)
+            {
+                h = h*65599 + classes[i];
+            }
+            m_hash = h;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof BlockKey))
+            {
+                return false;
+            }
+            BlockKey r = (BlockKey)obj;
+            if (m_hash != r.m_hash)
+            {
+                return false;
+            }
+            for (int i = 0; i < 256; ++i)
+            {
+                if (m_classes[m_start+i] != r.m_classes[r.m_start+i])
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return m_hash;
+        }
+    }
+}
@@ -143,6 +143,39 @@ public class CharRange implements Matchable
         return ((lo&1)!=0);
     }
     
+    /**
+     * Get the characters in this range, if there aren't too many
+     * 
+     * @param maxCount the maximum number of characters to return
+     * @return a string containing all the characters in this range, in order, or null if there are more than maxCount
+     */
+    String getChars(int maxCount)
+    {
+        final int len = m_bounds.length;
+        if ((len & 1) != 0)
+        {
+            //includes MAX_VALUE.  The last range is too big unless it's just that
+            if (m_bounds[len-1] != Character.MAX_VALUE)
+            {
+                return null;
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < len; i += 2)
+        {
+            int last = (i + 1 < len ? m_bounds[i + 1] - 1 : Character.MAX_VALUE);
+            if (sb.length() + (last - m_bounds[i] + 1) > maxCount)
+            {
+                return null;
+            }
+            for (int c = m_bounds[i]; c <= last; ++c)
+            {
+                sb.append((char)c);
+            }
+        }
+        return sb.toString();
+    }
+    
     /**
      * Return a new CharRange that matches the characters that this one does not match.
      * @return  the complement of this CharRange
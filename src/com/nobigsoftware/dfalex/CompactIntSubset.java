@@ -95,6 +95,21 @@ class CompactIntSubset
 		return true;
 	}
 	
+	/**
+	 * Add a list of integers to the set
+	 * 
+	 * @param vals array containing the integers to add
+	 * @param start index of the first integer in vals
+	 * @param end index after the last integer in vals
+	 */
+	public void addAll(int[] vals, int start, int end)
+	{
+		for (int i = start; i < end; ++i)
+		{
+			add(vals[i]);
+		}
+	}
+	
 	public boolean remove(int val)
 	{
 		int bit = 1<<(val&31);
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * A DFA compiled into a JVM class that implements its state machine directly in bytecode
+ * <P>
+ * Matching with a CompiledDfa involves no virtual calls per character, and no table lookups
+ * other than the JVM's own switch dispatch, so the JIT can compile the whole matching loop
+ * into tight machine code.
+ * <P>
+ * Use {@link DfaBuilder#buildCompiled(DfaAmbiguityResolver)} to make one, and
+ * {@link StringMatcher#findNext(CompiledDfa)} or {@link StringMatcher#matchAt(CompiledDfa, int)}
+ * to find patterns in strings with it, or call {@link #matchAt(CharSequence, int, int)} directly.
+ * Searching has no non-matching memo, so see the note on {@link StringMatcher#findNext(CompiledDfa)}
+ * about its worst case.
+ * <P>
+ * If the DFA is too large to fit in a single JVM method, the builder will produce an
+ * implementation that uses flat transition tables instead.  It behaves the same way.
+ * <P>
+ * Instances of this class are immutable and thread-safe.  Subclasses are generated by this package,
+ * and you should not make your own.
+ *
+ * @param MATCHRESULT the type of result produced by matching patterns with this DFA
+ */
+public abstract class CompiledDfa<MATCHRESULT>
+{
+    private final int m_startState;
+    private final Object[] m_results;
+
+    /**
+     * Create a new CompiledDfa.  Only generated classes call this.
+     *
+     * @param startState the number of the start state to pass to {@link #runDfa(int, CharSequence, int, int)}
+     * @param results match results, indexed by the result indexes that runDfa returns
+     */
+    protected CompiledDfa(int startState, Object[] results)
+    {
+        m_startState = startState;
+        m_results = results;
+    }
+
+    /**
+     * Find the longest non-empty match starting at a given position
+     *
+     * @param src the string to search
+     * @param startPos the position in src to test for a match
+     * @param limit the search limit.  No characters at positions &gt;= limit will be included in matches
+     * @return -1 if there is no match.  Otherwise a packed match descriptor. Use {@link #getMatchEnd(long)}
+     *      and {@link #getMatchResult(long)} to unpack it.
+     */
+    public final long matchAt(CharSequence src, int startPos, int limit)
+    {
+        return runDfa(m_startState, src, startPos, limit);
+    }
+
+    /**
+     * Get the end position of a match
+     *
+     * @param match a match descriptor returned by {@link #matchAt(CharSequence, int, int)}.  Must not be -1
+     * @return the end position of the match in the source string
+     */
+    public static int getMatchEnd(long match)
+    {
+        return (int)(match >>> 32);
+    }
+
+    /**
+     * Get the result produced by a match
+     *
+     * @param match a match descriptor returned by {@link #matchAt(CharSequence, int, int)}
+     * @return the MATCHRESULT produced by the match, or null if match is -1
+     */
+    @SuppressWarnings("unchecked")
+    public final MATCHRESULT getMatchResult(long match)
+    {
+        return (match < 0 ? null : (MATCHRESULT)m_results[(int)match]);
+    }
+
+    /**
+     * See if a whole string matches this DFA
+     * <P>
+     * Like all the matching methods in this class, this only reports non-empty matches, so it always
+     * returns null for an empty string.
+     *
+     * @param str string to test
+     * @return If the whole string matches the DFA, this is the match result produced.  Otherwise null.
+     */
+    public final MATCHRESULT matchWholeString(CharSequence str)
+    {
+        final int len = str.length();
+        if (len == 0)
+        {
+            //we only report non-empty matches
+            return null;
+        }
+        final long match = runDfa(m_startState, str, 0, len);
+        return (match >= 0 && getMatchEnd(match) == len ? getMatchResult(match) : null);
+    }
+
+    /**
+     * Run the DFA from a given state.  This is the method that generated classes implement.
+     *
+     * @param state the state to start in
+     * @param src the string to search
+     * @param pos the position in src to start at
+     * @param limit the search limit
+     * @return -1 if no accepting state is reached.  Otherwise, the end position of the longest match
+     *      in the high 32 bits, and the index of its result in the low 32 bits.
+     */
+    protected abstract long runDfa(int state, CharSequence src, int pos, int limit);
+}
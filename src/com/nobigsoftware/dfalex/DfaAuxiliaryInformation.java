@@ -20,6 +20,7 @@ import java.util.AbstractList;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.function.BiConsumer;
@@ -35,14 +36,20 @@ import java.util.function.BiConsumer;
  * <P>
  * Use one instance of this class to calculate everything you need.  It will remember
  * results you ask for and reuse them for other calculations when required.
+ * <P>
+ * Instances of this class are thread-safe, and never block.  Results are calculated
+ * without locking and published through volatile fields, so if multiple threads ask for
+ * the same result at the same time, it may be calculated more than once.  Every thread
+ * sees a single remembered result after that.
  */
 public class DfaAuxiliaryInformation<MATCHRESULT>
 {
     private static final Object SENTINEL = new Object();
     private final List<DfaState<MATCHRESULT>> m_startStates;
-    private List<DfaState<MATCHRESULT>> m_statesByNumber = null;
-    private int[] m_cycleNumbers = null;
-    private List<MATCHRESULT> m_destiniesByNumber = null;
+    //racy memos.  The results are immutable once published
+    private volatile List<DfaState<MATCHRESULT>> mv_statesByNumber = null;
+    private volatile int[] mv_cycleNumbers = null;
+    private volatile List<MATCHRESULT> mv_destiniesByNumber = null;
     
     /**
      * Create a new DfaAuxiliaryInformation.
@@ -63,13 +70,14 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
      * <P>
      * Multiple calls to this method will return the same list.
      * 
-     * @return a list that contains every state reachable from the start states, with
+     * @return an unmodifiable list that contains every state reachable from the start states, with
      *      the index of each state s equal to s.getStateNumber().  Unused indexes will
      *      have null values.
      */
-    public synchronized List<DfaState<MATCHRESULT>> getStatesByNumber()
+    public List<DfaState<MATCHRESULT>> getStatesByNumber()
     {
-        if (m_statesByNumber == null)
+        List<DfaState<MATCHRESULT>> ret = mv_statesByNumber;
+        if (ret == null)
         {
             List<DfaState<MATCHRESULT>> statesByNumber = new ArrayList<>();
             ArrayDeque<DfaState<MATCHRESULT>> q = new ArrayDeque<>();
@@ -105,9 +113,10 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
                     }
                 });
             }
-            m_statesByNumber = statesByNumber;
+            ret = Collections.unmodifiableList(statesByNumber);
+            mv_statesByNumber = ret;
         }
-        return m_statesByNumber;
+        return ret;
     }
     
     /**
@@ -197,11 +206,12 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
      * 
      * @return  the cycle numbers array
      */
-    public synchronized int[] getCycleNumbers()
+    public int[] getCycleNumbers()
     {
-        if (m_cycleNumbers != null)
+        final int[] memo = mv_cycleNumbers;
+        if (memo != null)
         {
-            return m_cycleNumbers;
+            return memo;
         }
         //Tarjan's algorithm
         final int[] pindex = new int[]{0};
@@ -259,8 +269,9 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
             }
         };
         
-        m_cycleNumbers = cycleNumbers;
         depthFirstSearch(onEnter, onSkip, onExit);
+        //publish only the finished result
+        mv_cycleNumbers = cycleNumbers;
         return cycleNumbers;
     }
     
@@ -274,19 +285,20 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
      * 
      * @return  The list of destinies by state number
      */
-    public synchronized List<MATCHRESULT> getDestinies()
+    public List<MATCHRESULT> getDestinies()
     {
-        if (m_destiniesByNumber != null)
+        final List<MATCHRESULT> memo = mv_destiniesByNumber;
+        if (memo != null)
         {
-            return m_destiniesByNumber;
+            return memo;
         }
-        getCycleNumbers();
+        final int[] cycleNumbers = getCycleNumbers();
         int numCycles = 0;
-        for (int i=0;i<m_cycleNumbers.length;++i)
+        for (int i=0;i<cycleNumbers.length;++i)
         {
-            if (m_cycleNumbers[i]>=numCycles)
+            if (cycleNumbers[i]>=numCycles)
             {
-                numCycles = m_cycleNumbers[i]+1;
+                numCycles = cycleNumbers[i]+1;
             }
         }
         final Object[] destinies = new Object[getStatesByNumber().size()];
@@ -294,7 +306,7 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
         BiConsumer<DfaState<MATCHRESULT>, DfaState<MATCHRESULT>> onEnter = (parent, child) ->
         {
             int childi = child.getStateNumber();
-            int cycle = m_cycleNumbers[childi];
+            int cycle = cycleNumbers[childi];
             if (cycle >= 0)
             {
                 cycleDestinies[cycle]=_destinyMerge(cycleDestinies[cycle],child.getMatch());
@@ -310,9 +322,9 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
             {
                 int childi = child.getStateNumber();
                 int pari = parent.getStateNumber();
-                int cycle = m_cycleNumbers[childi];
+                int cycle = cycleNumbers[childi];
                 Object o = (cycle >= 0 ? cycleDestinies[cycle] : destinies[childi]);
-                cycle = m_cycleNumbers[pari];
+                cycle = cycleNumbers[pari];
                 if (cycle>=0)
                 {
                     cycleDestinies[cycle] = _destinyMerge(cycleDestinies[cycle],o);
@@ -327,12 +339,13 @@ public class DfaAuxiliaryInformation<MATCHRESULT>
   
         for (int i=0; i<destinies.length; ++i)
         {
-            int cycleNum = m_cycleNumbers[i];
+            int cycleNum = cycleNumbers[i];
             Object o = (cycleNum >= 0 ? cycleDestinies[cycleNum] : destinies[i]);
             destinies[i] = (o == SENTINEL ? null : o);
         }
-        m_destiniesByNumber = new ListWrap<>(destinies);
-        return m_destiniesByNumber;
+        final List<MATCHRESULT> ret = new ListWrap<>(destinies);
+        mv_destiniesByNumber = ret;
+        return ret;
     }
     
     
@@ -0,0 +1,394 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * A compact, versioned binary format for DFAs
+ * <P>
+ * This is much smaller and faster to read than the Java serialization of a DFA, and doesn't depend on
+ * the layout of any classes.  Results are written with a {@link DfaResultCodec} that you provide.
+ * <P>
+ * The format is:
+ * <UL>
+ * <LI>The 4-byte magic number {@link #MAGIC}, big-endian;
+ * <LI>The format version number;
+ * <LI>The number of distinct results, followed by each result, written by the codec;
+ * <LI>The number of start states, followed by the number of each start state;
+ * <LI>The number of states, followed by each state.  Each state is its result index
+ *      (0 for no result, or 1 + the position in the result table), its number of transitions,
+ *      and its transitions in character order.  Each transition is the gap between its first character
+ *      and the end of the previous transition, the number of characters after its first character,
+ *      and its target state number.
+ * </UL>
+ * All numbers except the magic number are unsigned varints: 7 bits per byte, least significant first,
+ * with the high bit set in all bytes but the last.
+ */
+public final class DfaBinaryFormat
+{
+    /**
+     * The magic number at the start of the binary format, "DfLx"
+     */
+    public static final int MAGIC = 0x44664C78;
+
+    /**
+     * The version of the format written by this class
+     */
+    public static final int VERSION = 1;
+
+    //codec for reverse finders
+    static final DfaResultCodec<Boolean> BOOLEAN_CODEC = new DfaResultCodec<Boolean>()
+    {
+        @Override
+        public void writeResult(Boolean result, DataOutput out) throws IOException
+        {
+            out.writeBoolean(result);
+        }
+
+        @Override
+        public Boolean readResult(DataInput in) throws IOException
+        {
+            return in.readBoolean();
+        }
+    };
+
+    private DfaBinaryFormat()
+    {
+    }
+
+    /**
+     * Write DFAs in binary format
+     * <P>
+     * All the states reachable from the given start states are written.  States are numbered
+     * in the order they're found, so the same DFA always produces the same bytes.
+     *
+     * @param startStates the start states of the DFAs to write
+     * @param codec writes the results
+     * @param out the DFAs are written here
+     * @throws IOException if out or the codec throws it
+     */
+    public static <MR> void write(List<DfaState<MR>> startStates, DfaResultCodec<? super MR> codec, OutputStream out) throws IOException
+    {
+        DataOutputStream dout = new DataOutputStream(out);
+        writeRawDfa(toRawDfa(startStates), codec, dout);
+        dout.flush();
+    }
+
+    /**
+     * Read DFAs in binary format
+     * <P>
+     * Exactly the bytes written by {@link #write(List, DfaResultCodec, OutputStream)} are consumed, so
+     * other data can follow.  The stream is read a byte at a time, so it should be buffered.
+     *
+     * @param in the DFAs are read from here
+     * @param codec reads the results
+     * @return the start states of the DFAs, in the order they were written
+     * @throws IOException if in or the codec throws it, or the data is not a valid DFA
+     */
+    public static <MR> List<DfaState<MR>> read(InputStream in, DfaResultCodec<? extends MR> codec) throws IOException
+    {
+        return read(in, codec, DfaStateRepresentation.PACKED_TREE);
+    }
+
+    /**
+     * Read DFAs in binary format
+     *
+     * @param in the DFAs are read from here
+     * @param codec reads the results
+     * @param representation the representation to use for the states
+     * @return the start states of the DFAs, in the order they were written
+     * @throws IOException if in or the codec throws it, or the data is not a valid DFA
+     */
+    public static <MR> List<DfaState<MR>> read(InputStream in, DfaResultCodec<? extends MR> codec, DfaStateRepresentation representation) throws IOException
+    {
+        RawDfa<MR> dfa = readRawDfa(new DataInputStream(in), codec);
+        return new SerializableDfa<>(dfa, representation).getStartStates();
+    }
+
+    /**
+     * Read DFAs in binary format from a buffer
+     * <P>
+     * Reading starts at the buffer's position, which is left after the last byte of the DFAs.
+     *
+     * @param buf the DFAs are read from here
+     * @param codec reads the results
+     * @return the start states of the DFAs, in the order they were written
+     * @throws IOException if the codec throws it, or the data is not a valid DFA
+     */
+    public static <MR> List<DfaState<MR>> read(ByteBuffer buf, DfaResultCodec<? extends MR> codec) throws IOException
+    {
+        return read(buf, codec, DfaStateRepresentation.PACKED_TREE);
+    }
+
+    /**
+     * Read DFAs in binary format from a buffer
+     *
+     * @param buf the DFAs are read from here
+     * @param codec reads the results
+     * @param representation the representation to use for the states
+     * @return the start states of the DFAs, in the order they were written
+     * @throws IOException if the codec throws it, or the data is not a valid DFA
+     */
+    public static <MR> List<DfaState<MR>> read(ByteBuffer buf, DfaResultCodec<? extends MR> codec, DfaStateRepresentation representation) throws IOException
+    {
+        return read(new ByteBufferInputStream(buf), codec, representation);
+    }
+
+    static <MR> byte[] toBytes(RawDfa<MR> dfa, DfaResultCodec<? super MR> codec)
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try
+        {
+            DataOutputStream dout = new DataOutputStream(bytes);
+            writeRawDfa(dfa, codec, dout);
+            dout.flush();
+        }
+        catch(IOException e)
+        {
+            //only the codec could do this
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static <MR> void writeRawDfa(RawDfa<MR> dfa, DfaResultCodec<? super MR> codec, DataOutput out) throws IOException
+    {
+        out.writeInt(MAGIC);
+        _writeVarint(out, VERSION);
+
+        //accept set 0 is always null
+        final List<MR> acceptSets = dfa.getAcceptSets();
+        _writeVarint(out, acceptSets.size()-1);
+        for (int i = 1; i < acceptSets.size(); ++i)
+        {
+            codec.writeResult(acceptSets.get(i), out);
+        }
+
+        final int[] startStates = dfa.getStartStates();
+        _writeVarint(out, startStates.length);
+        for (int startState : startStates)
+        {
+            _writeVarint(out, startState);
+        }
+
+        final List<DfaStateInfo> states = dfa.getStates();
+        _writeVarint(out, states.size());
+        NfaTransition[] transitions = new NfaTransition[16];
+        for (DfaStateInfo state : states)
+        {
+            _writeVarint(out, state.getAcceptSetIndex());
+            final int ntrans = state.getTransitionCount();
+            _writeVarint(out, ntrans);
+            if (transitions.length < ntrans)
+            {
+                transitions = new NfaTransition[ntrans];
+            }
+            for (int i = 0; i < ntrans; ++i)
+            {
+                transitions[i] = state.getTransition(i);
+            }
+            Arrays.sort(transitions, 0, ntrans, (a, b) -> Character.compare(a.m_firstChar, b.m_firstChar));
+            int nextc = 0;
+            for (int i = 0; i < ntrans; ++i)
+            {
+                final NfaTransition trans = transitions[i];
+                _writeVarint(out, trans.m_firstChar - nextc);
+                _writeVarint(out, trans.m_lastChar - trans.m_firstChar);
+                _writeVarint(out, trans.m_stateNum);
+                nextc = trans.m_lastChar + 1;
+            }
+        }
+    }
+
+    static <MR> RawDfa<MR> readRawDfa(DataInput in, DfaResultCodec<? extends MR> codec) throws IOException
+    {
+        if (in.readInt() != MAGIC)
+        {
+            throw new IOException("Not a DFA in binary format");
+        }
+        final int version = _readVarint(in);
+        if (version != VERSION)
+        {
+            throw new IOException("Unsupported DFA binary format version " + version);
+        }
+
+        final int nresults = _readVarint(in);
+        final ArrayList<MR> acceptSets = new ArrayList<>();
+        acceptSets.add(null);
+        for (int i = 0; i < nresults; ++i)
+        {
+            acceptSets.add(codec.readResult(in));
+        }
+
+        final int[] startStates = new int[_readVarint(in)];
+        for (int i = 0; i < startStates.length; ++i)
+        {
+            startStates[i] = _readVarint(in);
+        }
+
+        final int nstates = _readVarint(in);
+        for (int startState : startStates)
+        {
+            _check(startState < nstates);
+        }
+        final ArrayList<DfaStateInfo> states = new ArrayList<>(Math.min(nstates, 1<<16));
+        final ArrayList<NfaTransition> transitions = new ArrayList<>();
+        for (int st = 0; st < nstates; ++st)
+        {
+            final int acceptSetIndex = _readVarint(in);
+            _check(acceptSetIndex <= nresults);
+            final int ntrans = _readVarint(in);
+            transitions.clear();
+            int nextc = 0;
+            for (int i = 0; i < ntrans; ++i)
+            {
+                final int firstc = nextc + _readVarint(in);
+                final int lastc = firstc + _readVarint(in);
+                final int target = _readVarint(in);
+                _check(firstc >= nextc && lastc >= firstc && lastc <= Character.MAX_VALUE && target < nstates);
+                transitions.add(new NfaTransition((char)firstc, (char)lastc, target));
+                nextc = lastc + 1;
+            }
+            states.add(new DfaStateInfo(transitions, acceptSetIndex));
+        }
+        return new RawDfa<>(states, acceptSets, startStates);
+    }
+
+    //Collect the states reachable from the start states into a RawDfa
+    static <MR> RawDfa<MR> toRawDfa(List<DfaState<MR>> startStates)
+    {
+        final IdentityHashMap<DfaState<MR>, Integer> stateNumbers = new IdentityHashMap<>();
+        final ArrayList<DfaState<MR>> stateList = new ArrayList<>();
+        final int[] startNumbers = new int[startStates.size()];
+        for (int i = 0; i < startNumbers.length; ++i)
+        {
+            startNumbers[i] = _numberState(stateNumbers, stateList, startStates.get(i));
+        }
+
+        final ArrayList<MR> acceptSets = new ArrayList<>();
+        final HashMap<MR, Integer> acceptSetMap = new HashMap<>();
+        acceptSets.add(null);
+        final ArrayList<DfaStateInfo> states = new ArrayList<>();
+        final ArrayList<NfaTransition> transitions = new ArrayList<>();
+        for (int i = 0; i < stateList.size(); ++i)
+        {
+            final DfaState<MR> state = stateList.get(i);
+            transitions.clear();
+            state.enumerateTransitions((firstc, lastc, target) -> {
+                transitions.add(new NfaTransition(firstc, lastc, _numberState(stateNumbers, stateList, target)));
+            });
+            int acceptSetIndex = 0;
+            final MR match = state.getMatch();
+            if (match != null)
+            {
+                acceptSetIndex = acceptSetMap.computeIfAbsent(match, m -> {
+                    acceptSets.add(m);
+                    return acceptSets.size()-1;
+                });
+            }
+            states.add(new DfaStateInfo(transitions, acceptSetIndex));
+        }
+        return new RawDfa<>(states, acceptSets, startNumbers);
+    }
+
+    private static <MR> int _numberState(IdentityHashMap<DfaState<MR>, Integer> stateNumbers, ArrayList<DfaState<MR>> stateList, DfaState<MR> state)
+    {
+        return stateNumbers.computeIfAbsent(state, s -> {
+            stateList.add(s);
+            return stateList.size()-1;
+        });
+    }
+
+    private static void _check(boolean ok) throws IOException
+    {
+        if (!ok)
+        {
+            throw new IOException("Invalid DFA in binary format");
+        }
+    }
+
+    private static void _writeVarint(DataOutput out, int val) throws IOException
+    {
+        while ((val & ~0x7F) != 0)
+        {
+            out.writeByte((val & 0x7F) | 0x80);
+            val >>>= 7;
+        }
+        out.writeByte(val);
+    }
+
+    private static int _readVarint(DataInput in) throws IOException
+    {
+        int ret = 0;
+        for (int shift = 0; shift < 32; shift += 7)
+        {
+            final int b = in.readUnsignedByte();
+            ret |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+            {
+                _check(ret >= 0);
+                return ret;
+            }
+        }
+        throw new IOException("Invalid DFA in binary format");
+    }
+
+    private static class ByteBufferInputStream extends InputStream
+    {
+        private final ByteBuffer m_buf;
+
+        ByteBufferInputStream(ByteBuffer buf)
+        {
+            m_buf = buf;
+        }
+
+        @Override
+        public int read()
+        {
+            return (m_buf.hasRemaining() ? (m_buf.get() & 0xFF) : -1);
+        }
+
+        @Override
+        public int read(byte[] dest, int off, int len)
+        {
+            if (len == 0)
+            {
+                return 0;
+            }
+            if (!m_buf.hasRemaining())
+            {
+                return -1;
+            }
+            len = Math.min(len, m_buf.remaining());
+            m_buf.get(dest, off, len);
+            return len;
+        }
+    }
+}
@@ -15,16 +15,22 @@
  */
 package com.nobigsoftware.dfalex;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 import com.nobigsoftware.util.BuilderCache;
 import com.nobigsoftware.util.SHAOutputStream;
@@ -65,9 +71,22 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
     //dfa types for cache keys
     private static final int DFATYPE_MATCHER = 0;
     private static final int DFATYPE_REVERSEFINDER = 1;
+    private static final int DFATYPE_FLATMATCHER = 2;
+    private static final int DFATYPE_COMPILEDMATCHER = 3;
+    private static final int DFATYPE_UTF8MATCHER = 4;
+    private static final int DFATYPE_FORWARDFINDER = 5;
+    
+    /**
+     * The default maximum number of states that a lazy DFA will cache before it is flushed.
+     * See {@link #buildLazy(List, DfaAmbiguityResolver, int)}
+     */
+    public static final int DEFAULT_LAZY_CACHE_STATES = 10000;
     
     private final BuilderCache m_cache;
 	private final Map<MATCHRESULT, List<Matchable>> m_patterns = new LinkedHashMap<>();
+	private DfaStateRepresentation m_stateRepresentation = DfaStateRepresentation.PACKED_TREE;
+	private ForkJoinPool m_buildPool = null;
+	private DfaResultCodec<MATCHRESULT> m_resultCodec = null;
 	
 	/**
 	 * Create a new DfaBuilder without a {@link BuilderCache}
@@ -95,6 +114,56 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
 	    m_patterns.clear();
 	}
 	
+	/**
+	 * Set the representation to use for the states of DFAs built by this builder
+	 * <P>
+	 * This affects only the speed and size of the DFAs built.  The default is
+	 * {@link DfaStateRepresentation#PACKED_TREE}, which is the most compact.  If your input is
+	 * mostly ASCII, for example, then {@link DfaStateRepresentation#ASCII_TABLE} will make
+	 * {@link StringMatcher} and {@link StringSearcher} faster.
+	 * <P>
+	 * This applies to the DFAs made by the build methods that produce {@link DfaState}s, and
+	 * the reverse finders used by {@link #buildStringSearcher(DfaAmbiguityResolver)}
+	 * 
+	 * @param representation the state representation to use
+	 */
+	public void setStateRepresentation(DfaStateRepresentation representation)
+	{
+	    m_stateRepresentation = (representation == null ? DfaStateRepresentation.PACKED_TREE : representation);
+	}
+	
+	/**
+	 * Set a thread pool to use for building DFAs
+	 * <P>
+	 * If a pool is set, then the powerset construction that turns the patterns into a DFA, and the
+	 * larger steps of DFA minimization, are done in parallel, which is much faster for large sets of
+	 * patterns on multi-core machines.  The DFAs built are exactly the same either way.
+	 * 
+	 * @param pool the pool to use, or null to build DFAs in the calling thread.  The default is null.
+	 */
+	public void setBuildPool(ForkJoinPool pool)
+	{
+	    m_buildPool = pool;
+	}
+	
+	/**
+	 * Set a codec that writes results in {@link DfaBinaryFormat}
+	 * <P>
+	 * If a codec is set, then DFAs made by the build methods that produce {@link DfaState}s, and the reverse
+	 * finders used by {@link #buildStringSearcher(DfaAmbiguityResolver)}, are stored in this builder's
+	 * {@link BuilderCache} as byte arrays in {@link DfaBinaryFormat}, instead of serialized objects.  These
+	 * are much smaller and faster to read.
+	 * <P>
+	 * The codec is not part of the cache key, so if you change the way it encodes results, you should also
+	 * change the patterns or results that are added to the builder, or clear the cache.
+	 * 
+	 * @param codec the codec to use, or null to store serialized objects in the cache.  The default is null.
+	 */
+	public void setResultCodec(DfaResultCodec<MATCHRESULT> codec)
+	{
+	    m_resultCodec = codec;
+	}
+	
 	public void addPattern(Matchable pat, MATCHRESULT accept)
 	{
 		List<Matchable> patlist = m_patterns.computeIfAbsent(accept, x -> new ArrayList<>());
@@ -162,6 +231,11 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
         {
             serializableDfa = _build(languages, ambiguityResolver);
         }
+        else if (m_resultCodec != null)
+        {
+            String cacheKey = _getCacheKey(DFATYPE_MATCHER, languages, ambiguityResolver);
+            serializableDfa = _getCachedBinaryDfa(cacheKey, m_resultCodec, () -> _buildMinimalDfa(languages, ambiguityResolver));
+        }
         else
         {
             String cacheKey = _getCacheKey(DFATYPE_MATCHER, languages, ambiguityResolver);
@@ -175,6 +249,250 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
         return serializableDfa.getStartStates();
     }
     
+    /**
+     * Build a {@link FlatDfa} for a single language
+     * <P>
+     * The resulting DFA matches ALL patterns that have been added to this builder.  It is the
+     * same DFA that {@link #build(DfaAmbiguityResolver)} produces, compiled into flat transition
+     * tables with integer state numbers.
+     * 
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @return The flat DFA, with a single start state
+     */
+    public FlatDfa<MATCHRESULT> buildFlat(DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+    {
+        return buildFlat(Collections.singletonList(m_patterns.keySet()), ambiguityResolver);
+    }
+
+    /**
+     * Build a {@link FlatDfa} for multiple languages simultaneously.
+     * <P>
+     * Each language is specified as a subset of available MATCHRESULTs, and will include patterns
+     * for each result in its set.
+     * <P>
+     * Languages built simultaneously will be globally minimized and will share as many states as possible.
+     * 
+     * @param languages     sets defining the languages to build
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @return The flat DFA.  It has one start state for each language, with start state i corresponding to
+     *      languages.get(i)
+     */
+    @SuppressWarnings("unchecked")
+    public FlatDfa<MATCHRESULT> buildFlat(List<Set<MATCHRESULT>> languages, DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+    {
+        FlatDfa<MATCHRESULT> flatDfa = null;
+        if (m_cache == null)
+        {
+            flatDfa = new FlatDfa<>(_buildMinimalDfa(languages, ambiguityResolver));
+        }
+        else
+        {
+            String cacheKey = _getCacheKey(DFATYPE_FLATMATCHER, languages, ambiguityResolver);
+            flatDfa = (FlatDfa<MATCHRESULT>) m_cache.getCachedItem(cacheKey);
+            if (flatDfa == null)
+            {
+                flatDfa = new FlatDfa<>(_buildMinimalDfa(languages, ambiguityResolver));
+                m_cache.maybeCacheItem(cacheKey, flatDfa);
+            }
+        }
+        return flatDfa;
+    }
+    
+    /**
+     * Build a {@link Lexer} for all the patterns that have been added to this builder
+     * <P>
+     * The lexer uses the same DFA that {@link #buildFlat(DfaAmbiguityResolver)} produces.
+     * 
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @param tokenIds  provides a non-negative integer token ID for each match result
+     * @param errorPolicy   what the lexer does with input that doesn't start a token
+     * @return the lexer
+     */
+    public Lexer<MATCHRESULT> buildLexer(DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver,
+            ToIntFunction<? super MATCHRESULT> tokenIds, LexerErrorPolicy errorPolicy)
+    {
+        FlatDfa<MATCHRESULT> dfa = buildFlat(ambiguityResolver);
+        return new Lexer<>(dfa, dfa.getStartState(0), tokenIds, errorPolicy);
+    }
+
+    /**
+     * Build a {@link FlatDfa} that matches UTF-8 encoded bytes, for a single language
+     * <P>
+     * The resulting DFA matches the UTF-8 encodings of ALL patterns that have been added to this builder.
+     * Its alphabet is bytes instead of characters: pass each byte b to {@link FlatDfa#getNextState(int, char)}
+     * as (char)(b&amp;0xFF), or use a {@link ByteMatcher} to find matches in byte buffers.
+     * Unpaired surrogates in patterns are ignored, since they have no UTF-8 encoding.
+     * 
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @return The UTF-8 DFA, with a single start state
+     */
+    public FlatDfa<MATCHRESULT> buildUtf8(DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+    {
+        return buildUtf8(Collections.singletonList(m_patterns.keySet()), ambiguityResolver);
+    }
+
+    /**
+     * Build a {@link FlatDfa} that matches UTF-8 encoded bytes, for multiple languages simultaneously.
+     * <P>
+     * This is the same as {@link #buildFlat(List, DfaAmbiguityResolver)}, except that the DFA matches
+     * UTF-8 encoded bytes, as described in {@link #buildUtf8(DfaAmbiguityResolver)}
+     * 
+     * @param languages     sets defining the languages to build
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @return The UTF-8 DFA.  It has one start state for each language, with start state i corresponding to
+     *      languages.get(i)
+     */
+    @SuppressWarnings("unchecked")
+    public FlatDfa<MATCHRESULT> buildUtf8(List<Set<MATCHRESULT>> languages, DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+    {
+        FlatDfa<MATCHRESULT> flatDfa = null;
+        if (m_cache == null)
+        {
+            flatDfa = new FlatDfa<>(_buildMinimalDfa(languages, ambiguityResolver, true));
+        }
+        else
+        {
+            String cacheKey = _getCacheKey(DFATYPE_UTF8MATCHER, languages, ambiguityResolver);
+            flatDfa = (FlatDfa<MATCHRESULT>) m_cache.getCachedItem(cacheKey);
+            if (flatDfa == null)
+            {
+                flatDfa = new FlatDfa<>(_buildMinimalDfa(languages, ambiguityResolver, true));
+                m_cache.maybeCacheItem(cacheKey, flatDfa);
+            }
+        }
+        return flatDfa;
+    }
+    
+    /**
+     * Build a {@link CompiledDfa} for a single language
+     * <P>
+     * The resulting DFA matches ALL patterns that have been added to this builder.  It is the
+     * same DFA that {@link #build(DfaAmbiguityResolver)} produces, compiled into a JVM class.
+     * <P>
+     * If this builder has a {@link BuilderCache}, then the generated class file is cached, so that
+     * it doesn't need to be generated again.
+     * 
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @return The compiled DFA
+     */
+    public CompiledDfa<MATCHRESULT> buildCompiled(DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+    {
+        return buildCompiled(Collections.singletonList(m_patterns.keySet()), ambiguityResolver).get(0);
+    }
+
+    /**
+     * Build {@link CompiledDfa}s for multiple languages simultaneously.
+     * <P>
+     * Each language is specified as a subset of available MATCHRESULTs, and will include patterns
+     * for each result in its set.
+     * <P>
+     * Languages built simultaneously will be globally minimized and will share as many states as possible.
+     * They share a single generated class.
+     * 
+     * @param languages     sets defining the languages to build
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @return Compiled DFAs that match the given languages.  This will have the same length as languages, with
+     *         corresponding DFAs in corresponding positions.
+     */
+    @SuppressWarnings("unchecked")
+    public List<CompiledDfa<MATCHRESULT>> buildCompiled(List<Set<MATCHRESULT>> languages, DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+    {
+        if (languages.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        
+        SerializableCompiledDfa<MATCHRESULT> compiledDfa = null;
+        if (m_cache == null)
+        {
+            compiledDfa = new SerializableCompiledDfa<>(_buildMinimalDfa(languages, ambiguityResolver));
+        }
+        else
+        {
+            String cacheKey = _getCacheKey(DFATYPE_COMPILEDMATCHER, languages, ambiguityResolver);
+            compiledDfa = (SerializableCompiledDfa<MATCHRESULT>) m_cache.getCachedItem(cacheKey);
+            if (compiledDfa == null)
+            {
+                compiledDfa = new SerializableCompiledDfa<>(_buildMinimalDfa(languages, ambiguityResolver));
+                m_cache.maybeCacheItem(cacheKey, compiledDfa);
+            }
+        }
+        return compiledDfa.getStartStates();
+    }
+    
+    /**
+     * Build a lazy DFA for a single language
+     * <P>
+     * The resulting DFA matches ALL patterns that have been added to this builder.  See
+     * {@link #buildLazy(List, DfaAmbiguityResolver, int)}
+     * 
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @return The start state for a lazy DFA that matches the set of patterns in language
+     */
+    public DfaState<MATCHRESULT> buildLazy(DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+    {
+        return buildLazy(Collections.singletonList(m_patterns.keySet()), ambiguityResolver, DEFAULT_LAZY_CACHE_STATES).get(0);
+    }
+    
+    /**
+     * Build lazy DFAs for multiple languages simultaneously.
+     * <P>
+     * A lazy DFA is built from the patterns' NFA on demand, while it is in use.  A state is made the first
+     * time it is reached, and the transitions out of a state are calculated the first time it processes
+     * a character.  Building is nearly instant, and the work done is proportional to the input actually seen,
+     * so this is a good choice for large or complex sets of patterns, especially patterns with DFAs that are
+     * exponentially larger than their NFAs, like <code>(a|b)*a(a|b)(a|b)(a|b)...</code>
+     * <P>
+     * The states that have been made are kept in a cache.  When it has maxCachedStates states, the cache is
+     * flushed and states are made again as they are needed.  Start states and other states that you hold remain
+     * valid.
+     * <P>
+     * Lazy DFAs are not minimized, and are not cached in this builder's {@link BuilderCache}.  State numbers are
+     * unique, but not compact, so lazy DFAs cannot be used with {@link DfaAuxiliaryInformation}.  Lazy states are
+     * thread-safe, like all DfaStates.
+     * <P>
+     * Note that the ambiguityResolver is called when states are made, while the DFA is in use, so
+     * a {@link DfaAmbiguityException} will not be thrown until an ambiguous match is actually reached.
+     * 
+     * @param languages     sets defining the languages to build
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @param maxCachedStates   The maximum number of states to cache before flushing the cache
+     * @return Start states for DFAs that match the given languages.  This will have the same length as languages, with
+     *         corresponding start states in corresponding positions.
+     */
+    public List<DfaState<MATCHRESULT>> buildLazy(List<Set<MATCHRESULT>> languages, DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver, int maxCachedStates)
+    {
+        if (languages.isEmpty())
+        {
+            return Collections.emptyList();
+        }
+        Nfa<MATCHRESULT> nfa = new Nfa<>();
+        int[] nfaStartStates = _buildNfa(nfa, languages);
+        if (ambiguityResolver == null)
+        {
+            ambiguityResolver = conflicts -> defaultAmbiguityResolver(conflicts);
+        }
+        return new LazyDfa<>(nfa, nfaStartStates, ambiguityResolver, maxCachedStates).getStartStates();
+    }
+    
     /**
      * Build the reverse finder DFA for all patterns that have been added to this builder
      * <P>
@@ -230,26 +548,68 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
      * @return Start states for reverse finders for the given languages.  This will have the same length as languages, with
      *         corresponding start states in corresponding positions.
      */
-    @SuppressWarnings("unchecked")
     public List<DfaState<Boolean>> buildReverseFinders(List<Set<MATCHRESULT>> languages)
+    {
+        return _buildFinders(languages, true);
+    }
+    
+    /**
+     * Build the forward finder DFA for all patterns that have been added to this builder
+     * <P>
+     * The "forward finder DFA" for a set of patterns is applied to a string forward from a starting position,
+     * and will produce a {@link Boolean#TRUE} result at every position where a non-empty string match for one of the
+     * patterns, starting at or after the starting position, ends.  At other positions it will produce null result.
+     * <P>
+     * It is used by {@link StringSearcher}s in {@link SearchMode#FORWARD_FINDER} mode.
+     * 
+     * @return The start state for the forward finder DFA
+     */
+    public DfaState<Boolean> buildForwardFinder()
+    {
+        return buildForwardFinders(Collections.singletonList(m_patterns.keySet())).get(0);
+    }
+
+    /**
+     * Build forward finder DFAs for multiple languages simultaneously.
+     * <P>
+     * Each language is specified as a subset of available MATCHRESULTs, and will include patterns
+     * for each result in its set.  See {@link #buildForwardFinder()}
+     * 
+     * @param languages     sets defining the languages to build
+     * @return Start states for forward finders for the given languages.  This will have the same length as languages, with
+     *         corresponding start states in corresponding positions.
+     */
+    public List<DfaState<Boolean>> buildForwardFinders(List<Set<MATCHRESULT>> languages)
+    {
+        return _buildFinders(languages, false);
+    }
+    
+    @SuppressWarnings("unchecked")
+    private List<DfaState<Boolean>> _buildFinders(List<Set<MATCHRESULT>> languages, boolean reverse)
     {
         if (languages.isEmpty())
         {
             return Collections.emptyList();
         }
         
+        final int dfaType = (reverse ? DFATYPE_REVERSEFINDER : DFATYPE_FORWARDFINDER);
         SerializableDfa<Boolean> serializableDfa = null;
         if (m_cache == null)
         {
-            serializableDfa = _buildReverseFinders(languages);
+            serializableDfa = _buildFinderDfa(languages, reverse);
+        }
+        else if (m_resultCodec != null)
+        {
+            String cacheKey = _getCacheKey(dfaType, languages, null);
+            serializableDfa = _getCachedBinaryDfa(cacheKey, DfaBinaryFormat.BOOLEAN_CODEC, () -> _buildMinimalFinders(languages, reverse));
         }
         else
         {
-            String cacheKey = _getCacheKey(DFATYPE_REVERSEFINDER, languages, null);
+            String cacheKey = _getCacheKey(dfaType, languages, null);
             serializableDfa = (SerializableDfa<Boolean>) m_cache.getCachedItem(cacheKey);
             if (serializableDfa == null)
             {
-                serializableDfa = _buildReverseFinders(languages);
+                serializableDfa = _buildFinderDfa(languages, reverse);
                 m_cache.maybeCacheItem(cacheKey, serializableDfa);
             }
         }
@@ -266,7 +626,83 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
      */
     public StringSearcher<MATCHRESULT> buildStringSearcher(DfaAmbiguityResolver<MATCHRESULT> ambiguityResolver)
     {
-        return new StringSearcher<>(build(ambiguityResolver), buildReverseFinder());
+        return new StringSearcher<>(build(ambiguityResolver), buildReverseFinder(), null, _buildPrefilter());
+    }
+    
+    /**
+     * Build a {@link StringSearcher} for all the patterns that have been added to this builder, that
+     * uses the given search mode
+     * 
+     * @param ambiguityResolver     When patterns for multiple results match the same string, this is called to
+     *                              combine the multiple results into one.  If this is null, then a DfaAmbiguityException
+     *                              will be thrown in that case.
+     * @param mode  the way that the searcher will find the places where matches start
+     *  @return A {@link StringSearcher} for all the patterns in this builder
+     */
+    public StringSearcher<MATCHRESULT> buildStringSearcher(DfaAmbiguityResolver<MATCHRESULT> ambiguityResolver, SearchMode mode)
+    {
+        DfaState<MATCHRESULT> matcher = build(ambiguityResolver);
+        if (mode == SearchMode.AUTO)
+        {
+            //forward finding is linear if match lengths are bounded, i.e., there are no cycles
+            mode = (_hasCycles(matcher) ? SearchMode.REVERSE_FINDER : SearchMode.FORWARD_FINDER);
+        }
+        if (mode == SearchMode.FORWARD_FINDER)
+        {
+            return new StringSearcher<>(matcher, null, buildForwardFinder(), _buildPrefilter());
+        }
+        return new StringSearcher<>(matcher, buildReverseFinder(), null, _buildPrefilter());
+    }
+    
+    //true if the DFA has a cycle, so match lengths are unbounded.  Cycle numbers
+    //don't cover a single state that transitions to itself, so we check for those separately
+    private static <T> boolean _hasCycles(DfaState<T> start)
+    {
+        DfaAuxiliaryInformation<T> auxInfo = new DfaAuxiliaryInformation<>(Collections.singletonList(start));
+        int[] cycleNumbers = auxInfo.getCycleNumbers();
+        for (DfaState<T> state : auxInfo.getStatesByNumber())
+        {
+            if (state == null)
+            {
+                continue;
+            }
+            if (cycleNumbers[state.getStateNumber()] >= 0)
+            {
+                return true;
+            }
+            for (DfaState<T> target : state.getSuccessorStates())
+            {
+                if (target == state)
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    //Find a set of literals such that every match of every pattern contains one of them,
+    //and make a prefilter for them.  Returns null if there is no useful set
+    private LiteralPrefilter _buildPrefilter()
+    {
+        Set<String> literals = new LinkedHashSet<>();
+        for (List<Matchable> patList : m_patterns.values())
+        {
+            for (Matchable pat : patList)
+            {
+                Set<String> required = RequiredLiterals.forMatchable(pat).getRequired();
+                if (required == null)
+                {
+                    return null;
+                }
+                literals.addAll(required);
+                if (literals.size() > RequiredLiterals.MAX_STRINGS)
+                {
+                    return null;
+                }
+            }
+        }
+        return LiteralPrefilter.create(literals);
     }
     
     /**
@@ -345,6 +781,17 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
             os.flush();
             sha.on(true);
             os.writeInt(dfaType);
+            if ((dfaType == DFATYPE_MATCHER || dfaType == DFATYPE_REVERSEFINDER || dfaType == DFATYPE_FORWARDFINDER) && m_stateRepresentation != DfaStateRepresentation.PACKED_TREE)
+            {
+                //only written when it's not the default, so older cache keys remain valid
+                os.writeObject(m_stateRepresentation);
+            }
+            if ((dfaType == DFATYPE_MATCHER || dfaType == DFATYPE_REVERSEFINDER || dfaType == DFATYPE_FORWARDFINDER) && m_resultCodec != null)
+            {
+                //cached items are in binary format
+                os.writeInt(DfaBinaryFormat.MAGIC);
+                os.writeInt(DfaBinaryFormat.VERSION);
+            }
             final int numLangs = languages.size();
             os.writeInt(numLangs);
             
@@ -409,14 +856,49 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
         return cacheKey;
     }
     
+	//Get a DFA that is cached in binary format, or build it and cache it
+	private <R> SerializableDfa<R> _getCachedBinaryDfa(String cacheKey, DfaResultCodec<R> codec, Supplier<RawDfa<R>> builder)
+	{
+	    RawDfa<R> dfa = null;
+	    Serializable item = m_cache.getCachedItem(cacheKey);
+	    if (item instanceof byte[])
+	    {
+	        try
+	        {
+	            dfa = DfaBinaryFormat.readRawDfa(new DataInputStream(new ByteArrayInputStream((byte[])item)), codec);
+	        }
+	        catch(IOException e)
+	        {
+	            //can't read it.  We'll build it again
+	            dfa = null;
+	        }
+	    }
+	    if (dfa == null)
+	    {
+	        dfa = builder.get();
+	        m_cache.maybeCacheItem(cacheKey, DfaBinaryFormat.toBytes(dfa, codec));
+	    }
+	    return new SerializableDfa<>(dfa, m_stateRepresentation);
+	}
+	
 	private SerializableDfa<MATCHRESULT> _build(List<Set<MATCHRESULT>> languages, DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+	{
+		return new SerializableDfa<>(_buildMinimalDfa(languages, ambiguityResolver), m_stateRepresentation);
+	}
+	
+	private RawDfa<MATCHRESULT> _buildMinimalDfa(List<Set<MATCHRESULT>> languages, DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver)
+	{
+		return _buildMinimalDfa(languages, ambiguityResolver, false);
+	}
+	
+	private RawDfa<MATCHRESULT> _buildMinimalDfa(List<Set<MATCHRESULT>> languages, DfaAmbiguityResolver<? super MATCHRESULT> ambiguityResolver, boolean utf8)
 	{
 		Nfa<MATCHRESULT> nfa = new Nfa<>();
-		
-		int[] nfaStartStates = new int[languages.size()];
-		for (int i=0; i<languages.size(); ++i)
+		int[] nfaStartStates = _buildNfa(nfa, languages);
+		if (utf8)
 		{
-			nfaStartStates[i] = nfa.addState(null);
+			//start states keep their numbers
+			nfa = Utf8Nfa.toUtf8(nfa);
 		}
 		
 		if (ambiguityResolver == null)
@@ -424,6 +906,29 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
 			ambiguityResolver = conflicts -> defaultAmbiguityResolver(conflicts);
 		}
 		
+		RawDfa<MATCHRESULT> rawDfa = _buildRawDfa(nfa, nfaStartStates, ambiguityResolver);
+		return (new DfaMinimizer<MATCHRESULT>(rawDfa, m_buildPool)).getMinimizedDfa();
+	}
+	
+	//Do the powerset construction, in the build pool if we have one
+	private <R> RawDfa<R> _buildRawDfa(Nfa<R> nfa, int[] nfaStartStates, DfaAmbiguityResolver<? super R> ambiguityResolver)
+	{
+	    if (m_buildPool != null)
+	    {
+	        return (new ParallelDfaFromNfa<R>(nfa, nfaStartStates, ambiguityResolver, m_buildPool)).getDfa();
+	    }
+	    return (new DfaFromNfa<R>(nfa, nfaStartStates, ambiguityResolver)).getDfa();
+	}
+	
+	//Add the patterns for the given languages to an NFA, and return the NFA start state for each language
+	private int[] _buildNfa(Nfa<MATCHRESULT> nfa, List<Set<MATCHRESULT>> languages)
+	{
+		int[] nfaStartStates = new int[languages.size()];
+		for (int i=0; i<languages.size(); ++i)
+		{
+			nfaStartStates[i] = nfa.addState(null);
+		}
+		
 		for (Entry<MATCHRESULT, List<Matchable>> patEntry : m_patterns.entrySet())
 		{
 			List<Matchable> patList = patEntry.getValue();
@@ -460,20 +965,15 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
 				nfa.addEpsilon(nfaStartStates[i],matchState);
 			}
 		}
-		
-		SerializableDfa<MATCHRESULT> serializableDfa;
-		{
-			RawDfa<MATCHRESULT> minimalDfa;
-			{
-				RawDfa<MATCHRESULT> rawDfa = (new DfaFromNfa<MATCHRESULT>(nfa, nfaStartStates, ambiguityResolver)).getDfa();
-				minimalDfa = (new DfaMinimizer<MATCHRESULT>(rawDfa)).getMinimizedDfa();
-			}
-			serializableDfa = new SerializableDfa<>(minimalDfa);
-		}
-		return serializableDfa;
+		return nfaStartStates;
 	}
 	
-    private SerializableDfa<Boolean> _buildReverseFinders(List<Set<MATCHRESULT>> languages)
+    private SerializableDfa<Boolean> _buildFinderDfa(List<Set<MATCHRESULT>> languages, boolean reverse)
+    {
+        return new SerializableDfa<>(_buildMinimalFinders(languages, reverse), m_stateRepresentation);
+    }
+    
+    private RawDfa<Boolean> _buildMinimalFinders(List<Set<MATCHRESULT>> languages, boolean reverse)
     {
         Nfa<Boolean> nfa = new Nfa<>();
         
@@ -481,7 +981,7 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
         final int endState = nfa.addState(true);
         final DfaAmbiguityResolver<Boolean> ambiguityResolver = conflicts -> defaultAmbiguityResolver(conflicts);
 
-        //First, make an NFA that matches the reverse of all the patterns
+        //First, make an NFA that matches all the patterns, or their reverses
         for (Entry<MATCHRESULT, List<Matchable>> patEntry : m_patterns.entrySet())
         {
             List<Matchable> patList = patEntry.getValue();
@@ -497,7 +997,7 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
                 }
                 for (Matchable pat : patEntry.getValue())
                 {
-                    int st = pat.getReversed().addToNFA(nfa, endState);
+                    int st = (reverse ? pat.getReversed() : pat).addToNFA(nfa, endState);
                     nfa.addEpsilon(startState, st);
                 }
             }
@@ -509,16 +1009,8 @@ public class DfaBuilder<MATCHRESULT extends Serializable>
         startState = Pattern.maybeRepeat(CharRange.ALL).addToNFA(nfa, startState);
         
         //build the DFA
-        SerializableDfa<Boolean> serializableDfa;
-        {
-            RawDfa<Boolean> minimalDfa;
-            {
-                RawDfa<Boolean> rawDfa = (new DfaFromNfa<Boolean>(nfa, new int[] {startState}, ambiguityResolver)).getDfa();
-                minimalDfa = (new DfaMinimizer<Boolean>(rawDfa)).getMinimizedDfa();
-            }
-            serializableDfa = new SerializableDfa<>(minimalDfa);
-        }
-        return serializableDfa;
+        RawDfa<Boolean> rawDfa = _buildRawDfa(nfa, new int[] {startState}, ambiguityResolver);
+        return (new DfaMinimizer<Boolean>(rawDfa, m_buildPool)).getMinimizedDfa();
     }
     
     private static <T> T defaultAmbiguityResolver(Set<T> matches)
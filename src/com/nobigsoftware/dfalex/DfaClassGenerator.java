@@ -0,0 +1,432 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Generates the class file for a {@link CompiledDfa} subclass that implements a {@link RawDfa}
+ * <P>
+ * The generated runDfa method is a loop that reads a character and then dispatches on the
+ * current state with a tableswitch.  The code for each state is a balanced binary tree of
+ * comparisons against the character, with a leaf for each transition that sets the next
+ * state, records a match if the target state is accepting, and jumps back to the top of the loop.
+ * <P>
+ * We generate version 49 class files, so that we don't have to compute stack map frames.
+ */
+class DfaClassGenerator
+{
+    static final String CLASS_NAME = "com.nobigsoftware.dfalex.GeneratedDfa";
+
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    //local variable slots in runDfa
+    private static final int LOCAL_STATE = 1;
+    private static final int LOCAL_SRC = 2;
+    private static final int LOCAL_POS = 3;
+    private static final int LOCAL_LIMIT = 4;
+    private static final int LOCAL_RET = 5; //a long, so it takes 5 and 6
+    private static final int LOCAL_CHAR = 7;
+
+    //opcodes
+    private static final int ICONST_M1 = 0x02;
+    private static final int BIPUSH = 0x10;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC_W = 0x13;
+    private static final int ILOAD = 0x15;
+    private static final int LLOAD = 0x16;
+    private static final int ALOAD = 0x19;
+    private static final int ISTORE = 0x36;
+    private static final int LSTORE = 0x37;
+    private static final int LSHL = 0x79;
+    private static final int LOR = 0x81;
+    private static final int IINC = 0x84;
+    private static final int I2L = 0x85;
+    private static final int IF_ICMPGE = 0xa2;
+    private static final int GOTO = 0xa7;
+    private static final int TABLESWITCH = 0xaa;
+    private static final int LRETURN = 0xad;
+    private static final int RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int GOTO_W = 0xc8;
+
+    private final RawDfa<?> m_dfa;
+    private final ByteWriter m_pool = new ByteWriter();
+    private final HashMap<String, Integer> m_poolIndexes = new HashMap<>();
+    private int m_poolCount = 1;
+    private final ByteWriter m_code = new ByteWriter();
+    private int m_endLabel;
+    private int m_loopLabel;
+
+    private DfaClassGenerator(RawDfa<?> dfa)
+    {
+        m_dfa = dfa;
+    }
+
+    /**
+     * Generate the class file for a DFA
+     *
+     * @param dfa the DFA to implement
+     * @return The class file for a {@link CompiledDfa} subclass called {@link #CLASS_NAME}, with a
+     *      public (int, Object[]) constructor.  The result indexes it produces are accept set indexes
+     *      in the DFA.  Returns null if the DFA is too big to implement in a single method.
+     */
+    static byte[] generateClass(RawDfa<?> dfa)
+    {
+        try
+        {
+            return new DfaClassGenerator(dfa)._generate();
+        }
+        catch(CodeTooLargeException e)
+        {
+            return null;
+        }
+    }
+
+    private byte[] _generate()
+    {
+        final int thisClass = _classConst(CLASS_NAME.replace('.', '/'));
+        final String superName = CompiledDfa.class.getName().replace('.', '/');
+        final int superClass = _classConst(superName);
+        final int superInit = _memberConst(10, superName, "<init>", "(I[Ljava/lang/Object;)V");
+        final int initName = _utf8Const("<init>");
+        final int initDesc = _utf8Const("(I[Ljava/lang/Object;)V");
+        final int runName = _utf8Const("runDfa");
+        final int runDesc = _utf8Const("(ILjava/lang/CharSequence;II)J");
+        final int codeName = _utf8Const("Code");
+
+        ByteWriter initCode = new ByteWriter();
+        initCode.writeByte(ALOAD).writeByte(0);
+        initCode.writeByte(ILOAD).writeByte(1);
+        initCode.writeByte(ALOAD).writeByte(2);
+        initCode.writeByte(INVOKESPECIAL).writeShort(superInit);
+        initCode.writeByte(RETURN);
+
+        _generateRunDfa();
+
+        ByteWriter out = new ByteWriter();
+        out.writeInt(0xCAFEBABE);
+        out.writeShort(0).writeShort(49);
+        out.writeShort(m_poolCount);
+        out.write(m_pool);
+        out.writeShort(0x0031); //public final super
+        out.writeShort(thisClass).writeShort(superClass);
+        out.writeShort(0); //interfaces
+        out.writeShort(0); //fields
+        out.writeShort(2); //methods
+        out.writeShort(0x0001).writeShort(initName).writeShort(initDesc);
+        _writeCodeAttribute(out, codeName, 3, 3, initCode);
+        out.writeShort(0x0014).writeShort(runName).writeShort(runDesc); //protected final
+        _writeCodeAttribute(out, codeName, 4, 8, m_code);
+        out.writeShort(0); //class attributes
+        return out.toByteArray();
+    }
+
+    private static void _writeCodeAttribute(ByteWriter out, int codeName, int maxStack, int maxLocals, ByteWriter code)
+    {
+        out.writeShort(1); //method attributes
+        out.writeShort(codeName);
+        out.writeInt(code.size() + 12);
+        out.writeShort(maxStack).writeShort(maxLocals);
+        out.writeInt(code.size());
+        out.write(code);
+        out.writeShort(0); //exception table
+        out.writeShort(0); //code attributes
+    }
+
+    private void _generateRunDfa()
+    {
+        final List<DfaStateInfo> states = m_dfa.getStates();
+        final int numStates = states.size();
+        final int charAt = _memberConst(11, "java/lang/CharSequence", "charAt", "(I)C");
+        final ByteWriter code = m_code;
+
+        //ret = -1L
+        code.writeByte(ICONST_M1).writeByte(I2L).writeByte(LSTORE).writeByte(LOCAL_RET);
+        code.writeByte(GOTO).writeShort(6);
+        //end: return ret
+        m_endLabel = code.size();
+        code.writeByte(LLOAD).writeByte(LOCAL_RET).writeByte(LRETURN);
+        //loop: if (pos >= limit) goto end
+        m_loopLabel = code.size();
+        code.writeByte(ILOAD).writeByte(LOCAL_POS).writeByte(ILOAD).writeByte(LOCAL_LIMIT);
+        code.writeByte(IF_ICMPGE).writeShort(m_endLabel - code.size() + 1);
+        //c = src.charAt(pos++)
+        code.writeByte(ALOAD).writeByte(LOCAL_SRC).writeByte(ILOAD).writeByte(LOCAL_POS);
+        code.writeByte(INVOKEINTERFACE).writeShort(charAt).writeByte(2).writeByte(0);
+        code.writeByte(ISTORE).writeByte(LOCAL_CHAR);
+        code.writeByte(IINC).writeByte(LOCAL_POS).writeByte(1);
+        //switch(state)
+        code.writeByte(ILOAD).writeByte(LOCAL_STATE);
+        final int switchPos = code.size();
+        code.writeByte(TABLESWITCH);
+        while ((code.size() & 3) != 0)
+        {
+            code.writeByte(0);
+        }
+        code.writeInt(m_endLabel - switchPos);
+        code.writeInt(0).writeInt(numStates - 1);
+        final int jumpTable = code.size();
+        for (int i = 0; i < numStates; ++i)
+        {
+            code.writeInt(0);
+        }
+
+        final List<?> acceptSets = m_dfa.getAcceptSets();
+        int[] segStarts = new int[16];
+        int[] segTargets = new int[16];
+        for (int st = 0; st < numStates; ++st)
+        {
+            code.patchInt(jumpTable + st*4, code.size() - switchPos);
+
+            //divide the alphabet into segments with the same target, -1 for none
+            final DfaStateInfo info = states.get(st);
+            final int numTrans = info.getTransitionCount();
+            if (segStarts.length < numTrans*2 + 1)
+            {
+                segStarts = Arrays.copyOf(segStarts, numTrans*2 + 1);
+                segTargets = Arrays.copyOf(segTargets, numTrans*2 + 1);
+            }
+            int numSegs = 0;
+            int nextc = 0;
+            for (int i = 0; i < numTrans; ++i)
+            {
+                NfaTransition trans = info.getTransition(i);
+                if (trans.m_firstChar > nextc)
+                {
+                    numSegs = _addSegment(segStarts, segTargets, numSegs, nextc, -1);
+                }
+                numSegs = _addSegment(segStarts, segTargets, numSegs, trans.m_firstChar, trans.m_stateNum);
+                nextc = trans.m_lastChar + 1;
+            }
+            if (nextc <= Character.MAX_VALUE || numSegs == 0)
+            {
+                numSegs = _addSegment(segStarts, segTargets, numSegs, nextc, -1);
+            }
+            _generateTree(segStarts, segTargets, 0, numSegs - 1, acceptSets, states);
+        }
+        if (code.size() > MAX_CODE_LENGTH)
+        {
+            throw new CodeTooLargeException();
+        }
+    }
+
+    private static int _addSegment(int[] segStarts, int[] segTargets, int numSegs, int start, int target)
+    {
+        if (numSegs > 0 && segTargets[numSegs - 1] == target)
+        {
+            return numSegs;
+        }
+        segStarts[numSegs] = start;
+        segTargets[numSegs] = target;
+        return numSegs + 1;
+    }
+
+    //generate code to find the segment containing the current character and go to its target
+    private void _generateTree(int[] segStarts, int[] segTargets, int first, int last, List<?> acceptSets, List<DfaStateInfo> states)
+    {
+        final ByteWriter code = m_code;
+        if (first == last)
+        {
+            final int target = segTargets[first];
+            if (target < 0)
+            {
+                code.writeByte(GOTO_W).writeInt(m_endLabel - code.size() + 1);
+                return;
+            }
+            _pushInt(target);
+            code.writeByte(ISTORE).writeByte(LOCAL_STATE);
+            final int acceptIndex = states.get(target).getAcceptSetIndex();
+            if (acceptSets.get(acceptIndex) != null)
+            {
+                //ret = ((long)pos << 32) | acceptIndex
+                code.writeByte(ILOAD).writeByte(LOCAL_POS).writeByte(I2L);
+                code.writeByte(BIPUSH).writeByte(32).writeByte(LSHL);
+                _pushInt(acceptIndex);
+                code.writeByte(I2L).writeByte(LOR);
+                code.writeByte(LSTORE).writeByte(LOCAL_RET);
+            }
+            code.writeByte(GOTO_W).writeInt(m_loopLabel - code.size() + 1);
+            return;
+        }
+        final int mid = (first + last + 1) >> 1;
+        //if (c >= segStarts[mid]) goto right
+        code.writeByte(ILOAD).writeByte(LOCAL_CHAR);
+        _pushInt(segStarts[mid]);
+        final int branchPos = code.size();
+        code.writeByte(IF_ICMPGE).writeShort(0);
+        _generateTree(segStarts, segTargets, first, mid - 1, acceptSets, states);
+        final int offset = code.size() - branchPos;
+        if (offset > Short.MAX_VALUE || code.size() > MAX_CODE_LENGTH)
+        {
+            throw new CodeTooLargeException();
+        }
+        code.patchShort(branchPos + 1, offset);
+        _generateTree(segStarts, segTargets, mid, last, acceptSets, states);
+    }
+
+    private void _pushInt(int val)
+    {
+        if (val >= -1 && val <= 5)
+        {
+            m_code.writeByte(ICONST_M1 + 1 + val);
+        }
+        else if (val >= Byte.MIN_VALUE && val <= Byte.MAX_VALUE)
+        {
+            m_code.writeByte(BIPUSH).writeByte(val);
+        }
+        else if (val >= Short.MIN_VALUE && val <= Short.MAX_VALUE)
+        {
+            m_code.writeByte(SIPUSH).writeShort(val);
+        }
+        else
+        {
+            m_code.writeByte(LDC_W).writeShort(_intConst(val));
+        }
+    }
+
+    private int _utf8Const(String s)
+    {
+        //we only use ASCII names, so modified UTF-8 is just the bytes
+        Integer ret = m_poolIndexes.get("U" + s);
+        if (ret == null)
+        {
+            m_pool.writeByte(1).writeShort(s.length());
+            for (int i = 0; i < s.length(); ++i)
+            {
+                m_pool.writeByte(s.charAt(i));
+            }
+            ret = _newConst("U" + s, 1);
+        }
+        return ret;
+    }
+
+    private int _classConst(String internalName)
+    {
+        final int nameIndex = _utf8Const(internalName);
+        Integer ret = m_poolIndexes.get("C" + internalName);
+        if (ret == null)
+        {
+            m_pool.writeByte(7).writeShort(nameIndex);
+            ret = _newConst("C" + internalName, 1);
+        }
+        return ret;
+    }
+
+    private int _intConst(int val)
+    {
+        Integer ret = m_poolIndexes.get("I" + val);
+        if (ret == null)
+        {
+            m_pool.writeByte(3).writeInt(val);
+            ret = _newConst("I" + val, 1);
+        }
+        return ret;
+    }
+
+    //tag is 10 for a method or 11 for an interface method
+    private int _memberConst(int tag, String owner, String name, String desc)
+    {
+        final int ownerIndex = _classConst(owner);
+        final int nameIndex = _utf8Const(name);
+        final int descIndex = _utf8Const(desc);
+        m_pool.writeByte(12).writeShort(nameIndex).writeShort(descIndex);
+        final int nameAndType = _newConst(null, 1);
+        m_pool.writeByte(tag).writeShort(ownerIndex).writeShort(nameAndType);
+        return _newConst(null, 1);
+    }
+
+    private int _newConst(String key, int slots)
+    {
+        final int ret = m_poolCount;
+        m_poolCount += slots;
+        if (m_poolCount > 65535)
+        {
+            throw new CodeTooLargeException();
+        }
+        if (key != null)
+        {
+            m_poolIndexes.put(key, ret);
+        }
+        return ret;
+    }
+
+    private static class CodeTooLargeException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+    }
+
+    //a simple growable byte buffer, big-endian like the class file format
+    private static class ByteWriter
+    {
+        private byte[] m_buf = new byte[256];
+        private int m_size = 0;
+
+        int size()
+        {
+            return m_size;
+        }
+
+        ByteWriter writeByte(int b)
+        {
+            if (m_size >= m_buf.length)
+            {
+                m_buf = Arrays.copyOf(m_buf, m_buf.length*2);
+            }
+            m_buf[m_size++] = (byte)b;
+            return this;
+        }
+
+        ByteWriter writeShort(int s)
+        {
+            return writeByte(s >> 8).writeByte(s);
+        }
+
+        ByteWriter writeInt(int i)
+        {
+            return writeShort(i >> 16).writeShort(i);
+        }
+
+        ByteWriter write(ByteWriter src)
+        {
+            for (int i = 0; i < src.m_size; ++i)
+            {
+                writeByte(src.m_buf[i]);
+            }
+            return this;
+        }
+
+        void patchShort(int pos, int s)
+        {
+            m_buf[pos] = (byte)(s >> 8);
+            m_buf[pos+1] = (byte)s;
+        }
+
+        void patchInt(int pos, int i)
+        {
+            patchShort(pos, i >> 16);
+            patchShort(pos+2, i);
+        }
+
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(m_buf, m_size);
+        }
+    }
+}
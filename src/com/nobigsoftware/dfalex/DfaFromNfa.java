@@ -15,11 +15,8 @@
  */
 package com.nobigsoftware.dfalex;
 
-import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 
 
@@ -29,18 +26,11 @@ import java.util.List;
 class DfaFromNfa<RESULT>
 {
 	//inputs
-	private final Nfa<RESULT> m_nfa;
 	private final int[] m_nfaStartStates;
 	private final int[] m_dfaStartStates;
-	private final DfaAmbiguityResolver<? super RESULT> m_ambiguityResolver;
 	
 	//utility
-	private final DfaStateSignatureCodec m_dfaSigCodec = new DfaStateSignatureCodec();
-	
-	//These fields are scratch space
-	private final IntListKey m_tempStateSignature = new IntListKey();
-	private final ArrayDeque<Integer> m_tempNfaClosureList = new ArrayDeque<>();
-	private final HashSet<RESULT> m_tempResultSet = new HashSet<RESULT>();
+	private final NfaStepper<RESULT> m_stepper;
 	
 	//accumulators
 	private final HashMap<RESULT,Integer> m_acceptSetMap = new HashMap<>();
@@ -52,10 +42,9 @@ class DfaFromNfa<RESULT>
 	
 	public DfaFromNfa(Nfa<RESULT> nfa, int[] nfaStartStates, DfaAmbiguityResolver<? super RESULT> ambiguityResolver)
 	{
-		m_nfa = nfa;
 		m_nfaStartStates = nfaStartStates;
 		m_dfaStartStates = new int[nfaStartStates.length];
-		m_ambiguityResolver = ambiguityResolver;
+		m_stepper = new NfaStepper<>(nfa, ambiguityResolver);
 		m_acceptSets.add(null);
 		_build();
 	}
@@ -67,17 +56,12 @@ class DfaFromNfa<RESULT>
 	
 	private void _build()
 	{
-		
-		final CompactIntSubset nfaStateSet = new CompactIntSubset(m_nfa.numStates());
 		final ArrayList<NfaTransition> dfaStateTransitions = new ArrayList<>();
-		final ArrayList<NfaTransition> transitionQ = new ArrayList<>(1000);
 		
 		//Create the DFA start states
 		for(int i = 0; i<m_dfaStartStates.length; ++i)
 		{
-			nfaStateSet.clear();
-			_addNfaStateAndEpsilonsToSubset(nfaStateSet, m_nfaStartStates[i]);
-			m_dfaStartStates[i] = _getDfaState(nfaStateSet);
+			m_dfaStartStates[i] = m_stepper.getDfaState(m_nfaStartStates[i], this::_getDfaState);
 		}
 
 		//Create the transitions and other DFA states.
@@ -88,90 +72,7 @@ class DfaFromNfa<RESULT>
 			final IntListKey dfaStateSig = m_dfaStateSignatures.get(stateNum);
 			
 			dfaStateTransitions.clear();
-			
-			//For each DFA state, combine the NFA transitions for each
-			//distinct character range into a DFA transiton, appending new DFA states
-			//as we discover them.
-			transitionQ.clear();
-			
-			//dump all the NFA transitions for the state into the Q
-			DfaStateSignatureCodec.expand(dfaStateSig, state -> m_nfa.forStateTransitions(state, transitionQ::add));
-			
-			//sort all the transitions by first character
-			Collections.sort(transitionQ, (arg0, arg1) -> {
-				if (arg0.m_firstChar != arg1.m_firstChar)
-				{
-					return(arg0.m_firstChar < arg1.m_firstChar ? -1 : 1);
-				}
-				return 0;
-			});
-			
-			final int tqlen = transitionQ.size();
-			
-			//first character we haven't accounted for yet
-			char minc = 0;
-			
-			//NFA transitions at index < tqstart are no longer relevant
-			//NFA transitions at index >= tqstart are in first char order OR have first char <= minc
-			//The sequence of NFA transitions contributing the the previous DFA transition starts here
-			int tqstart = 0;
-			
-			//make a range of NFA transitions corresponding to the next DFA transition
-			while(tqstart < tqlen)
-			{
-				NfaTransition trans = transitionQ.get(tqstart);
-				if (trans.m_lastChar < minc)
-				{
-					++tqstart;
-					continue;
-				}
-				
-				//INVAR - trans contributes to the next DFA transition
-				nfaStateSet.clear();
-				_addNfaStateAndEpsilonsToSubset(nfaStateSet, trans.m_stateNum);
-				char startc = trans.m_firstChar;
-				char endc = trans.m_lastChar;
-				if (startc < minc)
-				{
-					startc = minc;
-				}
-				//make range of all transitions that include the start character, removing ones
-				//that drop out
-				for(int tqend = tqstart+1; tqend < tqlen; ++tqend)
-				{
-					trans = transitionQ.get(tqend);
-					if (trans.m_lastChar < startc)
-					{
-						//remove this one
-						transitionQ.set(tqend, transitionQ.get(tqstart++));
-						continue;
-					}
-					if (trans.m_firstChar > startc)
-					{
-						//this one is for the next transition
-						if (trans.m_firstChar <= endc)
-						{
-							endc = (char)(trans.m_firstChar-1);
-						}
-						break;
-					}
-					//this one counts
-					if (trans.m_lastChar < endc)
-					{
-						endc = trans.m_lastChar;
-					}
-	                _addNfaStateAndEpsilonsToSubset(nfaStateSet, trans.m_stateNum);
-				}
-				
-				dfaStateTransitions.add(new NfaTransition(startc, endc,  _getDfaState(nfaStateSet)));
-
-				minc = (char)(endc+1);
-				if (minc < endc)
-				{
-					//wrapped around
-					break;
-				}
-			}
+			m_stepper.getTransitions(dfaStateSig, this::_getDfaState, dfaStateTransitions);
 			
 			//INVARIANT: m_dfaStatesOut.size() == stateNum
 			m_dfaStates.add(_createStateInfo(dfaStateSig, dfaStateTransitions));
@@ -179,81 +80,25 @@ class DfaFromNfa<RESULT>
 		
 	}
 	
-	//Add an NFA state to m_currentNFASubset, along with the transitive
-	//closure over its epsilon transitions
-	private void _addNfaStateAndEpsilonsToSubset(CompactIntSubset dest, int stateNum)
-	{
-		m_tempNfaClosureList.clear();
-		if (dest.add(stateNum))
-		{
-			m_tempNfaClosureList.add(stateNum);
-		}
-		Integer newNfaState;
-		while((newNfaState = m_tempNfaClosureList.poll())!=null)
-		{
-			m_nfa.forStateEpsilons(newNfaState, (Integer src) -> {
-				if (dest.add(src))
-				{
-					m_tempNfaClosureList.add(src);
-				}
-			});
-		}
-	}
-	
-	private void _addNfaStateToSignatureCodec(int stateNum)
+	//Make a DFA state for a signature
+	private int _getDfaState(IntListKey stateSignature)
 	{
-	    if (m_nfa.hasTransitionsOrAccepts(stateNum))
-	    {
-	        m_dfaSigCodec.acceptInt(stateNum);
-	    }
-	}
-
-	
-	
-	//Make a DFA state for a set of simultaneous NFA states
-	private Integer _getDfaState(CompactIntSubset nfaStateSet)
-	{
-		//dump state combination into compressed form
-		m_tempStateSignature.clear();
-		m_dfaSigCodec.start(m_tempStateSignature::add, nfaStateSet.getSize(), nfaStateSet.getRange());
-		nfaStateSet.dumpInOrder(this::_addNfaStateToSignatureCodec);
-		m_dfaSigCodec.finish();
-		
 		//make sure it's in the map
-		Integer dfaStateNum = m_dfaStateSignatureMap.get(m_tempStateSignature);
+		Integer dfaStateNum = m_dfaStateSignatureMap.get(stateSignature);
 		if (dfaStateNum == null)
 		{
 			dfaStateNum = m_dfaStateSignatures.size();
-			IntListKey newSig = new IntListKey(m_tempStateSignature);
+			IntListKey newSig = new IntListKey(stateSignature);
 			m_dfaStateSignatures.add(newSig);
 			m_dfaStateSignatureMap.put(newSig, dfaStateNum);
 		}
 		return dfaStateNum;
 	}
 	
-	@SuppressWarnings("unchecked")
     private DfaStateInfo _createStateInfo(IntListKey sig, List<NfaTransition> transitions)
 	{
-		//calculate the set of accepts
-		m_tempResultSet.clear();
-		DfaStateSignatureCodec.expand(sig, nfastate -> {
-			RESULT accept = m_nfa.getAccept(nfastate);
-			if (accept != null)
-			{
-				m_tempResultSet.add(accept);
-			}
-		});
-		
-		//and get an accept set index for it
-		RESULT dfaAccept = null;
-		if (m_tempResultSet.size() > 1)
-		{
-			dfaAccept = (RESULT)m_ambiguityResolver.apply(m_tempResultSet);
-		}
-		else if(!m_tempResultSet.isEmpty())
-		{
-			dfaAccept = m_tempResultSet.iterator().next();
-		}
+		//get an accept set index for the state's result
+		RESULT dfaAccept = m_stepper.getAccept(sig);
 		
 		int acceptSetIndex = 0;
 		if (dfaAccept != null)
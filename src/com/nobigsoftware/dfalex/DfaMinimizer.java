@@ -18,12 +18,22 @@ package com.nobigsoftware.dfalex;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
 
 /**
  * Converts a DFA into a minimal DFA using a fast variant of Hopcroft's algorithm
+ * <P>
+ * If a thread pool is provided, then the per-state work in large steps is done in parallel.  The
+ * sequence of partition splits is not changed, so the result is exactly the same either way.
  */
 class DfaMinimizer<RESULT>
 {
+	//steps with fewer states than this aren't worth parallelizing
+	private static final int PARALLEL_THRESHOLD = 4096;
+	
+	private final ForkJoinPool m_pool;
 	private final RawDfa<RESULT> m_origDfa;
 	private final List<DfaStateInfo> m_origStates;
 	private final int[] m_newStartStates;
@@ -48,6 +58,12 @@ class DfaMinimizer<RESULT>
 	
 	public DfaMinimizer(RawDfa<RESULT> dfa)
 	{
+		this(dfa, null);
+	}
+	
+	public DfaMinimizer(RawDfa<RESULT> dfa, ForkJoinPool pool)
+	{
+		m_pool = pool;
 		m_origDfa = dfa;
 		m_origStates = dfa.getStates();
 		m_origBackReferences = _createBackReferences();
@@ -226,12 +242,17 @@ class DfaMinimizer<RESULT>
 		{
 			return;
 		}
-		//hash all the states and initialize negated counts in the hash buckets
+		//hash all the states.  This only reads the current partition numbers, so
+		//the states can be hashed in parallel
+		_forRange(start, end, i -> {
+			int state = m_partitionOrderStates[i];
+			m_origOrderHashes[state] = _hashOrig(state);
+		});
+		//initialize negated counts in the hash buckets
 		for (int i=start;i<end;i++)
 		{
 			int state = m_partitionOrderStates[i]; 
-			int h = _hashOrig(state);
-			m_origOrderHashes[state] = h;
+			int h = m_origOrderHashes[state];
 			int bucket = (h&Integer.MAX_VALUE)%m_hashTableSize;
 			m_hashBuckets[bucket]=~0;
 		}
@@ -339,12 +360,11 @@ class DfaMinimizer<RESULT>
 		}
 		
 		//dedup
-		for (int st = 0; st < nstates; ++st)
-		{
+		_forRange(0, nstates, st -> {
 			int[] refs = backrefs[st];
 			if (refs.length < 1)
 			{
-				continue;
+				return;
 			}
 			Arrays.sort(refs);
 			int newLen = 1;
@@ -359,10 +379,58 @@ class DfaMinimizer<RESULT>
 			{
 				backrefs[st] = Arrays.copyOf(refs, newLen);
 			}
-		}
+		});
 		
 		return backrefs;
 	}
+	
+	//Do something for every int in [start,end), in parallel if it's worth it.
+	//The work for different ints must be independent.
+	private void _forRange(int start, int end, IntConsumer body)
+	{
+		if (m_pool == null || end - start < PARALLEL_THRESHOLD)
+		{
+			for (int i=start; i<end; ++i)
+			{
+				body.accept(i);
+			}
+		}
+		else
+		{
+			m_pool.invoke(new RangeTask(start, end, body));
+		}
+	}
+	
+	private static class RangeTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final int m_start;
+		private final int m_end;
+		private final IntConsumer m_body;
+		
+		RangeTask(int start, int end, IntConsumer body)
+		{
+			m_start = start;
+			m_end = end;
+			m_body = body;
+		}
+		
+		@Override
+		protected void compute()
+		{
+			if (m_end - m_start > PARALLEL_THRESHOLD/4)
+			{
+				int mid = (m_start + m_end) >>> 1;
+				invokeAll(new RangeTask(m_start, mid, m_body), new RangeTask(mid, m_end, m_body));
+				return;
+			}
+			for (int i=m_start; i<m_end; ++i)
+			{
+				m_body.accept(i);
+			}
+		}
+	}
 
 	//Make a hash of the original state, using its transitions and
 	//the current partition
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Reads and writes the results of DFA states in {@link DfaBinaryFormat}
+ * <P>
+ * Each distinct non-null result in a DFA is written once.  The codec must read exactly the bytes that it writes.
+ *
+ * @param MATCHRESULT the type of result produced by the DFAs
+ */
+public interface DfaResultCodec<MATCHRESULT>
+{
+    /**
+     * Write a result
+     *
+     * @param result the result to write.  This will not be null
+     * @param out the result is written here
+     * @throws IOException if out throws it
+     */
+    void writeResult(MATCHRESULT result, DataOutput out) throws IOException;
+
+    /**
+     * Read a result written by {@link #writeResult(Object, DataOutput)}
+     *
+     * @param in the result is read from here
+     * @return the result that was written
+     * @throws IOException if in throws it, or the data is invalid
+     */
+    MATCHRESULT readResult(DataInput in) throws IOException;
+}
@@ -22,6 +22,11 @@ package com.nobigsoftware.dfalex;
  */
 public abstract class DfaState<MATCHRESULT>
 {
+    //racy memos for getFirstCharFilter.  Filters are immutable, so sharing them without
+    //synchronization is safe.  At worst, they're calculated more than once
+    private FirstCharFilter m_firstCharFilter;
+    private FirstCharFilter m_selfLoopFilter;
+
 	/**
 	 * Process a character and get the next state
 	 * 
@@ -72,4 +77,43 @@ public abstract class DfaState<MATCHRESULT>
      * @return true if this state has any successor states
      */
     public abstract boolean hasSuccessorStates();
+
+    /**
+     * Get the characters that this state has transitions on
+     * <P>
+     * When this is a start state, a match can only start at a position with one of these characters,
+     * so {@link StringMatcher#findNext(DfaState)} uses this set to skip positions that can't start a match.
+     * The set is calculated the first time it's needed, and remembered.
+     * 
+     * @return the characters that have transitions out of this state
+     */
+    public CharRange getFirstChars()
+    {
+        return getFirstCharFilter(false).getChars();
+    }
+
+    /**
+     * Get a filter for skipping through the input in this state
+     * 
+     * @param skipSelfLoops if true, and this state doesn't match, characters that transition back to this
+     *      state are not included in the filter.  See {@link FirstCharFilter#forState(DfaState, boolean)}
+     * @return the filter
+     */
+    FirstCharFilter getFirstCharFilter(boolean skipSelfLoops)
+    {
+        FirstCharFilter ret = (skipSelfLoops ? m_selfLoopFilter : m_firstCharFilter);
+        if (ret == null)
+        {
+            ret = FirstCharFilter.forState(this, skipSelfLoops);
+            if (skipSelfLoops)
+            {
+                m_selfLoopFilter = ret;
+            }
+            else
+            {
+                m_firstCharFilter = ret;
+            }
+        }
+        return ret;
+    }
 }
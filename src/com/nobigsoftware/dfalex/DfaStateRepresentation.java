@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * The ways that {@link DfaBuilder} can represent the {@link DfaState}s it builds
+ * <P>
+ * All representations produce DFAs that behave identically.  They differ only in speed
+ * and memory use.
+ * <P>
+ * See {@link DfaBuilder#setStateRepresentation(DfaStateRepresentation)}
+ */
+public enum DfaStateRepresentation
+{
+    /**
+     * Each state finds the transition for a character by searching a binary tree of
+     * its transitions, packed into an array.  This is the most compact representation,
+     * and the default.
+     */
+    PACKED_TREE(0),
+
+    /**
+     * Each state has a direct lookup table for characters in the ASCII range (0-127),
+     * and searches a packed binary tree for other characters.  This is usually faster
+     * for mostly-ASCII input, and costs 128 references per state.
+     */
+    ASCII_TABLE(128),
+
+    /**
+     * Each state has a direct lookup table for characters in the Latin-1 range (0-255),
+     * and searches a packed binary tree for other characters.  This is usually faster
+     * for mostly-Latin-1 input, and costs 256 references per state.
+     */
+    LATIN1_TABLE(256);
+
+    private final int m_lowTableSize;
+
+    private DfaStateRepresentation(int lowTableSize)
+    {
+        m_lowTableSize = lowTableSize;
+    }
+
+    /**
+     * @return the number of low characters that states look up directly, or 0 if none
+     */
+    int getLowTableSize()
+    {
+        return m_lowTableSize;
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Searches files for patterns, by memory-mapping them and decoding the bytes as the DFA runs
+ * <P>
+ * The file is never decoded into a String.  Instead, bytes are read directly from a {@link java.nio.MappedByteBuffer}
+ * and turned into characters inside the matching loop.  ISO-8859-1, US-ASCII, and UTF-8 are supported.
+ * For UTF-8, bytes &lt; 0x80 take a fast path, and multi-byte sequences are decoded on a slow path.  Code
+ * points outside the BMP are passed to the DFA as surrogate pairs, and each byte that doesn't start a valid
+ * sequence is passed as U+FFFD.
+ * <P>
+ * Matches are found in the same way as {@link StringMatcher#findNext(DfaState)}: the longest match
+ * at the first position that has one, then continuing after the match.  Matches only start on
+ * character boundaries.  Positions are reported as byte offsets, along with the corresponding
+ * offsets in the decoded characters.
+ * <P>
+ * Files larger than 1GB are mapped in overlapping segments.  Each match attempt can look at no more
+ * than a maximum number of bytes, so a match that would be longer is cut short to the longest match within
+ * the limit.
+ * <P>
+ * Failed match attempts are accelerated with the same non-matching memo as {@link StringMatcher}, so
+ * search time is linear in the size of the input except when many attempts reach the maximum number
+ * of bytes, which can take O(size * maxMatchBytes) time.
+ * <P>
+ * NOTE: Instances of this class are thread-safe.
+ *
+ * @param MATCHRESULT The type of result associated with the patterns being searched for
+ */
+public class FileSearcher<MATCHRESULT>
+{
+    /**
+     * The default maximum number of bytes examined for a match.  See {@link #FileSearcher(DfaState, int)}
+     */
+    public static final int DEFAULT_MAX_MATCH_BYTES = 1<<20;
+
+    private static final int DEFAULT_SEGMENT_SIZE = 1<<30;
+
+    //decoding modes
+    private static final int MODE_LATIN1 = 0;
+    private static final int MODE_ASCII = 1;
+    private static final int MODE_UTF8 = 2;
+
+    private static final char REPLACEMENT_CHAR = '\uFFFD';
+
+    private final DfaState<MATCHRESULT> m_matcher;
+    private final int m_maxMatchBytes;
+    private final int m_segmentSize;
+
+    /**
+     * Create a new FileSearcher with the default maximum match length
+     *
+     * @param matcher  A DFA that matches the patterns being searched for
+     */
+    public FileSearcher(DfaState<MATCHRESULT> matcher)
+    {
+        this(matcher, DEFAULT_MAX_MATCH_BYTES);
+    }
+
+    /**
+     * Create a new FileSearcher
+     *
+     * @param matcher  A DFA that matches the patterns being searched for
+     * @param maxMatchBytes The maximum number of bytes that will be examined for a match starting
+     *      at any position.  This must be positive, and is limited to 1GB.
+     */
+    public FileSearcher(DfaState<MATCHRESULT> matcher, int maxMatchBytes)
+    {
+        this(matcher, maxMatchBytes, DEFAULT_SEGMENT_SIZE);
+    }
+
+    //the segment size is only changed for testing
+    FileSearcher(DfaState<MATCHRESULT> matcher, int maxMatchBytes, int segmentSize)
+    {
+        if (maxMatchBytes < 1)
+        {
+            throw new IllegalArgumentException("maxMatchBytes must be positive");
+        }
+        m_matcher = matcher;
+        m_maxMatchBytes = Math.min(maxMatchBytes, DEFAULT_SEGMENT_SIZE);
+        //a segment and the match overhang after it have to fit in one mapping
+        m_segmentSize = Math.min(segmentSize, Integer.MAX_VALUE - m_maxMatchBytes);
+    }
+
+    /**
+     * Search a file for all (non-overlapping) occurrences of the patterns
+     *
+     * @param file  the file to search
+     * @param charset   the file's character encoding.  Must be ISO-8859-1, US-ASCII, or UTF-8
+     * @param consumer  this is called with each match, in order
+     * @return  the byte offset at which the search ended.  This is the length of the file,
+     *      unless the consumer stopped the search, in which case it's the end of the last match
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the charset is not supported
+     */
+    public long search(Path file, Charset charset, ByteMatchConsumer<? super MATCHRESULT> consumer) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ))
+        {
+            return search(channel, charset, consumer);
+        }
+    }
+
+    /**
+     * Search the contents of a file channel for all (non-overlapping) occurrences of the patterns
+     * <P>
+     * The whole file is searched, regardless of the channel's position, which is not changed.
+     *
+     * @param channel  the channel to search
+     * @param charset   the file's character encoding.  Must be ISO-8859-1, US-ASCII, or UTF-8
+     * @param consumer  this is called with each match, in order
+     * @return  the byte offset at which the search ended.  This is the length of the file,
+     *      unless the consumer stopped the search, in which case it's the end of the last match
+     * @throws IOException if the file can't be read
+     * @throws IllegalArgumentException if the charset is not supported
+     */
+    public long search(FileChannel channel, Charset charset, ByteMatchConsumer<? super MATCHRESULT> consumer) throws IOException
+    {
+        final int mode = _getMode(charset);
+        final long size = channel.size();
+        final Scan scan = new Scan();
+        while (scan.m_pos < size)
+        {
+            final long segStart = scan.m_pos;
+            final long mapEnd = Math.min(size, segStart + m_segmentSize + m_maxMatchBytes);
+            final long startLimit = (mapEnd >= size ? size : segStart + m_segmentSize);
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, segStart, mapEnd - segStart);
+            if (!_search(buf, segStart, (int)(startLimit - segStart), mapEnd >= size, mode, scan, consumer))
+            {
+                break;
+            }
+        }
+        return scan.m_pos;
+    }
+
+    /**
+     * Search bytes in a buffer for all (non-overlapping) occurrences of the patterns
+     * <P>
+     * The bytes from the buffer's position to its limit are searched.  The position is not changed, and
+     * reported offsets are relative to it.
+     *
+     * @param buf  the bytes to search, usually a {@link java.nio.MappedByteBuffer}
+     * @param charset   the character encoding.  Must be ISO-8859-1, US-ASCII, or UTF-8
+     * @param consumer  this is called with each match, in order
+     * @return  the offset at which the search ended.  This is the number of bytes searched,
+     *      unless the consumer stopped the search, in which case it's the end of the last match
+     * @throws IllegalArgumentException if the charset is not supported
+     */
+    public long search(ByteBuffer buf, Charset charset, ByteMatchConsumer<? super MATCHRESULT> consumer)
+    {
+        final int mode = _getMode(charset);
+        final Scan scan = new Scan();
+        _search(buf.slice(), 0, buf.remaining(), true, mode, scan, consumer);
+        return scan.m_pos;
+    }
+
+    private static int _getMode(Charset charset)
+    {
+        if (charset.equals(StandardCharsets.UTF_8))
+        {
+            return MODE_UTF8;
+        }
+        if (charset.equals(StandardCharsets.ISO_8859_1))
+        {
+            return MODE_LATIN1;
+        }
+        if (charset.equals(StandardCharsets.US_ASCII))
+        {
+            return MODE_ASCII;
+        }
+        throw new IllegalArgumentException("FileSearcher does not support charset " + charset.name());
+    }
+
+    //Search a buffer that starts at byte offset bufOffset, for matches that start before startLimit.
+    //atEof is true if the buffer ends at the end of the input.
+    //returns false if the consumer stopped the search
+    private boolean _search(ByteBuffer buf, long bufOffset, int startLimit, boolean atEof, int mode, Scan scan, ByteMatchConsumer<? super MATCHRESULT> consumer)
+    {
+        final DfaState<MATCHRESULT> startState = m_matcher;
+        final NonMatchingMemo memo = scan.m_memo;
+        final int end = buf.limit();
+        int pos = (int)(scan.m_pos - bufOffset);
+        long charPos = scan.m_charPos;
+        boolean ret = true;
+        while (pos < startLimit)
+        {
+            //find the longest match at pos that's no longer than the limit
+            final int attemptEnd = (int)Math.min(end, (long)pos + m_maxMatchBytes);
+            DfaState<MATCHRESULT> state = startState;
+            MATCHRESULT result = null;
+            int matchEnd = pos;
+            int matchChars = 0;
+            int chars = 0;
+            int i = pos;
+            //false if the attempt is cut short by the limit
+            boolean complete = true;
+            memo.startAttempt(bufOffset + pos);
+            while (i < attemptEnd)
+            {
+                int b = buf.get(i);
+                if (b >= 0 || mode == MODE_LATIN1)
+                {
+                    //fast path
+                    ++i;
+                    ++chars;
+                    state = state.getNextState((char)(b & 0xFF));
+                }
+                else if (mode == MODE_ASCII)
+                {
+                    ++i;
+                    ++chars;
+                    state = state.getNextState(REPLACEMENT_CHAR);
+                }
+                else
+                {
+                    final int decoded = _decodeUtf8(buf, i, end);
+                    if (i + (decoded >>> 24) > attemptEnd)
+                    {
+                        //the character doesn't fit within the limit
+                        complete = false;
+                        break;
+                    }
+                    final int cp = decoded & 0x1FFFFF;
+                    i += decoded >>> 24;
+                    if (cp >= 0x10000)
+                    {
+                        chars += 2;
+                        state = state.getNextState(Character.highSurrogate(cp));
+                        if (state != null)
+                        {
+                            state = state.getNextState(Character.lowSurrogate(cp));
+                        }
+                    }
+                    else
+                    {
+                        ++chars;
+                        state = state.getNextState((char)cp);
+                    }
+                }
+                if (state == null)
+                {
+                    break;
+                }
+                MATCHRESULT match = state.getMatch();
+                if (match != null)
+                {
+                    result = match;
+                    matchEnd = i;
+                    matchChars = chars;
+                    memo.matched();
+                }
+                else if (memo.check(state, bufOffset + i))
+                {
+                    break;
+                }
+            }
+            if (state != null && i >= attemptEnd && (attemptEnd < end || !atEof))
+            {
+                //stopped by the limit, not the end of the input
+                complete = false;
+            }
+            memo.finishAttempt(complete);
+            if (result != null)
+            {
+                if (!consumer.acceptMatch(result, bufOffset + pos, bufOffset + matchEnd, charPos, charPos + matchChars))
+                {
+                    ret = false;
+                    pos = matchEnd;
+                    charPos += matchChars;
+                    break;
+                }
+                pos = matchEnd;
+                charPos += matchChars;
+                continue;
+            }
+            //no match.  Advance to the next character
+            int b = buf.get(pos);
+            if (b >= 0 || mode != MODE_UTF8)
+            {
+                ++pos;
+                ++charPos;
+            }
+            else
+            {
+                final int decoded = _decodeUtf8(buf, pos, end);
+                pos += decoded >>> 24;
+                charPos += ((decoded & 0x1FFFFF) >= 0x10000 ? 2 : 1);
+            }
+        }
+        scan.m_pos = bufOffset + pos;
+        scan.m_charPos = charPos;
+        return ret;
+    }
+
+    //Decode a UTF-8 sequence that starts with a byte >= 0x80.  The return value has the
+    //code point in the low 21 bits, and the number of bytes consumed in the high 8 bits.
+    //Invalid sequences produce U+FFFD and consume 1 byte
+    private static int _decodeUtf8(ByteBuffer buf, int pos, int end)
+    {
+        final int b0 = buf.get(pos) & 0xFF;
+        int len, cp, min;
+        if (b0 >= 0xF5 || b0 < 0xC2)
+        {
+            return REPLACEMENT_CHAR | (1<<24);
+        }
+        else if (b0 >= 0xF0)
+        {
+            len = 4;
+            cp = b0 & 0x07;
+            min = 0x10000;
+        }
+        else if (b0 >= 0xE0)
+        {
+            len = 3;
+            cp = b0 & 0x0F;
+            min = 0x800;
+        }
+        else
+        {
+            len = 2;
+            cp = b0 & 0x1F;
+            min = 0x80;
+        }
+        if (end - pos < len)
+        {
+            return REPLACEMENT_CHAR | (1<<24);
+        }
+        for (int i = 1; i < len; ++i)
+        {
+            final int b = buf.get(pos+i);
+            if ((b & 0xC0) != 0x80)
+            {
+                return REPLACEMENT_CHAR | (1<<24);
+            }
+            cp = (cp << 6) | (b & 0x3F);
+        }
+        if (cp < min || cp > Character.MAX_CODE_POINT || (cp >= Character.MIN_SURROGATE && cp <= Character.MAX_SURROGATE))
+        {
+            return REPLACEMENT_CHAR | (1<<24);
+        }
+        return cp | (len<<24);
+    }
+
+    //Progress of a search
+    private static class Scan
+    {
+        long m_pos = 0;
+        long m_charPos = 0;
+        final NonMatchingMemo m_memo = new NonMatchingMemo();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * The set of characters that can do something useful in a DFA state, used to skip over input
+ * that can't
+ * <P>
+ * For a matcher's start state, these are the characters that have transitions, and positions
+ * at which other characters occur can't start a match.  For a finder's start state, these are
+ * the characters that lead out of the start state.  Other characters loop back to it, and
+ * can be skipped without calling {@link DfaState#getNextState(char)}.
+ * <P>
+ * The skip loops are simple enough that the JIT compiler can make them very fast.
+ * <P>
+ * Instances of this class are immutable and thread-safe.
+ */
+final class FirstCharFilter implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A filter that contains every character, and never skips anything
+     */
+    static final FirstCharFilter ALL = _all();
+
+    private final CharRange m_chars;
+    //true if every character is in the set, so nothing can be skipped
+    private final boolean m_all;
+    //if the set has exactly one character, this is it.  Otherwise -1
+    private final int m_single;
+    //bit set of the characters in the set.  Characters past the end are not in the set
+    private final long[] m_bits;
+
+    /**
+     * Create a new FirstCharFilter
+     *
+     * @param bits a bit set of 0x10000 bits, indicating which characters are in the set.
+     *      This array is not retained.
+     */
+    FirstCharFilter(long[] bits)
+    {
+        CharRange.Builder builder = CharRange.builder();
+        int count = 0;
+        int single = -1;
+        int lastWord = -1;
+        for (int c = 0; c < 0x10000;)
+        {
+            if ((bits[c>>6] & (1L<<(c&63))) == 0)
+            {
+                ++c;
+                continue;
+            }
+            int first = c;
+            while (++c < 0x10000 && (bits[c>>6] & (1L<<(c&63))) != 0);
+            builder.addRange((char)first, (char)(c-1));
+            count += c-first;
+            single = first;
+            lastWord = (c-1)>>6;
+        }
+        m_chars = builder.build();
+        m_all = (count == 0x10000);
+        m_single = (count == 1 ? single : -1);
+        m_bits = Arrays.copyOf(bits, lastWord+1);
+    }
+
+    /**
+     * Make a filter for a DFA state
+     *
+     * @param state the state
+     * @param skipSelfLoops if true, and the state doesn't match, then characters that
+     *      transition back to the state are left out of the set, for skipping through
+     *      the input with a finder.  Otherwise the set has all the characters that
+     *      have transitions
+     * @return the new filter
+     */
+    static FirstCharFilter forState(DfaState<?> state, boolean skipSelfLoops)
+    {
+        final boolean skip = skipSelfLoops && state.getMatch() == null;
+        final long[] bits = new long[0x10000>>6];
+        state.enumerateTransitions((firstChar, lastChar, target) -> {
+            if (!(skip && target == state))
+            {
+                _addRange(bits, firstChar, lastChar);
+            }
+        });
+        return new FirstCharFilter(bits);
+    }
+
+    /**
+     * Make a filter for a {@link FlatDfa} state
+     *
+     * @param dfa the DFA
+     * @param state the state number
+     * @return a filter containing all the characters that state has transitions on
+     */
+    static FirstCharFilter forFlatState(FlatDfa<?> dfa, int state)
+    {
+        final long[] bits = new long[0x10000>>6];
+        for (int c = 0; c < 0x10000; ++c)
+        {
+            if (dfa.getNextState(state, (char)c) >= 0)
+            {
+                bits[c>>6] |= 1L<<(c&63);
+            }
+        }
+        return new FirstCharFilter(bits);
+    }
+
+    /**
+     * @return the characters in the set
+     */
+    CharRange getChars()
+    {
+        return m_chars;
+    }
+
+    /**
+     * Find the first position at or after pos with a character in the set
+     *
+     * @param src the source.  If array is null, the characters are read from this
+     * @param array if non-null, an array that contains the characters in the source, starting at base
+     * @param base the position in array of the first character
+     * @param pos the position to start at
+     * @param limit the position to stop at
+     * @return the first position in [pos, limit) with a character in the set, or limit if there isn't one
+     */
+    int skip(CharSequence src, char[] array, int base, int pos, int limit)
+    {
+        if (m_all)
+        {
+            return pos;
+        }
+        if (m_single >= 0)
+        {
+            final char c = (char)m_single;
+            if (array != null)
+            {
+                for (int i = base+pos, end = base+limit; i < end; ++i)
+                {
+                    if (array[i] == c)
+                    {
+                        return i-base;
+                    }
+                }
+                return limit;
+            }
+            for (; pos < limit; ++pos)
+            {
+                if (src.charAt(pos) == c)
+                {
+                    return pos;
+                }
+            }
+            return limit;
+        }
+        final long[] bits = m_bits;
+        final int nchars = bits.length<<6;
+        if (array != null)
+        {
+            for (int i = base+pos, end = base+limit; i < end; ++i)
+            {
+                final char c = array[i];
+                if (c < nchars && (bits[c>>6] & (1L<<(c&63))) != 0)
+                {
+                    return i-base;
+                }
+            }
+            return limit;
+        }
+        for (; pos < limit; ++pos)
+        {
+            final char c = src.charAt(pos);
+            if (c < nchars && (bits[c>>6] & (1L<<(c&63))) != 0)
+            {
+                return pos;
+            }
+        }
+        return limit;
+    }
+
+    /**
+     * Skip backwards over characters that are not in the set
+     *
+     * @param src the source.  If array is null, the characters are read from this
+     * @param array if non-null, an array that contains the characters in the source, starting at base
+     * @param base the position in array of the first character
+     * @param pos the position to start at.  The first character checked is at pos-1
+     * @param limit the position to stop at
+     * @return the largest position p in [limit, pos], such that p==limit or the character at p-1 is in the set
+     */
+    int skipBack(CharSequence src, char[] array, int base, int pos, int limit)
+    {
+        if (m_all)
+        {
+            return pos;
+        }
+        final long[] bits = m_bits;
+        final int nchars = bits.length<<6;
+        if (array != null)
+        {
+            for (int i = base+pos, end = base+limit; i > end; --i)
+            {
+                final char c = array[i-1];
+                if (c < nchars && (bits[c>>6] & (1L<<(c&63))) != 0)
+                {
+                    return i-base;
+                }
+            }
+            return limit;
+        }
+        for (; pos > limit; --pos)
+        {
+            final char c = src.charAt(pos-1);
+            if (c < nchars && (bits[c>>6] & (1L<<(c&63))) != 0)
+            {
+                return pos;
+            }
+        }
+        return limit;
+    }
+
+    private static FirstCharFilter _all()
+    {
+        long[] bits = new long[0x10000>>6];
+        Arrays.fill(bits, -1L);
+        return new FirstCharFilter(bits);
+    }
+
+    private static void _addRange(long[] bits, char first, char last)
+    {
+        for (int c = first; c <= last; ++c)
+        {
+            bits[c>>6] |= 1L<<(c&63);
+        }
+    }
+}
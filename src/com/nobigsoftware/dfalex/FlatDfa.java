@@ -0,0 +1,238 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A DFA compiled into flat transition tables, with states identified by integer state numbers
+ * instead of {@link DfaState} objects.
+ * <P>
+ * The characters are partitioned into alphabet equivalence classes, such that all characters in
+ * a class have the same transitions in every state.  All the transitions for all the states then live in
+ * a single int array, indexed by (state number, character class), and the match result for each
+ * state is kept in a side array.  Processing a character is just two array lookups, with no
+ * searching or pointer chasing, so this is the fastest representation for hot DFAs.
+ * <P>
+ * Use {@link DfaBuilder#buildFlat(DfaAmbiguityResolver)} to make one, and
+ * {@link StringMatcher#findNext(FlatDfa, int)} or {@link StringMatcher#matchAt(FlatDfa, int, int)}
+ * to find patterns in strings with it.
+ * <P>
+ * Instances of this class are immutable and thread-safe.
+ *
+ * @param MATCHRESULT the type of result produced by matching patterns with this DFA
+ */
+public final class FlatDfa<MATCHRESULT> implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    //alphabet equivalence classes shared by all states
+    private final CharClassMap m_charClasses;
+    private final int m_numClasses;
+    //m_transitions[state*m_numClasses + charClass] is the target state, or -1 for no transition
+    private final int[] m_transitions;
+    //match result for each state
+    private final Object[] m_matches;
+    private final int[] m_startStates;
+    //the characters that have transitions from each start state
+    private final FirstCharFilter[] m_startFilters;
+
+    FlatDfa(RawDfa<MATCHRESULT> rawDfa)
+    {
+        final List<DfaStateInfo> states = rawDfa.getStates();
+        final int numStates = states.size();
+        m_charClasses = CharClassMap.forDfa(rawDfa);
+        final int numClasses = m_charClasses.getClassCount();
+        m_numClasses = numClasses;
+
+        //Classes are numbered in order of their first characters, so we can find the transition
+        //for each class by merging these representatives with each state's sorted transitions
+        final char[] representatives = new char[numClasses];
+        for (int c = 0x10000-1; c >= 0; --c)
+        {
+            representatives[m_charClasses.getCharClass((char)c)] = (char)c;
+        }
+
+        m_transitions = new int[numStates * numClasses];
+        m_matches = new Object[numStates];
+        final List<MATCHRESULT> acceptSets = rawDfa.getAcceptSets();
+        for (int st = 0; st < numStates; ++st)
+        {
+            final DfaStateInfo info = states.get(st);
+            final int rowStart = st*numClasses;
+            final int len = info.getTransitionCount();
+            int ti = 0;
+            for (int cls = 0; cls < numClasses; ++cls)
+            {
+                final char c = representatives[cls];
+                while (ti < len && info.getTransition(ti).m_lastChar < c)
+                {
+                    ++ti;
+                }
+                int target = -1;
+                if (ti < len)
+                {
+                    NfaTransition trans = info.getTransition(ti);
+                    if (trans.m_firstChar <= c)
+                    {
+                        target = trans.m_stateNum;
+                    }
+                }
+                m_transitions[rowStart + cls] = target;
+            }
+            m_matches[st] = acceptSets.get(info.getAcceptSetIndex());
+        }
+        m_startStates = rawDfa.getStartStates().clone();
+        m_startFilters = new FirstCharFilter[m_startStates.length];
+        for (int i = 0; i < m_startStates.length; ++i)
+        {
+            m_startFilters[i] = FirstCharFilter.forFlatState(this, m_startStates[i]);
+        }
+    }
+
+    /**
+     * Get the number of states in this DFA
+     * <P>
+     * States are compactly numbered from 0
+     *
+     * @return the number of states
+     */
+    public int getStateCount()
+    {
+        return m_matches.length;
+    }
+
+    /**
+     * Get the number of start states in this DFA
+     * <P>
+     * A DFA built for multiple languages simultaneously has a start state for each language
+     *
+     * @return the number of start states
+     */
+    public int getStartStateCount()
+    {
+        return m_startStates.length;
+    }
+
+    /**
+     * Get a start state
+     *
+     * @param index the index of the language in the list of languages provided to the builder,
+     *      or 0 if this DFA was built for a single language
+     * @return the number of the start state for the given language
+     */
+    public int getStartState(int index)
+    {
+        return m_startStates[index];
+    }
+
+    /**
+     * Get the characters that a start state has transitions on
+     * <P>
+     * A match can only start at a position with one of these characters, so
+     * {@link StringMatcher#findNext(FlatDfa, int)} uses this set to skip positions that can't start a match.
+     *
+     * @param index the index of the language in the list of languages provided to the builder,
+     *      or 0 if this DFA was built for a single language
+     * @return the characters that have transitions out of the start state for the given language
+     */
+    public CharRange getFirstChars(int index)
+    {
+        return m_startFilters[index].getChars();
+    }
+
+    /**
+     * Get a filter for skipping through the input in a state
+     *
+     * @param state a state number
+     * @return the precalculated filter if state is a start state.  Otherwise a filter that doesn't skip anything
+     */
+    FirstCharFilter getFirstCharFilter(int state)
+    {
+        for (int i = 0; i < m_startStates.length; ++i)
+        {
+            if (m_startStates[i] == state)
+            {
+                return m_startFilters[i];
+            }
+        }
+        return FirstCharFilter.ALL;
+    }
+
+    /**
+     * Get the number of character classes in this DFA
+     *
+     * @return the number of character classes.  Classes are compactly numbered from 0
+     */
+    public int getCharClassCount()
+    {
+        return m_numClasses;
+    }
+
+    /**
+     * Get the character class for a character
+     * <P>
+     * All characters in the same class have the same transitions in all states
+     *
+     * @param c a character
+     * @return the character class for c
+     */
+    public int getCharClass(char c)
+    {
+        return m_charClasses.getCharClass(c);
+    }
+
+    /**
+     * Process a character and get the next state
+     *
+     * @param state the current state number
+     * @param c input character
+     * @return the number of the state that c transitions to from the given state, or -1 if
+     *      there is no such state
+     */
+    public int getNextState(int state, char c)
+    {
+        return m_transitions[state*m_numClasses + m_charClasses.getCharClass(c)];
+    }
+
+    /**
+     * Get the next state for a character class
+     *
+     * @param state the current state number
+     * @param charClass a character class, as returned by {@link #getCharClass(char)}
+     * @return the number of the state that characters in charClass transition to from the given
+     *      state, or -1 if there is no such state
+     */
+    public int getNextStateByClass(int state, int charClass)
+    {
+        return m_transitions[state*m_numClasses + charClass];
+    }
+
+    /**
+     * Get the result that has been matched if we've transitioned into a state
+     *
+     * @param state a state number
+     * @return If the sequence of characters that led to the state match a pattern in the
+     *     language being processed, the match result for that pattern is returned.  Otherwise
+     *     null.
+     */
+    @SuppressWarnings("unchecked")
+    public MATCHRESULT getMatch(int state)
+    {
+        return (MATCHRESULT)m_matches[state];
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * Finds leftmost-longest matches in {@link SearchMode#FORWARD_FINDER} mode
+ * <P>
+ * The forward finder is run from the search position to find the end of the first match.  No
+ * match that starts at or after the search position can end before that, so the leftmost match
+ * starts at the first position before it where the matcher finds a match.
+ * <P>
+ * An instance can be reused for many sources.  It is not thread-safe.
+ */
+final class ForwardFinderSearch<MR>
+{
+    private final DfaState<MR> m_matcher;
+    private final DfaState<?> m_finder;
+    //characters that take the finder out of its start state
+    private final FirstCharFilter m_finderFilter;
+    //characters that can start a match
+    private final FirstCharFilter m_matcherFilter;
+    private CharSequence m_src;
+    //if this is non-null, it has the characters of m_src, starting at m_arrayBase
+    private char[] m_array;
+    private int m_arrayBase;
+    private int m_len;
+    //the last match found
+    private int m_matchStart;
+    private int m_matchEnd;
+    private MR m_matchResult;
+
+    ForwardFinderSearch(DfaState<MR> matcher, DfaState<?> finder)
+    {
+        m_matcher = matcher;
+        m_finder = finder;
+        m_finderFilter = finder.getFirstCharFilter(true);
+        m_matcherFilter = matcher.getFirstCharFilter(false);
+    }
+
+    /**
+     * Set the source to search
+     *
+     * @param src the source.  If array is null, the characters are read from this
+     * @param array if non-null, an array that contains the characters in the source, starting at arrayBase
+     * @param arrayBase the position in array of the first character
+     * @param len the length of the source
+     * @return this
+     */
+    ForwardFinderSearch<MR> reset(CharSequence src, char[] array, int arrayBase, int len)
+    {
+        m_src = src;
+        m_array = array;
+        m_arrayBase = arrayBase;
+        m_len = len;
+        m_matchResult = null;
+        return this;
+    }
+
+    /**
+     * Find the first match that starts at or after pos
+     * <P>
+     * If a match is found, it is available from {@link #getMatchStart()}, {@link #getMatchEnd()},
+     * and {@link #getMatchResult()}
+     *
+     * @param pos the position to search from
+     * @return true if a match was found
+     */
+    boolean find(int pos)
+    {
+        final int len = m_len;
+        final char[] array = m_array;
+        final int base = m_arrayBase;
+        final DfaState<?> startState = m_finder;
+        DfaState<?> st = startState;
+        int firstEnd = -1;
+        for (int i = pos; i < len;)
+        {
+            if (st == startState)
+            {
+                //skip over characters that would leave us in the start state
+                i = m_finderFilter.skip(m_src, array, base, i, len);
+                if (i >= len)
+                {
+                    break;
+                }
+            }
+            st = st.getNextState(array != null ? array[base+i] : m_src.charAt(i));
+            ++i;
+            if (st == null)
+            {
+                break;
+            }
+            if (st.getMatch() != null)
+            {
+                firstEnd = i;
+                break;
+            }
+        }
+        final FirstCharFilter matcherFilter = m_matcherFilter;
+        for (int start = matcherFilter.skip(m_src, array, base, pos, firstEnd); start < firstEnd;
+                start = matcherFilter.skip(m_src, array, base, start+1, firstEnd))
+        {
+            DfaState<MR> mst = m_matcher;
+            MR result = null;
+            int end = start;
+            for (int i = start; i < len;)
+            {
+                mst = mst.getNextState(array != null ? array[base+i] : m_src.charAt(i));
+                ++i;
+                if (mst == null)
+                {
+                    break;
+                }
+                MR match = mst.getMatch();
+                if (match != null)
+                {
+                    result = match;
+                    end = i;
+                }
+            }
+            if (result != null)
+            {
+                m_matchStart = start;
+                m_matchEnd = end;
+                m_matchResult = result;
+                return true;
+            }
+        }
+        m_matchResult = null;
+        return false;
+    }
+
+    int getMatchStart()
+    {
+        return m_matchStart;
+    }
+
+    int getMatchEnd()
+    {
+        return m_matchEnd;
+    }
+
+    MR getMatchResult()
+    {
+        return m_matchResult;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * A DFA that is built from an NFA on demand.
+ * <P>
+ * States are created when they are first reached, and the transitions out of a state are
+ * calculated the first time it processes a character.  This avoids the exponential blowup
+ * that powerset construction can suffer for some patterns, since only the states that the input
+ * actually reaches are ever made.
+ * <P>
+ * The states that have been made are kept in a cache of bounded size.  When the cache is full,
+ * it is flushed and we start again.  States that callers still hold remain valid, and recalculate
+ * their transitions when they are next used.
+ * <P>
+ * The DFA is not minimized.
+ */
+class LazyDfa<RESULT>
+{
+    private final NfaStepper<RESULT> m_stepper;
+    private final int m_maxCachedStates;
+    private final List<DfaState<RESULT>> m_startStates;
+
+    //the current generation of cached states.  Incremented whenever the cache is flushed
+    private volatile int m_generation = 0;
+    private int m_flushCount = 0;
+    private int m_nextStateNumber = 0;
+    private final HashMap<IntListKey, LazyState<RESULT>> m_stateCache = new HashMap<>();
+
+    //scratch space
+    private final ArrayList<NfaTransition> m_tempTransitions = new ArrayList<>();
+    private final ArrayList<LazyState<RESULT>> m_tempTargets = new ArrayList<>();
+
+    /**
+     * Create a new LazyDfa
+     *
+     * @param nfa the NFA to build from.  It must not be modified after this.
+     * @param nfaStartStates NFA states corresponding to the DFA start states
+     * @param ambiguityResolver combines results when a DFA state accepts more than one.  Note
+     *      that this is called as states are made, while the DFA is in use.
+     * @param maxCachedStates the cache is flushed when it has this many states
+     */
+    LazyDfa(Nfa<RESULT> nfa, int[] nfaStartStates, DfaAmbiguityResolver<? super RESULT> ambiguityResolver, int maxCachedStates)
+    {
+        m_stepper = new NfaStepper<>(nfa, ambiguityResolver);
+        m_maxCachedStates = Math.max(maxCachedStates, 1);
+        List<DfaState<RESULT>> startStates = new ArrayList<>(nfaStartStates.length);
+        synchronized(this)
+        {
+            for (int nfaStartState : nfaStartStates)
+            {
+                m_stepper.getDfaState(nfaStartState, this::_internState);
+                startStates.add(m_tempTargets.get(m_tempTargets.size()-1));
+            }
+            m_tempTargets.clear();
+        }
+        m_startStates = Collections.unmodifiableList(startStates);
+    }
+
+    List<DfaState<RESULT>> getStartStates()
+    {
+        return m_startStates;
+    }
+
+    /**
+     * @return the number of times the state cache has been flushed
+     */
+    synchronized int getFlushCount()
+    {
+        return m_flushCount;
+    }
+
+    /**
+     * @return the number of states in the cache
+     */
+    synchronized int getCachedStateCount()
+    {
+        return m_stateCache.size();
+    }
+
+    //calculate the transitions out of a state
+    private synchronized Transitions _expand(LazyState<RESULT> state)
+    {
+        Transitions ret = state.m_transitions;
+        if (ret != null && ret.m_generation == m_generation)
+        {
+            //another thread did it
+            return ret;
+        }
+        if (m_stateCache.size() >= m_maxCachedStates)
+        {
+            m_stateCache.clear();
+            ++m_flushCount;
+            m_generation = m_generation+1;
+        }
+        m_tempTransitions.clear();
+        m_tempTargets.clear();
+        m_stepper.getTransitions(state.m_signature, this::_internState, m_tempTransitions);
+
+        //transitions are in order, but they may have gaps.  Make segments that cover everything
+        final int len = m_tempTransitions.size();
+        char[] firstChars = new char[len*2+1];
+        LazyState<?>[] targets = new LazyState<?>[len*2+1];
+        int nsegs = 0;
+        int nextc = 0;
+        for (int i = 0; i < len; ++i)
+        {
+            NfaTransition trans = m_tempTransitions.get(i);
+            if (trans.m_firstChar > nextc)
+            {
+                firstChars[nsegs] = (char)nextc;
+                targets[nsegs++] = null;
+            }
+            firstChars[nsegs] = trans.m_firstChar;
+            //the targets are in m_tempTargets in the same order
+            targets[nsegs++] = m_tempTargets.get(trans.m_stateNum);
+            nextc = trans.m_lastChar+1;
+        }
+        if (nextc <= Character.MAX_VALUE)
+        {
+            firstChars[nsegs] = (char)nextc;
+            targets[nsegs++] = null;
+        }
+        m_tempTargets.clear();
+        ret = new Transitions(Arrays.copyOf(firstChars, nsegs), Arrays.copyOf(targets, nsegs), m_generation);
+        state.m_transitions = ret;
+        return ret;
+    }
+
+    //Get the cached state for a signature, making one if necessary.  The state goes into m_tempTargets,
+    //and we return its index there.
+    private int _internState(IntListKey signature)
+    {
+        LazyState<RESULT> state = m_stateCache.get(signature);
+        if (state == null)
+        {
+            IntListKey newSig = new IntListKey(signature);
+            state = new LazyState<>(this, newSig, m_stepper.getAccept(newSig), m_nextStateNumber++);
+            m_stateCache.put(newSig, state);
+        }
+        m_tempTargets.add(state);
+        return m_tempTargets.size()-1;
+    }
+
+    //Immutable set of transitions out of a state, in the form of segments that cover all characters
+    private static final class Transitions
+    {
+        final char[] m_firstChars;
+        final LazyState<?>[] m_targets;
+        final int m_generation;
+
+        Transitions(char[] firstChars, LazyState<?>[] targets, int generation)
+        {
+            m_firstChars = firstChars;
+            m_targets = targets;
+            m_generation = generation;
+        }
+
+        LazyState<?> getTarget(char c)
+        {
+            //find the last segment that starts at or before c
+            int lo = 0, hi = m_firstChars.length-1;
+            while (lo < hi)
+            {
+                int mid = (lo+hi+1)>>1;
+                if (m_firstChars[mid] <= c)
+                {
+                    lo = mid;
+                }
+                else
+                {
+                    hi = mid-1;
+                }
+            }
+            return m_targets[lo];
+        }
+    }
+
+    private static final class LazyState<M> extends DfaState<M>
+    {
+        private final LazyDfa<M> m_dfa;
+        private final IntListKey m_signature;
+        private final M m_match;
+        private final int m_stateNumber;
+        private volatile Transitions m_transitions = null;
+
+        LazyState(LazyDfa<M> dfa, IntListKey signature, M match, int stateNumber)
+        {
+            m_dfa = dfa;
+            m_signature = signature;
+            m_match = match;
+            m_stateNumber = stateNumber;
+        }
+
+        private Transitions _getTransitions()
+        {
+            Transitions ret = m_transitions;
+            if (ret == null || ret.m_generation != m_dfa.m_generation)
+            {
+                ret = m_dfa._expand(this);
+            }
+            return ret;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public DfaState<M> getNextState(char c)
+        {
+            return (DfaState<M>)_getTransitions().getTarget(c);
+        }
+
+        @Override
+        public M getMatch()
+        {
+            return m_match;
+        }
+
+        /**
+         * Lazy states are numbered in order of creation.  The numbers are unique,
+         * but not compact, since states can be discarded and recreated
+         */
+        @Override
+        public int getStateNumber()
+        {
+            return m_stateNumber;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public void enumerateTransitions(DfaTransitionConsumer<M> consumer)
+        {
+            final Transitions trans = _getTransitions();
+            final int len = trans.m_firstChars.length;
+            for (int i = 0; i < len; ++i)
+            {
+                if (trans.m_targets[i] != null)
+                {
+                    char lastc = (i+1 < len ? (char)(trans.m_firstChars[i+1]-1) : Character.MAX_VALUE);
+                    consumer.acceptTransition(trans.m_firstChars[i], lastc, (DfaState<M>)trans.m_targets[i]);
+                }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public Iterable<DfaState<M>> getSuccessorStates()
+        {
+            ArrayList<DfaState<M>> ret = new ArrayList<>();
+            for (LazyState<?> target : _getTransitions().m_targets)
+            {
+                if (target != null)
+                {
+                    ret.add((DfaState<M>)target);
+                }
+            }
+            return ret;
+        }
+
+        @Override
+        public boolean hasSuccessorStates()
+        {
+            for (LazyState<?> target : _getTransitions().m_targets)
+            {
+                if (target != null)
+                {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.nio.CharBuffer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Splits character sequences into tokens, producing packed {@link TokenStream}s
+ * <P>
+ * At each position, the lexer finds the longest match for its DFA (maximal munch), and adds
+ * a token with the match's integer token ID, start, and length to the token stream.  Lexing then
+ * continues from the end of the token.  Input that doesn't start a token is handled according
+ * to the lexer's {@link LexerErrorPolicy}.
+ * <P>
+ * The lexer works on a {@link FlatDfa}, with match results mapped to token IDs when the lexer
+ * is created, so the inner loop does no virtual calls and allocates nothing.
+ * <P>
+ * NOTE: Instances of this class are immutable and thread-safe.
+ * 
+ * @param <MATCHRESULT> the type of result produced by the DFA
+ */
+public final class Lexer<MATCHRESULT>
+{
+    /**
+     * The token ID used for runs of characters that don't start tokens, with
+     * {@link LexerErrorPolicy#ERROR_TOKEN}
+     */
+    public static final int ERROR_TOKEN = -1;
+
+    private final FlatDfa<MATCHRESULT> m_dfa;
+    private final int m_startState;
+    //the token ID for each state, or -1 if the state doesn't match
+    private final int[] m_stateTokens;
+    private final LexerErrorPolicy m_errorPolicy;
+    //characters that can start a token
+    private final FirstCharFilter m_firstChars;
+
+    /**
+     * Create a new Lexer
+     * 
+     * @param dfa the DFA that matches tokens.  See {@link DfaBuilder#buildFlat(DfaAmbiguityResolver)}
+     * @param startState the start state of the DFA to use
+     * @param tokenIds provides the token ID for each match result.  Token IDs must be non-negative.
+     * @param errorPolicy what to do with input that doesn't start a token
+     * @throws IllegalArgumentException if tokenIds returns a negative token ID
+     */
+    public Lexer(FlatDfa<MATCHRESULT> dfa, int startState, ToIntFunction<? super MATCHRESULT> tokenIds,
+            LexerErrorPolicy errorPolicy)
+    {
+        m_dfa = dfa;
+        m_startState = startState;
+        m_errorPolicy = errorPolicy;
+        m_firstChars = dfa.getFirstCharFilter(startState);
+        final int numStates = dfa.getStateCount();
+        m_stateTokens = new int[numStates];
+        for (int st = 0; st < numStates; ++st)
+        {
+            MATCHRESULT result = dfa.getMatch(st);
+            int id = (result == null ? -1 : tokenIds.applyAsInt(result));
+            if (result != null && id < 0)
+            {
+                throw new IllegalArgumentException("Invalid token ID " + id + " for match result " + result);
+            }
+            m_stateTokens[st] = id;
+        }
+    }
+
+    /**
+     * @return the policy for handling input that doesn't start a token
+     */
+    public LexerErrorPolicy getErrorPolicy()
+    {
+        return m_errorPolicy;
+    }
+
+    /**
+     * Tokenize a whole character sequence
+     * 
+     * @param src the characters to tokenize
+     * @return a new TokenStream containing the tokens
+     */
+    public TokenStream tokenize(CharSequence src)
+    {
+        TokenStream ret = new TokenStream(Math.max(src.length()>>3, 16));
+        tokenize(src, 0, src.length(), ret);
+        return ret;
+    }
+
+    /**
+     * Tokenize part of a character sequence, adding the tokens to a token stream
+     * <P>
+     * To restart lexing after a change in the source, start should be the start position of a token
+     * that was found previously.  Tokens will not extend past end, so end should usually be the length
+     * of the source.
+     * 
+     * @param src the characters to tokenize
+     * @param start the position to start at
+     * @param end the position to stop at
+     * @param dest tokens are added to the end of this stream
+     * @return the position at which lexing stopped.  This is end, unless the error policy is
+     *      {@link LexerErrorPolicy#STOP} and a character that doesn't start a token is found
+     */
+    public int tokenize(CharSequence src, int start, int end, TokenStream dest)
+    {
+        if (start < 0 || end > src.length() || start > end)
+        {
+            throw new IndexOutOfBoundsException("Invalid range " + start + " to " + end);
+        }
+        if (src instanceof CharBuffer)
+        {
+            CharBuffer buf = (CharBuffer)src;
+            if (buf.hasArray())
+            {
+                return _tokenize(src, buf.array(), buf.arrayOffset() + buf.position(), start, end, dest);
+            }
+        }
+        return _tokenize(src, null, 0, start, end, dest);
+    }
+
+    /**
+     * Tokenize the characters in an array, adding the tokens to a token stream
+     * <P>
+     * Token positions are relative to offset.
+     * 
+     * @param src the array containing the characters to tokenize
+     * @param offset the position of the first character in the array
+     * @param length the number of characters to tokenize
+     * @param dest tokens are added to the end of this stream
+     * @return the position, relative to offset, at which lexing stopped.  This is length, unless the
+     *      error policy is {@link LexerErrorPolicy#STOP} and a character that doesn't start a token is found
+     */
+    public int tokenize(char[] src, int offset, int length, TokenStream dest)
+    {
+        if (offset < 0 || length < 0 || offset + length > src.length)
+        {
+            throw new IndexOutOfBoundsException("Invalid range " + offset + " + " + length);
+        }
+        return _tokenize(null, src, offset, 0, length, dest);
+    }
+
+    /**
+     * Update a token stream after the source has been edited
+     * <P>
+     * Only the tokens that could be affected by the edit are re-lexed.  Lexing restarts at the
+     * last token boundary before the edit that doesn't depend on any changed characters (see
+     * {@link TokenStream#getReach(int)}), and stops as soon as a new token starts at the same
+     * place after the edit as a token in the old stream.  The rest of the old tokens are then
+     * reused, with their positions shifted to account for the change in length.
+     * <P>
+     * The edit replaced the characters from editStart to oldEditEnd in the old source with the characters
+     * from editStart to newEditEnd in the new source.
+     * 
+     * @param src the new source, after the edit
+     * @param tokens the tokens for the whole old source, from {@link #tokenize(CharSequence)} or
+     *      a previous call to this method.  They are updated in place.
+     * @param editStart the position of the first changed character
+     * @param oldEditEnd the position after the last changed character, in the old source
+     * @param newEditEnd the position after the last changed character, in the new source
+     * @return the index of the first token that may have changed.  Tokens before this index are
+     *      unchanged.
+     */
+    public int relex(CharSequence src, TokenStream tokens, int editStart, int oldEditEnd, int newEditEnd)
+    {
+        final int len = src.length();
+        if (editStart < 0 || oldEditEnd < editStart || newEditEnd < editStart || newEditEnd > len)
+        {
+            throw new IndexOutOfBoundsException("Invalid edit range");
+        }
+        char[] array = null;
+        int base = 0;
+        if (src instanceof CharBuffer)
+        {
+            CharBuffer buf = (CharBuffer)src;
+            if (buf.hasArray())
+            {
+                array = buf.array();
+                base = buf.arrayOffset() + buf.position();
+            }
+        }
+        final int delta = newEditEnd - oldEditEnd;
+        final int oldCount = tokens.size();
+
+        //tokens before the first one that reached the edit are unaffected.  We restart at
+        //the one before that, so that a new error token can be merged into it
+        int first = tokens.findFirstReachAfter(editStart);
+        int pos = 0;
+        TokenStream newTokens = new TokenStream();
+        if (first > 0)
+        {
+            //skipped characters after a token are included in its reach, so the next token
+            //starts at the same place
+            pos = (first < oldCount ? tokens.getStart(first) : tokens.getEnd(oldCount-1));
+            --first;
+            newTokens.add(tokens.getTokenId(first), tokens.getStart(first), tokens.getLength(first), tokens.getReach(first));
+        }
+
+        //re-lex until a token starts at the same place as an old one after the edit
+        int resync = first;
+        while (pos >= 0 && pos < len)
+        {
+            if (pos >= newEditEnd)
+            {
+                final int oldPos = pos - delta;
+                while (resync < oldCount && tokens.getStart(resync) < oldPos)
+                {
+                    ++resync;
+                }
+                if (resync < oldCount && tokens.getStart(resync) == oldPos && !_wouldMerge(newTokens, pos, tokens.getTokenId(resync)))
+                {
+                    tokens.replace(first, resync, newTokens, delta);
+                    return first;
+                }
+            }
+            pos = _step(src, array, base, pos, len, newTokens);
+        }
+        tokens.replace(first, oldCount, newTokens, delta);
+        return first;
+    }
+
+    //If array is non-null, it contains the characters to tokenize, starting at base.  Otherwise they're in src
+    private int _tokenize(CharSequence src, char[] array, int base, int start, int end, TokenStream dest)
+    {
+        int pos = start;
+        while (pos < end)
+        {
+            int next = _step(src, array, base, pos, end, dest);
+            if (next < 0)
+            {
+                return pos;
+            }
+            pos = next;
+        }
+        return pos;
+    }
+
+    //Lex the token at pos, or handle the error if there isn't one.  Returns the position at
+    //which to continue, or -1 to stop
+    private int _step(CharSequence src, char[] array, int base, final int pos, final int end, TokenStream dest)
+    {
+        //find the longest token at pos
+        final FlatDfa<MATCHRESULT> dfa = m_dfa;
+        final int[] stateTokens = m_stateTokens;
+        int state = m_startState;
+        int tokenEnd = -1;
+        int tokenId = ERROR_TOKEN;
+        int i = pos;
+        while (i < end)
+        {
+            state = dfa.getNextState(state, array != null ? array[base+i] : src.charAt(i));
+            ++i;
+            if (state < 0)
+            {
+                break;
+            }
+            final int id = stateTokens[state];
+            if (id >= 0)
+            {
+                tokenEnd = i;
+                tokenId = id;
+            }
+        }
+        //the characters before reach determined the result.  Running into the end counts as
+        //reading the end position
+        final int reach = (state < 0 ? i : i+1);
+        if (tokenEnd >= 0)
+        {
+            dest.add(tokenId, pos, tokenEnd-pos, reach);
+            return tokenEnd;
+        }
+        //no token here
+        final int last = dest.size()-1;
+        if (m_errorPolicy == LexerErrorPolicy.STOP)
+        {
+            dest.extendReach(reach);
+            return -1;
+        }
+        final int next = m_firstChars.skip(src, array, base, pos+1, end);
+        //we read the character at next to stop there
+        final int skipReach = Math.max(reach, next+1);
+        if (m_errorPolicy == LexerErrorPolicy.ERROR_TOKEN)
+        {
+            if (last >= 0 && dest.getTokenId(last) == ERROR_TOKEN && dest.getEnd(last) == pos)
+            {
+                //extend the previous error token
+                dest.setLastLength(next - dest.getStart(last));
+                dest.extendReach(skipReach);
+            }
+            else
+            {
+                dest.add(ERROR_TOKEN, pos, next-pos, skipReach);
+            }
+        }
+        else
+        {
+            //skipped characters are included in the reach of the token before them, or the
+            //first token if there isn't one
+            dest.extendReach(skipReach);
+        }
+        return next;
+    }
+
+    //true if an error token in the old stream would merge with an error token that ends at pos in dest
+    private static boolean _wouldMerge(TokenStream dest, int pos, int oldTokenId)
+    {
+        final int last = dest.size()-1;
+        return (oldTokenId == ERROR_TOKEN && last >= 0 && dest.getTokenId(last) == ERROR_TOKEN && dest.getEnd(last) == pos);
+    }
+}
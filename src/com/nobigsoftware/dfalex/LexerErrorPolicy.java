@@ -0,0 +1,38 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * What a {@link Lexer} does when it reaches input that doesn't start a token
+ */
+public enum LexerErrorPolicy
+{
+    /**
+     * Characters that don't start a token are skipped, and don't appear in the token stream
+     */
+    SKIP,
+
+    /**
+     * Each run of characters that don't start tokens is added to the token stream as a single token
+     * with ID {@link Lexer#ERROR_TOKEN}
+     */
+    ERROR_TOKEN,
+
+    /**
+     * Lexing stops at the first character that doesn't start a token
+     */
+    STOP
+}
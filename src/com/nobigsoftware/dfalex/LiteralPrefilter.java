@@ -0,0 +1,244 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Quickly finds occurrences of a set of literal strings, so that {@link StringSearcher} can skip input
+ * that can't contain a match
+ * <P>
+ * A single literal is found with {@link String#indexOf(String, int)} when searching Strings, which the JVM
+ * implements with vectorized instructions on most platforms.  Otherwise we scan for the literal's rarest
+ * character, and check the rest of the literal wherever it occurs.  Multiple literals are found by
+ * scanning for their first characters in a bit set, and checking the literals that start with each
+ * character found.
+ * <P>
+ * Instances of this class are immutable and thread-safe.
+ */
+final class LiteralPrefilter
+{
+    //single literal mode
+    private final String m_literal;
+    //position of the rarest character in m_literal
+    private final int m_rareOffset;
+    private final char m_rareChar;
+    //multiple literal mode: bit set of first characters
+    private final long[] m_firstChars;
+    //literals grouped by first character, sorted
+    private final String[] m_literals;
+    //the distinct first characters of m_literals, sorted.  The literals that start with
+    //m_groupChars[g] are the ones in m_literals from m_groupStarts[g] to m_groupStarts[g+1]
+    private final char[] m_groupChars;
+    private final int[] m_groupStarts;
+    private final int m_minLength;
+
+    private LiteralPrefilter(String literal)
+    {
+        m_literal = literal;
+        int best = 0;
+        for (int i = 1; i < literal.length(); ++i)
+        {
+            if (_rarity(literal.charAt(i)) > _rarity(literal.charAt(best)))
+            {
+                best = i;
+            }
+        }
+        m_rareOffset = best;
+        m_rareChar = literal.charAt(best);
+        m_firstChars = null;
+        m_literals = null;
+        m_groupChars = null;
+        m_groupStarts = null;
+        m_minLength = literal.length();
+    }
+
+    private LiteralPrefilter(Collection<String> literals)
+    {
+        m_literal = null;
+        m_rareOffset = 0;
+        m_rareChar = 0;
+        m_literals = literals.toArray(new String[literals.size()]);
+        Arrays.sort(m_literals);
+        m_firstChars = new long[1024];
+        char[] groupChars = new char[m_literals.length];
+        int[] groupStarts = new int[m_literals.length+1];
+        int numGroups = 0;
+        int minLength = Integer.MAX_VALUE;
+        for (int i = 0; i < m_literals.length; ++i)
+        {
+            char c = m_literals[i].charAt(0);
+            if (numGroups == 0 || groupChars[numGroups-1] != c)
+            {
+                groupChars[numGroups] = c;
+                groupStarts[numGroups++] = i;
+            }
+            m_firstChars[c>>6] |= 1L<<(c&63);
+            minLength = Math.min(minLength, m_literals[i].length());
+        }
+        groupStarts[numGroups] = m_literals.length;
+        m_groupChars = Arrays.copyOf(groupChars, numGroups);
+        m_groupStarts = Arrays.copyOf(groupStarts, numGroups+1);
+        m_minLength = minLength;
+    }
+
+    /**
+     * Create a prefilter that finds a set of literals
+     *
+     * @param literals the literals to find
+     * @return the prefilter, or null if the literals aren't useful for prefiltering
+     */
+    static LiteralPrefilter create(Collection<String> literals)
+    {
+        if (literals == null || literals.isEmpty() || literals.size() > RequiredLiterals.MAX_STRINGS)
+        {
+            return null;
+        }
+        List<String> list = new ArrayList<>();
+        for (String lit : literals)
+        {
+            if (lit.isEmpty())
+            {
+                return null;
+            }
+            list.add(lit);
+        }
+        if (list.size() == 1)
+        {
+            return new LiteralPrefilter(list.get(0));
+        }
+        return new LiteralPrefilter(list);
+    }
+
+    /**
+     * Check whether any of the literals occur in a source
+     *
+     * @param src the source.  If array is null, the characters are read from this
+     * @param array if non-null, an array that contains the characters in the source, starting at base
+     * @param base the position in array of the first character
+     * @param len the length of the source
+     * @return true if a literal occurs in the source
+     */
+    boolean occursIn(CharSequence src, char[] array, int base, int len)
+    {
+        return indexIn(src, array, base, len, 0) >= 0;
+    }
+
+    /**
+     * Find the next occurrence of any literal in a source
+     *
+     * @param src the source.  If array is null, the characters are read from this
+     * @param array if non-null, an array that contains the characters in the source, starting at base
+     * @param base the position in array of the first character
+     * @param len the length of the source
+     * @param pos the position to start searching at
+     * @return the start position of the first occurrence of any literal at or after pos, or -1 if there isn't one
+     */
+    int indexIn(CharSequence src, char[] array, int base, int len, int pos)
+    {
+        if (m_literal != null)
+        {
+            if (array == null && src instanceof String && len == src.length())
+            {
+                return ((String)src).indexOf(m_literal, pos);
+            }
+            return _indexOfLiteral(src, array, base, len, pos);
+        }
+        final int end = len - m_minLength;
+        final long[] firstChars = m_firstChars;
+        for (; pos <= end; ++pos)
+        {
+            char c = (array != null ? array[base+pos] : src.charAt(pos));
+            if ((firstChars[c>>6] & (1L<<(c&63))) == 0)
+            {
+                continue;
+            }
+            //check the literals that start with c.  It's in the bit set, so it has a group
+            final int g = Arrays.binarySearch(m_groupChars, c);
+            for (int i = m_groupStarts[g], e = m_groupStarts[g+1]; i < e; ++i)
+            {
+                if (_matchesAt(m_literals[i], src, array, base, len, pos))
+                {
+                    return pos;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private int _indexOfLiteral(CharSequence src, char[] array, int base, int len, int pos)
+    {
+        final String lit = m_literal;
+        final char rare = m_rareChar;
+        final int off = m_rareOffset;
+        final int end = len - lit.length() + off;
+        for (int i = pos + off; i <= end; ++i)
+        {
+            if ((array != null ? array[base+i] : src.charAt(i)) == rare &&
+                    _matchesAt(lit, src, array, base, len, i - off))
+            {
+                return i - off;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean _matchesAt(String lit, CharSequence src, char[] array, int base, int len, int pos)
+    {
+        final int litlen = lit.length();
+        if (pos + litlen > len)
+        {
+            return false;
+        }
+        for (int i = 0; i < litlen; ++i)
+        {
+            if ((array != null ? array[base+pos+i] : src.charAt(pos+i)) != lit.charAt(i))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //A rough guess at how rare a character is in typical text.  Higher is rarer
+    private static int _rarity(char c)
+    {
+        if (c == ' ' || c == 'e' || c == 't' || c == 'a' || c == 'o' || c == 'i' || c == 'n')
+        {
+            return 0;
+        }
+        if (c >= 'a' && c <= 'z')
+        {
+            return 1;
+        }
+        if (c >= '0' && c <= '9')
+        {
+            return 2;
+        }
+        if (c >= 'A' && c <= 'Z')
+        {
+            return 3;
+        }
+        if (c < 128)
+        {
+            return 4;
+        }
+        return 5;
+    }
+}
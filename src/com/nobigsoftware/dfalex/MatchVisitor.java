@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * Receives the matches found by {@link StringSearcher#searchString(CharSequence, MatchVisitor)}
+ * <P>
+ * Matches are reported with primitive positions, so searching with a visitor doesn't allocate
+ * an iterator or any match strings.
+ *
+ * @param MATCHRESULT The type of result associated with the patterns being searched for
+ */
+@FunctionalInterface
+public interface MatchVisitor<MATCHRESULT>
+{
+    /**
+     * Called for each match found, in order
+     *
+     * @param result    The MATCHRESULT produced by the match
+     * @param startPos  the start index of the match in the source
+     * @param endPos    the end index of the match in the source
+     * @return 0 to continue with the next match.  If this is &gt;0, then it is the position in the source
+     *      at which to continue searching, and the next match reported will be the first one that starts
+     *      at or after it.  If you set this &gt;0 and &lt;= startPos, a runtime exception will be thrown to
+     *      abort the infinite loop that would result.  If this is &lt;0, then the search stops.
+     */
+    int visit(MATCHRESULT result, int startPos, int endPos);
+}
@@ -16,11 +16,12 @@
 package com.nobigsoftware.dfalex;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 /**
  * Simple non-deterministic finite automaton (NFA) representation
@@ -38,10 +39,26 @@ import java.util.function.Consumer;
  */
 public class Nfa<MATCHRESULT>
 {
-	private final ArrayList<List<NfaTransition>> m_stateTransitions = new ArrayList<>();
-	private final ArrayList<List<Integer>> m_stateEpsilons = new ArrayList<>();
+	private static final int[] NO_INTS = new int[0];
+	private static final char[] NO_CHARS = new char[0];
+	
 	private final ArrayList<MATCHRESULT> m_stateAccepts = new ArrayList<>();
 	
+	//Transitions and epsilons are stored in primitive arrays, in the order they were added
+	private int m_transCount = 0;
+	private int[] m_transFrom = NO_INTS;
+	private int[] m_transTo = NO_INTS;
+	private char[] m_transFirstChars = NO_CHARS;
+	private char[] m_transLastChars = NO_CHARS;
+	private int m_epsCount = 0;
+	private int[] m_epsFrom = NO_INTS;
+	private int[] m_epsTo = NO_INTS;
+	
+	//Index of transitions and epsilons by source state.  This is built when it's needed,
+	//and discarded when the NFA changes.  Index is immutable, so this is thread-safe, but
+	//we don't bother stopping 2 threads from doing the same work
+	private Index m_index = null;
+	
 	/**
 	 * Get the number of states in the NFA
 	 * 
@@ -62,10 +79,7 @@ public class Nfa<MATCHRESULT>
 	{
 		int ret = m_stateAccepts.size();
 		m_stateAccepts.add(accept);
-		m_stateTransitions.add(null);
-		m_stateEpsilons.add(null);
-		assert(m_stateTransitions.size() == m_stateAccepts.size());
-		assert(m_stateEpsilons.size() == m_stateAccepts.size());
+		m_index = null;
 		return ret;
 	}
 	
@@ -82,13 +96,21 @@ public class Nfa<MATCHRESULT>
 	 */
 	public void addTransition(int from, int to, char firstChar, char lastChar)
 	{
-		List<NfaTransition> list = m_stateTransitions.get(from);
-		if (list == null)
+		_checkState(from);
+		if (m_transCount >= m_transFrom.length)
 		{
-			list = new ArrayList<>();
-			m_stateTransitions.set(from, list);
+			int newLen = m_transCount + (m_transCount>>1) + 16;
+			m_transFrom = Arrays.copyOf(m_transFrom, newLen);
+			m_transTo = Arrays.copyOf(m_transTo, newLen);
+			m_transFirstChars = Arrays.copyOf(m_transFirstChars, newLen);
+			m_transLastChars = Arrays.copyOf(m_transLastChars, newLen);
 		}
-		list.add(new NfaTransition(firstChar, lastChar, to));
+		m_transFrom[m_transCount] = from;
+		m_transTo[m_transCount] = to;
+		m_transFirstChars[m_transCount] = firstChar;
+		m_transLastChars[m_transCount] = lastChar;
+		++m_transCount;
+		m_index = null;
 	}
 	
 	/**
@@ -103,13 +125,17 @@ public class Nfa<MATCHRESULT>
 	 */
 	public void addEpsilon(int from, int to)
 	{
-		List<Integer> list = m_stateEpsilons.get(from);
-		if (list == null)
+		_checkState(from);
+		if (m_epsCount >= m_epsFrom.length)
 		{
-			list = new ArrayList<Integer>();
-			m_stateEpsilons.set(from, list);
+			int newLen = m_epsCount + (m_epsCount>>1) + 16;
+			m_epsFrom = Arrays.copyOf(m_epsFrom, newLen);
+			m_epsTo = Arrays.copyOf(m_epsTo, newLen);
 		}
-		list.add(to);
+		m_epsFrom[m_epsCount] = from;
+		m_epsTo[m_epsCount] = to;
+		++m_epsCount;
+		m_index = null;
 	}
 	
 	/**
@@ -131,7 +157,12 @@ public class Nfa<MATCHRESULT>
 	 */
 	public boolean hasTransitionsOrAccepts(int state)
 	{
-		return (m_stateAccepts.get(state) != null || m_stateTransitions.get(state) != null);
+		if (m_stateAccepts.get(state) != null)
+		{
+			return true;
+		}
+		final Index index = _index();
+		return index.m_transOffsets[state+1] > index.m_transOffsets[state];
 	}
 	
 	/**
@@ -142,8 +173,9 @@ public class Nfa<MATCHRESULT>
 	 */
 	public Iterable<Integer> getStateEpsilons(int state)
 	{
-        List<Integer> list = m_stateEpsilons.get(state);
-        return (list != null ? list : Collections.emptyList());
+		List<Integer> list = new ArrayList<>();
+		forStateEpsilons(state, list::add);
+		return list;
 	}
 	
     /**
@@ -154,8 +186,9 @@ public class Nfa<MATCHRESULT>
      */
     public Iterable<NfaTransition> getStateTransitions(int state)
     {
-        List<NfaTransition> list = m_stateTransitions.get(state);
-        return (list != null ? list : Collections.emptyList());
+        List<NfaTransition> list = new ArrayList<>();
+        forStateTransitions(state, list::add);
+        return list;
     }
     
     /**
@@ -203,36 +236,173 @@ public class Nfa<MATCHRESULT>
             }
         }
         
-        //need to make a new disemptified state.  first get all transitions
-        int newState = addState(null);
+        //need to make a new disemptified state.  first get all transitions.
+        //We collect them before adding any, so that we don't have to rebuild the index
         Set<NfaTransition> transSet = new HashSet<>();
+        List<NfaTransition> transList = new ArrayList<>();
         for (Integer src : reachable)
         {
             forStateTransitions(src, trans -> {
                 if (transSet.add(trans))
                 {
-                    addTransition(newState, trans.m_stateNum, trans.m_firstChar, trans.m_lastChar);
+                    transList.add(trans);
                 }
             });
         }
+        int newState = addState(null);
+        for (NfaTransition trans : transList)
+        {
+            addTransition(newState, trans.m_stateNum, trans.m_firstChar, trans.m_lastChar);
+        }
         return newState;
     }
     
-	void forStateEpsilons(int state, Consumer<Integer> dest)
+	void forStateEpsilons(int state, IntConsumer dest)
 	{
-		List<Integer> list = m_stateEpsilons.get(state);
-		if (list != null)
+		final Index index = _index();
+		final int end = index.m_epsOffsets[state+1];
+		for (int i = index.m_epsOffsets[state]; i < end; ++i)
 		{
-			list.forEach(dest);
+			dest.accept(index.m_epsTo[i]);
 		}
 	}
 	
 	void forStateTransitions(int state, Consumer<NfaTransition> dest)
 	{
-		List<NfaTransition> list = m_stateTransitions.get(state);
-		if (list != null)
+		final Index index = _index();
+		final int end = index.m_transOffsets[state+1];
+		for (int i = index.m_transOffsets[state]; i < end; ++i)
+		{
+			dest.accept(new NfaTransition(index.m_transFirstChars[i], index.m_transLastChars[i], index.m_transTo[i]));
+		}
+	}
+	
+	/**
+	 * Get the number of epsilon transitions out of a state
+	 * 
+	 * @param state the state number
+	 * @return the number of epsilon transitions
+	 */
+	int getEpsilonCount(int state)
+	{
+		final Index index = _index();
+		return index.m_epsOffsets[state+1] - index.m_epsOffsets[state];
+	}
+	
+	/**
+	 * Get the number of non-epsilon transitions out of a state
+	 * 
+	 * @param state the state number
+	 * @return the number of transitions
+	 */
+	int getTransitionCount(int state)
+	{
+		final Index index = _index();
+		return index.m_transOffsets[state+1] - index.m_transOffsets[state];
+	}
+	
+	/**
+	 * Copy the transitions out of a state into an array, in packed form.
+	 * <P>
+	 * Each transition is packed into a non-negative long with the first character in bits 47-62, the last
+	 * character in bits 31-46, and the target state in the low 31 bits, so sorting packed
+	 * transitions sorts them by first character.  See {@link #packTransition(char, char, int)}
+	 * 
+	 * @param state the state number
+	 * @param dest destination array.  It must have room for {@link #getTransitionCount(int)} transitions at destPos
+	 * @param destPos the position in dest for the first transition
+	 * @return the position in dest after the last transition
+	 */
+	int getPackedTransitions(int state, long[] dest, int destPos)
+	{
+		final Index index = _index();
+		final int end = index.m_transOffsets[state+1];
+		for (int i = index.m_transOffsets[state]; i < end; ++i)
+		{
+			dest[destPos++] = packTransition(index.m_transFirstChars[i], index.m_transLastChars[i], index.m_transTo[i]);
+		}
+		return destPos;
+	}
+	
+	static long packTransition(char firstChar, char lastChar, int target)
+	{
+		return (((long)firstChar)<<47) | (((long)lastChar)<<31) | target;
+	}
+	
+	private void _checkState(int state)
+	{
+		if (state < 0 || state >= m_stateAccepts.size())
+		{
+			throw new IndexOutOfBoundsException("Invalid NFA state number: " + state);
+		}
+	}
+	
+	//get the index, building it if it's out of date
+	private Index _index()
+	{
+		Index ret = m_index;
+		if (ret == null)
+		{
+			ret = new Index(this);
+			m_index = ret;
+		}
+		return ret;
+	}
+	
+	//Compressed sparse row index of the transitions and epsilons, grouped by source state.
+	//The transitions out of state s are at [m_transOffsets[s], m_transOffsets[s+1]) in the
+	//index arrays, in the order they were added.  Same for epsilons.
+	private static final class Index
+	{
+		final int[] m_transOffsets;
+		final int[] m_transTo;
+		final char[] m_transFirstChars;
+		final char[] m_transLastChars;
+		final int[] m_epsOffsets;
+		final int[] m_epsTo;
+		
+		Index(Nfa<?> nfa)
+		{
+			final int nstates = nfa.m_stateAccepts.size();
+			final int transCount = nfa.m_transCount;
+			final int epsCount = nfa.m_epsCount;
+			
+			m_transOffsets = _countingSortOffsets(nfa.m_transFrom, transCount, nstates);
+			m_transTo = new int[transCount];
+			m_transFirstChars = new char[transCount];
+			m_transLastChars = new char[transCount];
+			int[] positions = Arrays.copyOf(m_transOffsets, nstates);
+			for (int i = 0; i < transCount; ++i)
+			{
+				int pos = positions[nfa.m_transFrom[i]]++;
+				m_transTo[pos] = nfa.m_transTo[i];
+				m_transFirstChars[pos] = nfa.m_transFirstChars[i];
+				m_transLastChars[pos] = nfa.m_transLastChars[i];
+			}
+			
+			m_epsOffsets = _countingSortOffsets(nfa.m_epsFrom, epsCount, nstates);
+			m_epsTo = new int[epsCount];
+			positions = Arrays.copyOf(m_epsOffsets, nstates);
+			for (int i = 0; i < epsCount; ++i)
+			{
+				m_epsTo[positions[nfa.m_epsFrom[i]]++] = nfa.m_epsTo[i];
+			}
+		}
+		
+		//Get the start offset for each state's edges in a CSR index.  There is an extra entry
+		//at the end, with the total count
+		private static int[] _countingSortOffsets(int[] from, int count, int nstates)
 		{
-			list.forEach(dest);
+			int[] offsets = new int[nstates+1];
+			for (int i = 0; i < count; ++i)
+			{
+				++offsets[from[i]+1];
+			}
+			for (int i = 0; i < nstates; ++i)
+			{
+				offsets[i+1] += offsets[i];
+			}
+			return offsets;
 		}
 	}
 }
@@ -0,0 +1,358 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.function.IntConsumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Calculates DFA states and transitions from an NFA, one DFA state at a time.
+ * <P>
+ * Each DFA state is identified by a signature that encodes the set of simultaneous NFA states it represents.
+ * Callers map the signatures to their own DFA state numbers, so this class is shared by
+ * {@link DfaFromNfa}, which builds the whole DFA up front, and {@link LazyDfa}, which builds
+ * states as they are needed.
+ * <P>
+ * The epsilon closure of each NFA state is calculated the first time it's needed and remembered,
+ * up to a limit on the total size of the remembered closures.  Union patterns with thousands
+ * of alternatives would otherwise have to walk the same epsilon paths for every DFA state.
+ * <P>
+ * Instances are not thread-safe, because they have scratch space.
+ */
+class NfaStepper<RESULT>
+{
+    /**
+     * Default limit on the total number of NFA state numbers in remembered epsilon closures
+     */
+    static final int DEFAULT_CLOSURE_CACHE_LIMIT = 1<<22;
+
+    private final Nfa<RESULT> m_nfa;
+    private final DfaAmbiguityResolver<? super RESULT> m_ambiguityResolver;
+
+    //utility
+    private final DfaStateSignatureCodec m_dfaSigCodec = new DfaStateSignatureCodec();
+
+    //These fields are scratch space
+    private final CompactIntSubset m_nfaStateSet;
+    private final IntListKey m_tempStateSignature = new IntListKey();
+    private final IntRangeClosureQueue m_tempNfaClosureQ;
+    private CompactIntSubset m_closureDest = null;
+    private final IntConsumer m_closureConsumer = this::_addEpsilonTarget;
+    private CompactIntSubset m_tempClosureSet = null;
+    private int[] m_tempClosure = new int[16];
+    private int m_tempClosureLen = 0;
+
+    //remembered epsilon closures, in sorted order, by NFA state.  Each closure includes its state
+    private final int[][] m_closureCache;
+    //we can remember this many more NFA states in m_closureCache
+    private int m_closureCacheSpace;
+    private final HashSet<RESULT> m_tempResultSet = new HashSet<RESULT>();
+    //NFA transitions in the packed form produced by Nfa.getPackedTransitions
+    private long[] m_transitionQ = new long[1000];
+    private int m_transitionQLen = 0;
+
+    NfaStepper(Nfa<RESULT> nfa, DfaAmbiguityResolver<? super RESULT> ambiguityResolver)
+    {
+        this(nfa, ambiguityResolver, DEFAULT_CLOSURE_CACHE_LIMIT);
+    }
+
+    /**
+     * Create a new NfaStepper
+     *
+     * @param nfa the NFA.  It must not be modified while the stepper is in use
+     * @param ambiguityResolver combines results when a DFA state accepts more than one
+     * @param closureCacheLimit limit on the total number of NFA state numbers in remembered epsilon closures.
+     *      If this is 0, closures are calculated every time they're needed
+     */
+    NfaStepper(Nfa<RESULT> nfa, DfaAmbiguityResolver<? super RESULT> ambiguityResolver, int closureCacheLimit)
+    {
+        m_nfa = nfa;
+        m_ambiguityResolver = ambiguityResolver;
+        m_nfaStateSet = new CompactIntSubset(nfa.numStates());
+        m_tempNfaClosureQ = new IntRangeClosureQueue(nfa.numStates());
+        m_closureCache = new int[nfa.numStates()][];
+        m_closureCacheSpace = closureCacheLimit;
+    }
+
+    /**
+     * Get the DFA state that corresponds to an NFA state and its epsilon closure
+     *
+     * @param nfaState the NFA state number
+     * @param stateMap maps DFA state signatures to DFA state numbers.  The signature passed
+     *      to this function is scratch space, so it must be copied if it is kept.
+     * @return the DFA state number returned by stateMap
+     */
+    int getDfaState(int nfaState, ToIntFunction<IntListKey> stateMap)
+    {
+        m_nfaStateSet.clear();
+        _addNfaStateAndEpsilonsToSubset(m_nfaStateSet, nfaState);
+        return _getDfaState(m_nfaStateSet, stateMap);
+    }
+
+    /**
+     * Calculate the transitions out of a DFA state
+     *
+     * @param dfaStateSig the signature of the DFA state
+     * @param stateMap maps DFA state signatures to DFA state numbers.  The signature passed
+     *      to this function is scratch space, so it must be copied if it is kept.
+     * @param dest the transitions are added here in character order, with target DFA state numbers from stateMap
+     */
+    void getTransitions(IntListKey dfaStateSig, ToIntFunction<IntListKey> stateMap, List<NfaTransition> dest)
+    {
+        final CompactIntSubset nfaStateSet = m_nfaStateSet;
+
+        //For each DFA state, combine the NFA transitions for each
+        //distinct character range into a DFA transiton, appending new DFA states
+        //as we discover them.
+
+        //dump all the NFA transitions for the state into the Q
+        m_transitionQLen = 0;
+        DfaStateSignatureCodec.expand(dfaStateSig, this::_addTransitionsToQ);
+        final long[] transitionQ = m_transitionQ;
+        final int tqlen = m_transitionQLen;
+
+        //sort all the transitions by first character.  The packed form makes this easy
+        Arrays.sort(transitionQ, 0, tqlen);
+
+        //first character we haven't accounted for yet
+        char minc = 0;
+
+        //NFA transitions at index < tqstart are no longer relevant
+        //NFA transitions at index >= tqstart are in first char order OR have first char <= minc
+        //The sequence of NFA transitions contributing the the previous DFA transition starts here
+        int tqstart = 0;
+
+        //make a range of NFA transitions corresponding to the next DFA transition
+        while(tqstart < tqlen)
+        {
+            long trans = transitionQ[tqstart];
+            if (_lastChar(trans) < minc)
+            {
+                ++tqstart;
+                continue;
+            }
+
+            //INVAR - trans contributes to the next DFA transition
+            nfaStateSet.clear();
+            _addNfaStateAndEpsilonsToSubset(nfaStateSet, _target(trans));
+            char startc = _firstChar(trans);
+            char endc = _lastChar(trans);
+            if (startc < minc)
+            {
+                startc = minc;
+            }
+            //make range of all transitions that include the start character, removing ones
+            //that drop out
+            for(int tqend = tqstart+1; tqend < tqlen; ++tqend)
+            {
+                trans = transitionQ[tqend];
+                if (_lastChar(trans) < startc)
+                {
+                    //remove this one
+                    transitionQ[tqend] = transitionQ[tqstart++];
+                    continue;
+                }
+                if (_firstChar(trans) > startc)
+                {
+                    //this one is for the next transition
+                    if (_firstChar(trans) <= endc)
+                    {
+                        endc = (char)(_firstChar(trans)-1);
+                    }
+                    break;
+                }
+                //this one counts
+                if (_lastChar(trans) < endc)
+                {
+                    endc = _lastChar(trans);
+                }
+                _addNfaStateAndEpsilonsToSubset(nfaStateSet, _target(trans));
+            }
+
+            dest.add(new NfaTransition(startc, endc, _getDfaState(nfaStateSet, stateMap)));
+
+            minc = (char)(endc+1);
+            if (minc < endc)
+            {
+                //wrapped around
+                break;
+            }
+        }
+    }
+
+    /**
+     * Get the result for a DFA state
+     *
+     * @param dfaStateSig the signature of the DFA state
+     * @return the result accepted by the DFA state, combined with the ambiguity resolver if
+     *      necessary, or null if the state doesn't accept
+     */
+    @SuppressWarnings("unchecked")
+    RESULT getAccept(IntListKey dfaStateSig)
+    {
+        //calculate the set of accepts
+        m_tempResultSet.clear();
+        DfaStateSignatureCodec.expand(dfaStateSig, nfastate -> {
+            RESULT accept = m_nfa.getAccept(nfastate);
+            if (accept != null)
+            {
+                m_tempResultSet.add(accept);
+            }
+        });
+
+        RESULT dfaAccept = null;
+        if (m_tempResultSet.size() > 1)
+        {
+            dfaAccept = (RESULT)m_ambiguityResolver.apply(m_tempResultSet);
+        }
+        else if(!m_tempResultSet.isEmpty())
+        {
+            dfaAccept = m_tempResultSet.iterator().next();
+        }
+        return dfaAccept;
+    }
+
+    //add the transitions out of an NFA state to m_transitionQ
+    private void _addTransitionsToQ(int nfaState)
+    {
+        final int count = m_nfa.getTransitionCount(nfaState);
+        if (m_transitionQLen + count > m_transitionQ.length)
+        {
+            m_transitionQ = Arrays.copyOf(m_transitionQ, Math.max(m_transitionQLen + count, m_transitionQ.length*2));
+        }
+        m_transitionQLen = m_nfa.getPackedTransitions(nfaState, m_transitionQ, m_transitionQLen);
+    }
+
+    private static char _firstChar(long packedTransition)
+    {
+        return (char)(packedTransition >>> 47);
+    }
+
+    private static char _lastChar(long packedTransition)
+    {
+        return (char)(packedTransition >>> 31);
+    }
+
+    private static int _target(long packedTransition)
+    {
+        return (int)packedTransition & Integer.MAX_VALUE;
+    }
+
+    //Add an NFA state to a subset, along with the transitive
+    //closure over its epsilon transitions.
+    //Subsets always contain the whole closure of every state in them, so if the state
+    //is already there, there's nothing to do
+    private void _addNfaStateAndEpsilonsToSubset(CompactIntSubset dest, int stateNum)
+    {
+        if (!dest.add(stateNum) || m_nfa.getEpsilonCount(stateNum) == 0)
+        {
+            return;
+        }
+        int[] closure = m_closureCache[stateNum];
+        if (closure == null && m_closureCacheSpace > 0)
+        {
+            closure = _calcClosure(stateNum);
+        }
+        if (closure != null)
+        {
+            dest.addAll(closure, 0, closure.length);
+        }
+        else
+        {
+            _traverseEpsilons(dest, stateNum);
+        }
+    }
+
+    //calculate the sorted epsilon closure of an NFA state
+    private int[] _calcClosure(int stateNum)
+    {
+        if (m_tempClosureSet == null)
+        {
+            m_tempClosureSet = new CompactIntSubset(m_nfa.numStates());
+        }
+        final CompactIntSubset closureSet = m_tempClosureSet;
+        closureSet.clear();
+        closureSet.add(stateNum);
+        _traverseEpsilons(closureSet, stateNum);
+        m_tempClosureLen = 0;
+        closureSet.dumpInOrder(this::_addToTempClosure);
+        final int[] closure = Arrays.copyOf(m_tempClosure, m_tempClosureLen);
+        if (closure.length <= m_closureCacheSpace)
+        {
+            m_closureCacheSpace -= closure.length;
+            m_closureCache[stateNum] = closure;
+        }
+        else
+        {
+            m_closureCacheSpace = 0;
+        }
+        return closure;
+    }
+
+    private void _addToTempClosure(int nfaState)
+    {
+        if (m_tempClosureLen >= m_tempClosure.length)
+        {
+            m_tempClosure = Arrays.copyOf(m_tempClosure, m_tempClosure.length*2);
+        }
+        m_tempClosure[m_tempClosureLen++] = nfaState;
+    }
+
+    //add the states reachable from stateNum by epsilon transitions to dest.  stateNum
+    //must already be there
+    private void _traverseEpsilons(CompactIntSubset dest, int stateNum)
+    {
+        m_closureDest = dest;
+        m_tempNfaClosureQ.add(stateNum);
+        int newNfaState;
+        while((newNfaState = m_tempNfaClosureQ.poll()) >= 0)
+        {
+            m_nfa.forStateEpsilons(newNfaState, m_closureConsumer);
+        }
+        m_closureDest = null;
+    }
+
+    private void _addEpsilonTarget(int nfaState)
+    {
+        if (m_closureDest.add(nfaState))
+        {
+            m_tempNfaClosureQ.add(nfaState);
+        }
+    }
+
+    private void _addNfaStateToSignatureCodec(int stateNum)
+    {
+        if (m_nfa.hasTransitionsOrAccepts(stateNum))
+        {
+            m_dfaSigCodec.acceptInt(stateNum);
+        }
+    }
+
+    //Get the DFA state for a set of simultaneous NFA states
+    private int _getDfaState(CompactIntSubset nfaStateSet, ToIntFunction<IntListKey> stateMap)
+    {
+        //dump state combination into compressed form
+        m_tempStateSignature.clear();
+        m_dfaSigCodec.start(m_tempStateSignature::add, nfaStateSet.getSize(), nfaStateSet.getRange());
+        nfaStateSet.dumpInOrder(this::_addNfaStateToSignatureCodec);
+        m_dfaSigCodec.finish();
+
+        return stateMap.applyAsInt(m_tempStateSignature);
+    }
+}
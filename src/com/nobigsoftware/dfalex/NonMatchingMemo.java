@@ -0,0 +1,135 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * A non-matching memo for searchers that try a match attempt at each position in turn
+ * <P>
+ * This is the same memo that {@link StringMatcher} uses.  When an attempt passes through a non-accepting
+ * state and then fails to find a match, that state and position are remembered at exponentially increasing
+ * intervals.  When a later attempt arrives at a remembered position in the same state, it can stop,
+ * because it will fail in the same way.  Without the memo, input like "aaaa..." with the pattern "a*b"
+ * takes time proportional to the square of its length.
+ * <P>
+ * Positions are absolute, so they stay valid when a searcher discards or moves its buffered input.
+ * <P>
+ * Searchers that limit the length of an attempt must not keep the entries from an attempt that was cut
+ * short, since a later attempt with a later limit might succeed from the same state and position.  A
+ * memo hit is always valid, though, so the remaining worst case is only for inputs in which attempts
+ * are repeatedly cut short: O(n*maxMatchLength).
+ */
+class NonMatchingMemo
+{
+    private static final int SIZE = 40;
+
+    //For all x >= m_start, whenever you're in m_states[x] at position m_positions[x],
+    //you will fail to find a match
+    private int m_start = SIZE;
+    private final long[] m_positions = new long[SIZE];
+    private final DfaState<?>[] m_states = new DfaState<?>[SIZE];
+    //entries made by the attempt in progress are at the front of the arrays
+    private int m_newSize = 0;
+    private long m_writeNext = 0;
+
+    /**
+     * Forget everything
+     */
+    void clear()
+    {
+        m_start = SIZE;
+        m_newSize = 0;
+    }
+
+    /**
+     * Start a new match attempt
+     *
+     * @param startPos the position at which the attempt starts
+     */
+    void startAttempt(long startPos)
+    {
+        m_newSize = 0;
+        m_writeNext = startPos + 4;
+    }
+
+    /**
+     * Report that the attempt in progress found a match.  Entries it made before the match
+     * don't hold.
+     */
+    void matched()
+    {
+        m_newSize = 0;
+    }
+
+    /**
+     * Check and update the memo when the attempt in progress is in a non-accepting state
+     *
+     * @param state the DFA state
+     * @param pos   the position after the last character that led to the state
+     * @return true if the memo shows that the attempt won't find any more matches
+     */
+    boolean check(DfaState<?> state, long pos)
+    {
+        while (m_start < SIZE && m_positions[m_start] <= pos)
+        {
+            if (m_positions[m_start] == pos && m_states[m_start] == state)
+            {
+                //hit the memo -- we won't find a match.
+                return true;
+            }
+            //we passed this memo entry without using it -- remove it.
+            ++m_start;
+        }
+        if (pos >= m_writeNext && m_newSize < SIZE)
+        {
+            m_positions[m_newSize] = pos;
+            m_states[m_newSize] = state;
+            ++m_newSize;
+            m_writeNext = pos+(2<<m_newSize);
+            if (m_start < m_newSize)
+            {
+                m_start = m_newSize;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finish the attempt in progress
+     *
+     * @param complete true if the attempt ran until the DFA stopped, the input ended, or the memo
+     *      was hit.  false if it was cut short by a length limit, so its entries aren't valid.
+     */
+    void finishAttempt(boolean complete)
+    {
+        if (!complete)
+        {
+            m_newSize = 0;
+            return;
+        }
+        //merge in the new entries
+        while (m_start < SIZE && m_positions[m_start] < m_writeNext)
+        {
+            ++m_start;
+        }
+        while(m_newSize > 0)
+        {
+            --m_newSize;
+            --m_start;
+            m_positions[m_start] = m_positions[m_newSize];
+            m_states[m_start] = m_states[m_newSize];
+        }
+    }
+}
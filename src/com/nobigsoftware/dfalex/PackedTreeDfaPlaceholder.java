@@ -28,6 +28,8 @@ class PackedTreeDfaPlaceholder<MATCH> extends DfaStatePlaceholder<MATCH>
 	
 	private static final char[] NO_CHARS = new char[0];
 	private static final DfaStateImpl<?>[] NO_SUCC_STATES = new DfaStateImpl[1];
+	//low table for states with no successors.  This has to cover every table size
+	private static final DfaStateImpl<?>[] NO_LOW_TARGETS = new DfaStateImpl<?>[256];
 
 	//Array-packed binary search tree 
 	//The BST contains an internal node for char c if the the transition on c is
@@ -40,9 +42,18 @@ class PackedTreeDfaPlaceholder<MATCH> extends DfaStatePlaceholder<MATCH>
 	//target number -1 means no transition
 	private int[] m_targetStateNumbers;
 	private MATCH m_match;
+	//if this is >0, the delegate state will also have a direct lookup table for
+	//characters < m_lowTableSize
+	private int m_lowTableSize;
 	
 	PackedTreeDfaPlaceholder(RawDfa<MATCH> rawDfa, int stateNum)
 	{
+		this(rawDfa, stateNum, 0);
+	}
+	
+	PackedTreeDfaPlaceholder(RawDfa<MATCH> rawDfa, int stateNum, int lowTableSize)
+	{
+		m_lowTableSize = lowTableSize;
 		DfaStateInfo info = rawDfa.getStates().get(stateNum);
         m_match = rawDfa.getAcceptSets().get(info.getAcceptSetIndex());
 		
@@ -108,7 +119,14 @@ class PackedTreeDfaPlaceholder<MATCH> extends DfaStatePlaceholder<MATCH>
 		    int num = m_targetStateNumbers[i];
 			targetStates[i] = (num < 0 ? null : allStates.get(num));
 		}
-		m_delegate = new StateImpl<>(m_internalNodes, targetStates, m_match, statenum);
+		if (m_lowTableSize > 0)
+		{
+			m_delegate = new LowTableStateImpl<>(m_internalNodes, targetStates, m_match, statenum, m_lowTableSize);
+		}
+		else
+		{
+			m_delegate = new StateImpl<>(m_internalNodes, targetStates, m_match, statenum);
+		}
 	}
 	
 	//generate the tree by inorder traversal
@@ -317,6 +335,51 @@ class PackedTreeDfaPlaceholder<MATCH> extends DfaStatePlaceholder<MATCH>
             return previnternal;
         }
 	}
+	
+	//A state with a direct lookup table for low characters, which falls back to the
+	//packed tree for other characters
+	private static class LowTableStateImpl<M> extends StateImpl<M>
+	{
+		private final int m_lowTableSize;
+		//filled in when the target states are resolved
+		private DfaStateImpl<?>[] m_lowTargets = NO_LOW_TARGETS;
+		
+		LowTableStateImpl(char[] internalNodes, DfaStateImpl<?>[] targetStates,
+				M match, int stateNum, int lowTableSize)
+		{
+			super(internalNodes, targetStates, match, stateNum);
+			m_lowTableSize = lowTableSize;
+		}
+		
+		@Override
+		void fixPlaceholderReferences()
+		{
+			super.fixPlaceholderReferences();
+			if (!hasSuccessorStates())
+			{
+				//all transitions go nowhere, so we can share the empty table
+				return;
+			}
+			DfaStateImpl<?>[] lowTargets = new DfaStateImpl<?>[m_lowTableSize];
+			for (int c = 0; c < lowTargets.length; ++c)
+			{
+				lowTargets[c] = (DfaStateImpl<?>)super.getNextState((char)c);
+			}
+			m_lowTargets = lowTargets;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public DfaState<M> getNextState(char c)
+		{
+			if (c < m_lowTargets.length)
+			{
+				return (DfaState<M>)m_lowTargets[c];
+			}
+			return super.getNextState(c);
+		}
+	}
+	
 	private static class TransitionArrayIterator<M> implements Iterator<DfaState<M>>
 	{
 	    private final DfaState<?>[] m_array;
@@ -0,0 +1,224 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Turns an NFA into a non-minimal RawDfa by powerset construction, using multiple threads
+ * <P>
+ * DFA states are discovered breadth-first.  The transitions for all the states in each level of
+ * the search are calculated in parallel in a {@link ForkJoinPool}, and new states are deduplicated in a
+ * concurrent signature map.
+ * <P>
+ * When the search is complete, the states are renumbered in the order that {@link DfaFromNfa} would
+ * discover them, and the results are calculated in that order, so the RawDfa produced is exactly
+ * the same.  This also means that the ambiguity resolver is only called from the building thread.
+ */
+class ParallelDfaFromNfa<RESULT>
+{
+    //number of DFA states to expand in each task
+    private static final int CHUNK_SIZE = 32;
+
+    //inputs
+    private final Nfa<RESULT> m_nfa;
+    private final int[] m_nfaStartStates;
+    private final DfaAmbiguityResolver<? super RESULT> m_ambiguityResolver;
+    private final ForkJoinPool m_pool;
+
+    //signature map shared by the workers.  States are numbered in the order we discover them,
+    //which isn't deterministic
+    private final ConcurrentHashMap<IntListKey, Integer> m_dfaStateSignatureMap = new ConcurrentHashMap<>();
+    private final AtomicInteger m_nextStateNum = new AtomicInteger();
+    //new states waiting to be expanded in the next level
+    private final ConcurrentLinkedQueue<IntListKey> m_newStates = new ConcurrentLinkedQueue<>();
+    //steppers not currently in use by workers
+    private final ConcurrentLinkedQueue<NfaStepper<RESULT>> m_idleSteppers = new ConcurrentLinkedQueue<>();
+
+    //transitions for each discovered state, by discovery number
+    private final ArrayList<List<NfaTransition>> m_tempTransitions = new ArrayList<>();
+
+    private RawDfa<RESULT> m_dfa;
+
+    public ParallelDfaFromNfa(Nfa<RESULT> nfa, int[] nfaStartStates, DfaAmbiguityResolver<? super RESULT> ambiguityResolver, ForkJoinPool pool)
+    {
+        m_nfa = nfa;
+        m_nfaStartStates = nfaStartStates;
+        m_ambiguityResolver = ambiguityResolver;
+        m_pool = pool;
+        _build();
+    }
+
+    public RawDfa<RESULT> getDfa()
+    {
+        return m_dfa;
+    }
+
+    private void _build()
+    {
+        final NfaStepper<RESULT> stepper = new NfaStepper<>(m_nfa, m_ambiguityResolver);
+
+        //Create the DFA start states
+        final int[] tempStartStates = new int[m_nfaStartStates.length];
+        for(int i = 0; i<tempStartStates.length; ++i)
+        {
+            tempStartStates[i] = stepper.getDfaState(m_nfaStartStates[i], this::_getDfaState);
+        }
+        m_idleSteppers.add(stepper);
+
+        //Expand the states level by level
+        ArrayList<IntListKey> frontier = new ArrayList<>(m_newStates);
+        m_newStates.clear();
+        while(!frontier.isEmpty())
+        {
+            @SuppressWarnings("unchecked")
+            final List<NfaTransition>[] results = (List<NfaTransition>[])new List<?>[frontier.size()];
+            m_pool.invoke(new ExpandTask(frontier, results, 0, frontier.size()));
+            for (int i = 0; i < results.length; ++i)
+            {
+                int stateNum = m_dfaStateSignatureMap.get(frontier.get(i));
+                while (m_tempTransitions.size() <= stateNum)
+                {
+                    m_tempTransitions.add(null);
+                }
+                m_tempTransitions.set(stateNum, results[i]);
+            }
+            frontier = new ArrayList<>(m_newStates);
+            m_newStates.clear();
+        }
+
+        //Renumber the states in the order that DfaFromNfa would discover them
+        final int numStates = m_nextStateNum.get();
+        final IntListKey[] tempSignatures = new IntListKey[numStates];
+        for (Map.Entry<IntListKey, Integer> entry : m_dfaStateSignatureMap.entrySet())
+        {
+            tempSignatures[entry.getValue()] = entry.getKey();
+        }
+        final int[] newNumbers = new int[numStates];
+        Arrays.fill(newNumbers, -1);
+        final int[] order = new int[numStates];
+        int orderLen = 0;
+        final int[] dfaStartStates = new int[tempStartStates.length];
+        for(int i = 0; i<tempStartStates.length; ++i)
+        {
+            int st = tempStartStates[i];
+            if (newNumbers[st] < 0)
+            {
+                newNumbers[st] = orderLen;
+                order[orderLen++] = st;
+            }
+            dfaStartStates[i] = newNumbers[st];
+        }
+        final ArrayList<DfaStateInfo> dfaStates = new ArrayList<>(numStates);
+        final ArrayList<RESULT> acceptSets = new ArrayList<>();
+        final HashMap<RESULT,Integer> acceptSetMap = new HashMap<>();
+        final ArrayList<NfaTransition> newTransitions = new ArrayList<>();
+        acceptSets.add(null);
+        for (int i = 0; i < orderLen; ++i)
+        {
+            final int st = order[i];
+            newTransitions.clear();
+            for (NfaTransition trans : m_tempTransitions.get(st))
+            {
+                int target = trans.m_stateNum;
+                if (newNumbers[target] < 0)
+                {
+                    newNumbers[target] = orderLen;
+                    order[orderLen++] = target;
+                }
+                newTransitions.add(new NfaTransition(trans.m_firstChar, trans.m_lastChar, newNumbers[target]));
+            }
+            RESULT dfaAccept = stepper.getAccept(tempSignatures[st]);
+            int acceptSetIndex = 0;
+            if (dfaAccept != null)
+            {
+                acceptSetIndex = acceptSetMap.computeIfAbsent(dfaAccept, keyset -> {
+                    acceptSets.add(keyset);
+                    return acceptSets.size()-1;
+                });
+            }
+            dfaStates.add(new DfaStateInfo(newTransitions, acceptSetIndex));
+        }
+        m_dfa = new RawDfa<>(dfaStates, acceptSets, dfaStartStates);
+    }
+
+    //Get the state number for a signature, adding a new state if necessary.  Called concurrently.
+    private int _getDfaState(IntListKey stateSignature)
+    {
+        Integer dfaStateNum = m_dfaStateSignatureMap.get(stateSignature);
+        if (dfaStateNum == null)
+        {
+            IntListKey newSig = new IntListKey(stateSignature);
+            dfaStateNum = m_dfaStateSignatureMap.computeIfAbsent(newSig, sig -> {
+                m_newStates.add(sig);
+                return m_nextStateNum.getAndIncrement();
+            });
+        }
+        return dfaStateNum;
+    }
+
+    //Calculates the transitions for a range of states in the frontier
+    private class ExpandTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final List<IntListKey> m_frontier;
+        private final List<NfaTransition>[] m_results;
+        private final int m_start;
+        private final int m_end;
+
+        ExpandTask(List<IntListKey> frontier, List<NfaTransition>[] results, int start, int end)
+        {
+            m_frontier = frontier;
+            m_results = results;
+            m_start = start;
+            m_end = end;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (m_end - m_start > CHUNK_SIZE)
+            {
+                int mid = (m_start + m_end) >>> 1;
+                invokeAll(new ExpandTask(m_frontier, m_results, m_start, mid),
+                        new ExpandTask(m_frontier, m_results, mid, m_end));
+                return;
+            }
+            NfaStepper<RESULT> stepper = m_idleSteppers.poll();
+            if (stepper == null)
+            {
+                stepper = new NfaStepper<>(m_nfa, m_ambiguityResolver);
+            }
+            for (int i = m_start; i < m_end; ++i)
+            {
+                ArrayList<NfaTransition> transitions = new ArrayList<>();
+                stepper.getTransitions(m_frontier.get(i), ParallelDfaFromNfa.this::_getDfaState, transitions);
+                m_results[i] = transitions;
+            }
+            m_idleSteppers.add(stepper);
+        }
+    }
+}
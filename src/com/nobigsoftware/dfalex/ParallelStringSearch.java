@@ -0,0 +1,472 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Searches one large character sequence in parallel, for {@link StringSearcher#searchStringParallel(CharSequence, ForkJoinPool)}
+ * <P>
+ * The source is split into chunks, and the search is done in two parallel passes, each followed by a quick
+ * sequential pass that fixes up the chunk boundaries:
+ * <UL><LI>
+ * Each chunk is scanned backwards with the reverse finder, starting in its start state, to mark the
+ * positions where matches start.  The real reverse finder state at the end of a chunk depends on all the text
+ * after it, so the fixup pass rescans each chunk from its end with the real state, in lockstep with
+ * the speculative state, until they converge.  The reverse finder is a searching DFA, so this almost always happens
+ * within a few characters.
+ * </LI><LI>
+ * Each chunk then finds its leftmost-longest matches, assuming that the search resumes at the start of the chunk.
+ * The stitching pass walks the chunks in order, and when the previous chunk's last match runs past the start of a chunk,
+ * it rescans from the end of that match until it reaches a match start that the chunk also found.  From there on,
+ * the chunk's matches are the same as a sequential search would find.
+ * </LI></UL>
+ * The matches found are exactly the same as the ones found by {@link StringSearcher#searchString(CharSequence)}
+ */
+final class ParallelStringSearch<MR>
+{
+    static final int MIN_CHUNK_SIZE = 1<<16;
+
+    private final CharSequence m_src;
+    //if this is non-null, it has the characters of m_src, starting at m_arrayBase
+    private final char[] m_array;
+    private final int m_arrayBase;
+    private final int m_len;
+    private final DfaState<MR> m_matcher;
+    private final DfaState<?> m_reverseFinder;
+    //chunk i covers [i*m_chunkSize, min((i+1)*m_chunkSize, m_len)).  m_chunkSize is a multiple of 32,
+    //so chunks don't share mask words
+    private final int m_chunkSize;
+    private final int m_numChunks;
+    //bit i is set if a match starts at position i
+    private final int[] m_mask;
+
+    ParallelStringSearch(CharSequence src, char[] array, int arrayBase, int len,
+            DfaState<MR> matcher, DfaState<?> reverseFinder, int parallelism)
+    {
+        m_src = src;
+        m_array = array;
+        m_arrayBase = arrayBase;
+        m_len = len;
+        m_matcher = matcher;
+        m_reverseFinder = reverseFinder;
+        //a few chunks per thread, for load balancing
+        long chunkSize = ((long)len + parallelism*4 - 1) / (parallelism*4);
+        chunkSize = (Math.max(chunkSize, MIN_CHUNK_SIZE) + 31) & ~31L;
+        m_chunkSize = (int)chunkSize;
+        m_numChunks = (int)((len + chunkSize - 1) / chunkSize);
+        m_mask = new int[(len+31)>>5];
+    }
+
+    /**
+     * Do the search
+     *
+     * @param pool the pool to run the chunks in
+     * @return an iterator over the matches found
+     */
+    StringMatchIterator<MR> search(ForkJoinPool pool)
+    {
+        //find match start positions
+        final DfaState<?>[] specStates = new DfaState<?>[m_numChunks];
+        pool.invoke(new ChunkTask(0, m_numChunks, chunk -> specStates[chunk] = _markStarts(chunk)));
+        _fixStarts(specStates);
+
+        //find matches in each chunk
+        @SuppressWarnings("unchecked")
+        final MatchList<MR>[] chunkMatches = (MatchList<MR>[])new MatchList<?>[m_numChunks];
+        pool.invoke(new ChunkTask(0, m_numChunks, chunk -> chunkMatches[chunk] = _findMatches(chunk)));
+        return new ParallelIterator(_stitch(chunkMatches));
+    }
+
+    //Run the reverse finder backwards over a chunk, from its start state, and mark match starts.
+    //Return the state at the start of the chunk
+    private DfaState<?> _markStarts(int chunk)
+    {
+        final int chunkStart = chunk*m_chunkSize;
+        DfaState<?> state = m_reverseFinder;
+        for (int pos = Math.min(chunkStart + m_chunkSize, m_len) - 1; pos >= chunkStart; --pos)
+        {
+            state = state.getNextState(_charAt(pos));
+            if (state == null)
+            {
+                break;
+            }
+            if (state.getMatch() != null)
+            {
+                m_mask[pos>>5] |= 1<<(pos&31);
+            }
+        }
+        return state;
+    }
+
+    //Correct the match starts near the end of each chunk, where the reverse finder was
+    //started in the wrong state
+    private void _fixStarts(DfaState<?>[] specStates)
+    {
+        //real state at the end of the current chunk
+        DfaState<?> realState = m_reverseFinder;
+        for (int chunk = m_numChunks-1; chunk >= 0; --chunk)
+        {
+            if (realState == m_reverseFinder)
+            {
+                //speculation was right
+                realState = specStates[chunk];
+                continue;
+            }
+            final int chunkStart = chunk*m_chunkSize;
+            DfaState<?> specState = m_reverseFinder;
+            int pos = Math.min(chunkStart + m_chunkSize, m_len) - 1;
+            for (; pos >= chunkStart && realState != specState; --pos)
+            {
+                realState = (realState == null ? null : realState.getNextState(_charAt(pos)));
+                specState = (specState == null ? null : specState.getNextState(_charAt(pos)));
+                if (realState != null && realState.getMatch() != null)
+                {
+                    m_mask[pos>>5] |= 1<<(pos&31);
+                }
+                else
+                {
+                    m_mask[pos>>5] &= ~(1<<(pos&31));
+                }
+            }
+            if (realState == specState)
+            {
+                //converged
+                realState = specStates[chunk];
+            }
+        }
+    }
+
+    //Find matches that start in a chunk, assuming the search resumes at the start of the chunk
+    private MatchList<MR> _findMatches(int chunk)
+    {
+        final int chunkStart = chunk*m_chunkSize;
+        final int chunkEnd = Math.min(chunkStart + m_chunkSize, m_len);
+        final MatchList<MR> ret = new MatchList<>();
+        for (int pos = chunkStart; ;)
+        {
+            final int start = _nextStart(pos, chunkEnd);
+            if (start < 0)
+            {
+                break;
+            }
+            pos = _addLongestMatch(ret, start);
+        }
+        return ret;
+    }
+
+    //Join the matches from all the chunks into the list that a sequential search would find
+    private MatchList<MR> _stitch(MatchList<MR>[] chunkMatches)
+    {
+        MatchList<MR> ret = new MatchList<>();
+        //position where the search resumes
+        int pos = 0;
+        for (int chunk = 0; chunk < m_numChunks; ++chunk)
+        {
+            final int chunkEnd = Math.min((chunk+1)*m_chunkSize, m_len);
+            final MatchList<MR> spec = chunkMatches[chunk];
+            for (;;)
+            {
+                final int start = _nextStart(pos, chunkEnd);
+                if (start < 0)
+                {
+                    break;
+                }
+                final int i = Arrays.binarySearch(spec.m_starts, 0, spec.m_size, start);
+                if (i >= 0)
+                {
+                    //back in sync
+                    ret.addAll(spec, i);
+                    pos = ret.m_ends[ret.m_size-1];
+                    break;
+                }
+                pos = _addLongestMatch(ret, start);
+            }
+        }
+        return ret;
+    }
+
+    //find the next match start in [pos, limit), or -1 if there isn't one
+    private int _nextStart(int pos, int limit)
+    {
+        while (pos < limit)
+        {
+            int wi = pos>>5;
+            int bits = m_mask[wi] & (-1<<(pos&31));
+            if (bits != 0)
+            {
+                pos = (wi<<5) + BitUtils.lowBitIndex(bits);
+                return (pos < limit ? pos : -1);
+            }
+            pos = (wi+1)<<5;
+        }
+        return -1;
+    }
+
+    //add the longest match at start to the list, and return the position where the search resumes
+    private int _addLongestMatch(MatchList<MR> dest, int start)
+    {
+        DfaState<MR> st = m_matcher;
+        MR result = null;
+        int end = start;
+        for (int pos = start; pos < m_len;)
+        {
+            st = st.getNextState(_charAt(pos++));
+            if (st == null)
+            {
+                break;
+            }
+            MR match = st.getMatch();
+            if (match != null)
+            {
+                result = match;
+                end = pos;
+            }
+        }
+        if (result == null)
+        {
+            //shouldn't happen if the reverse finder is accurate
+            return start+1;
+        }
+        dest.add(start, end, result);
+        return end;
+    }
+
+    private char _charAt(int pos)
+    {
+        return (m_array != null ? m_array[m_arrayBase+pos] : m_src.charAt(pos));
+    }
+
+    private static class MatchList<MR>
+    {
+        int[] m_starts = new int[16];
+        int[] m_ends = new int[16];
+        Object[] m_results = new Object[16];
+        int m_size = 0;
+
+        void add(int start, int end, MR result)
+        {
+            if (m_size >= m_starts.length)
+            {
+                int newLen = m_size*2;
+                m_starts = Arrays.copyOf(m_starts, newLen);
+                m_ends = Arrays.copyOf(m_ends, newLen);
+                m_results = Arrays.copyOf(m_results, newLen);
+            }
+            m_starts[m_size] = start;
+            m_ends[m_size] = end;
+            m_results[m_size] = result;
+            ++m_size;
+        }
+
+        @SuppressWarnings("unchecked")
+        void addAll(MatchList<MR> src, int from)
+        {
+            for (int i = from; i < src.m_size; ++i)
+            {
+                add(src.m_starts[i], src.m_ends[i], (MR)src.m_results[i]);
+            }
+        }
+    }
+
+    private static class ChunkTask extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1L;
+
+        private final int m_start;
+        private final int m_end;
+        private final IntConsumer m_body;
+
+        ChunkTask(int start, int end, IntConsumer body)
+        {
+            m_start = start;
+            m_end = end;
+            m_body = body;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (m_end - m_start > 1)
+            {
+                int mid = (m_start + m_end) >>> 1;
+                invokeAll(new ChunkTask(m_start, mid, m_body), new ChunkTask(mid, m_end, m_body));
+                return;
+            }
+            m_body.accept(m_start);
+        }
+    }
+
+    //Iterates through the stitched matches.  After a reposition, we search
+    //sequentially until we get back in sync with the list
+    private class ParallelIterator implements StringMatchIterator<MR>
+    {
+        private final MatchList<MR> m_matches;
+        private final MatchList<MR> m_temp = new MatchList<>();
+        //index of the next match in m_matches, or -1 if the next match is in m_temp
+        private int m_nextIndex;
+        private int m_nextPos;
+        private int m_nextEnd;
+        private MR m_nextResult;
+        private int m_prevPos;
+        private int m_prevEnd;
+        private MR m_prevResult;
+        private String m_prevString;
+
+        ParallelIterator(MatchList<MR> matches)
+        {
+            m_matches = matches;
+            _setFromList(0);
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return (m_nextResult != null);
+        }
+
+        @Override
+        public MR next()
+        {
+            if (m_nextResult == null)
+            {
+                throw new NoSuchElementException();
+            }
+            m_prevPos = m_nextPos;
+            m_prevEnd = m_nextEnd;
+            m_prevResult = m_nextResult;
+            m_prevString = null;
+            if (m_nextIndex >= 0)
+            {
+                _setFromList(m_nextIndex+1);
+            }
+            else
+            {
+                _resync(m_prevEnd);
+            }
+            return m_prevResult;
+        }
+
+        @Override
+        public int matchStartPosition()
+        {
+            if (m_prevResult == null)
+            {
+                throw new IllegalStateException();
+            }
+            return m_prevPos;
+        }
+
+        @Override
+        public int matchEndPosition()
+        {
+            if (m_prevResult == null)
+            {
+                throw new IllegalStateException();
+            }
+            return m_prevEnd;
+        }
+
+        @Override
+        public String matchValue()
+        {
+            if (m_prevString == null)
+            {
+                if (m_prevResult == null)
+                {
+                    throw new IllegalStateException();
+                }
+                if (m_array != null)
+                {
+                    m_prevString = new String(m_array, m_arrayBase + m_prevPos, m_prevEnd - m_prevPos);
+                }
+                else
+                {
+                    m_prevString = m_src.subSequence(m_prevPos, m_prevEnd).toString();
+                }
+            }
+            return m_prevString;
+        }
+
+        @Override
+        public MR matchResult()
+        {
+            if (m_prevResult == null)
+            {
+                throw new IllegalStateException();
+            }
+            return m_prevResult;
+        }
+
+        @Override
+        public boolean reposition(int pos)
+        {
+            _resync(pos);
+            return (m_nextResult != null);
+        }
+
+        @SuppressWarnings("unchecked")
+        private void _setFromList(int index)
+        {
+            if (index >= m_matches.m_size)
+            {
+                m_nextIndex = m_matches.m_size;
+                m_nextResult = null;
+                return;
+            }
+            m_nextIndex = index;
+            m_nextPos = m_matches.m_starts[index];
+            m_nextEnd = m_matches.m_ends[index];
+            m_nextResult = (MR)m_matches.m_results[index];
+        }
+
+        //find the next match when the search resumes at pos
+        @SuppressWarnings("unchecked")
+        private void _resync(int pos)
+        {
+            for (;;)
+            {
+                final int start = _nextStart(pos, m_len);
+                if (start < 0)
+                {
+                    m_nextIndex = m_matches.m_size;
+                    m_nextResult = null;
+                    return;
+                }
+                final int i = Arrays.binarySearch(m_matches.m_starts, 0, m_matches.m_size, start);
+                if (i >= 0)
+                {
+                    _setFromList(i);
+                    return;
+                }
+                m_temp.m_size = 0;
+                pos = _addLongestMatch(m_temp, start);
+                if (m_temp.m_size > 0)
+                {
+                    m_nextIndex = -1;
+                    m_nextPos = start;
+                    m_nextEnd = m_temp.m_ends[0];
+                    m_nextResult = (MR)m_temp.m_results[0];
+                    return;
+                }
+            }
+        }
+    }
+}
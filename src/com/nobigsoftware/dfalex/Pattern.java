@@ -17,6 +17,9 @@ package com.nobigsoftware.dfalex;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
  * A Pattern represents a set of strings.  A string in the set is said to
@@ -542,6 +545,18 @@ public abstract class Pattern implements Matchable
     }
 	
 	protected abstract Pattern calcReverse();
+	
+	/**
+	 * Get literal strings that matches for this pattern must contain
+	 * <P>
+	 * These are used to build prefilters that let {@link StringSearcher} skip over input that can't match
+	 * 
+	 * @return the required literals.  The default implementation returns {@link RequiredLiterals#NONE}
+	 */
+	RequiredLiterals getRequiredLiterals()
+	{
+	    return RequiredLiterals.NONE;
+	}
 
 
     private static class CatPattern extends Pattern
@@ -614,6 +629,11 @@ public abstract class Pattern implements Matchable
         {
             return new CatPattern(m_then.getReversed(), m_first.getReversed());
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            return RequiredLiterals.cat(RequiredLiterals.forMatchable(m_first), RequiredLiterals.forMatchable(m_then));
+        }
 	}
     private static class WrapPattern extends Pattern
     {
@@ -668,6 +688,11 @@ public abstract class Pattern implements Matchable
                 return new WrapPattern(revmatch);
             }
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            return RequiredLiterals.forMatchable(m_tomatch);
+        }
     }
     
     private static class EmptyPattern extends Pattern
@@ -718,6 +743,11 @@ public abstract class Pattern implements Matchable
         {
             return this;
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            return RequiredLiterals.EMPTY_STRING;
+        }
     }
     
 	private static class StringPattern extends Pattern
@@ -779,6 +809,11 @@ public abstract class Pattern implements Matchable
                 return new StringPattern((new StringBuilder(m_tomatch)).reverse().toString());
             }
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            return RequiredLiterals.exactly(Collections.singleton(m_tomatch));
+        }
 	}
     private static class StringIPattern extends Pattern
     {
@@ -849,6 +884,22 @@ public abstract class Pattern implements Matchable
                 return new StringIPattern((new StringBuilder(m_tomatch)).reverse().toString());
             }
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            //all the case variants, if there aren't too many
+            RequiredLiterals ret = RequiredLiterals.EMPTY_STRING;
+            for (int i=0; i<m_tomatch.length(); ++i)
+            {
+                char c = m_tomatch.charAt(i);
+                Set<String> variants = new LinkedHashSet<>();
+                variants.add(String.valueOf(c));
+                variants.add(String.valueOf(Character.toLowerCase(c)));
+                variants.add(String.valueOf(Character.toUpperCase(c)));
+                ret = RequiredLiterals.cat(ret, RequiredLiterals.exactly(variants));
+            }
+            return ret;
+        }
     }
 	private static class RepeatingPattern extends Pattern
 	{
@@ -916,6 +967,12 @@ public abstract class Pattern implements Matchable
                 return new RepeatingPattern(revpat, m_needAtLeastOne);
             }
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            RequiredLiterals lits = RequiredLiterals.forMatchable(m_pattern);
+            return (m_needAtLeastOne ? lits.repeated() : lits.repeated().orEmpty());
+        }
 	}
 	private static class OptionalPattern extends Pattern
 	{
@@ -978,6 +1035,11 @@ public abstract class Pattern implements Matchable
                 return new OptionalPattern(revpat);
             }
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            return RequiredLiterals.forMatchable(m_pattern).orEmpty();
+        }
 	}
 	private static class UnionPattern extends Pattern
 	{
@@ -1089,5 +1151,15 @@ public abstract class Pattern implements Matchable
             }
             return ret;
         }
+        @Override
+        RequiredLiterals getRequiredLiterals()
+        {
+            RequiredLiterals[] choices = new RequiredLiterals[m_choices.length];
+            for (int i=0; i<choices.length; ++i)
+            {
+                choices[i] = RequiredLiterals.forMatchable(m_choices[i]);
+            }
+            return RequiredLiterals.union(choices);
+        }
 	}
 }
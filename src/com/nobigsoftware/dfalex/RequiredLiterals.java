@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Literal strings that matches for a pattern must contain, used to build a {@link LiteralPrefilter}
+ * <P>
+ * Patterns calculate these with {@link Pattern#getRequiredLiterals()}.  For patterns that match only a few
+ * strings, we keep the exact set of strings.  Otherwise we keep sets of strings that every match must start
+ * with, end with, and contain, so that the literal parts of concatenated patterns can be joined together.
+ * Sets are chosen to make their strings as long and as few as possible.
+ * <P>
+ * Instances of this class are immutable.
+ */
+final class RequiredLiterals
+{
+    //the maximum number of strings we keep in a set
+    static final int MAX_STRINGS = 64;
+
+    static final RequiredLiterals NONE = new RequiredLiterals(null, null, null, null);
+
+    static final RequiredLiterals EMPTY_STRING = exactly(Collections.singleton(""));
+
+    //if non-null, every match is one of these
+    private final Set<String> m_exact;
+    //if non-null, every match starts with one of these
+    private final Set<String> m_prefixes;
+    //if non-null, every match ends with one of these
+    private final Set<String> m_suffixes;
+    //if non-null, every match contains at least one of these
+    private final Set<String> m_required;
+
+    private RequiredLiterals(Set<String> exact, Set<String> prefixes, Set<String> suffixes, Set<String> required)
+    {
+        m_exact = exact;
+        m_prefixes = (exact != null ? exact : prefixes);
+        m_suffixes = (exact != null ? exact : suffixes);
+        m_required = required;
+    }
+
+    /**
+     * Get the literals for a pattern that matches exactly the given strings
+     *
+     * @param strings the strings
+     * @return the literals
+     */
+    static RequiredLiterals exactly(Set<String> strings)
+    {
+        if (strings == null || strings.size() > MAX_STRINGS)
+        {
+            return NONE;
+        }
+        return new RequiredLiterals(strings, null, null, null);
+    }
+
+    /**
+     * Get the literals for any {@link Matchable}
+     *
+     * @param pat the pattern
+     * @return the literals required by pat
+     */
+    static RequiredLiterals forMatchable(Matchable pat)
+    {
+        if (pat instanceof Pattern)
+        {
+            return ((Pattern)pat).getRequiredLiterals();
+        }
+        if (pat instanceof CharRange)
+        {
+            String chars = ((CharRange)pat).getChars(MAX_STRINGS);
+            if (chars == null)
+            {
+                return NONE;
+            }
+            Set<String> exact = new LinkedHashSet<>();
+            for (int i = 0; i < chars.length(); ++i)
+            {
+                exact.add(chars.substring(i, i+1));
+            }
+            return exactly(exact);
+        }
+        return NONE;
+    }
+
+    /**
+     * Get the literals for the concatenation of two patterns
+     *
+     * @param first the literals for the first pattern
+     * @param then the literals for the pattern that follows it
+     * @return the literals for the concatenation
+     */
+    static RequiredLiterals cat(RequiredLiterals first, RequiredLiterals then)
+    {
+        Set<String> exact = _product(first.m_exact, then.m_exact);
+        if (exact != null)
+        {
+            return new RequiredLiterals(exact, null, null, null);
+        }
+        Set<String> prefixes = first.m_prefixes;
+        if (first.m_exact != null)
+        {
+            Set<String> longer = _product(first.m_exact, then.m_prefixes);
+            if (longer != null)
+            {
+                prefixes = longer;
+            }
+        }
+        Set<String> suffixes = then.m_suffixes;
+        if (then.m_exact != null)
+        {
+            Set<String> longer = _product(first.m_suffixes, then.m_exact);
+            if (longer != null)
+            {
+                suffixes = longer;
+            }
+        }
+        Set<String> required = _better(first.getRequired(), then.getRequired());
+        required = _better(required, _product(first.m_suffixes, then.m_prefixes));
+        return new RequiredLiterals(null, prefixes, suffixes, required);
+    }
+
+    /**
+     * Get the literals for the union of patterns
+     *
+     * @param choices the literals for the patterns
+     * @return the literals for the union
+     */
+    static RequiredLiterals union(RequiredLiterals[] choices)
+    {
+        Set<String> exact = new LinkedHashSet<>();
+        Set<String> prefixes = new LinkedHashSet<>();
+        Set<String> suffixes = new LinkedHashSet<>();
+        Set<String> required = new LinkedHashSet<>();
+        for (RequiredLiterals choice : choices)
+        {
+            exact = _addAll(exact, choice.m_exact);
+            prefixes = _addAll(prefixes, choice.m_prefixes);
+            suffixes = _addAll(suffixes, choice.m_suffixes);
+            required = _addAll(required, choice.getRequired());
+        }
+        if (exact != null)
+        {
+            return new RequiredLiterals(exact, null, null, null);
+        }
+        return new RequiredLiterals(null, prefixes, suffixes, required);
+    }
+
+    /**
+     * Get the literals for a pattern that matches this one's strings, or the empty string
+     *
+     * @return the literals for the optional pattern
+     */
+    RequiredLiterals orEmpty()
+    {
+        return union(new RequiredLiterals[] {this, EMPTY_STRING});
+    }
+
+    /**
+     * Get the literals for one or more repetitions of this pattern
+     *
+     * @return the literals for the repeating pattern
+     */
+    RequiredLiterals repeated()
+    {
+        return new RequiredLiterals(null, m_prefixes, m_suffixes, getRequired());
+    }
+
+    /**
+     * Get a set of non-empty strings, such that every match contains at least one of them
+     *
+     * @return the set of strings, or null if there is no such set
+     */
+    Set<String> getRequired()
+    {
+        Set<String> ret = _better(m_required, m_exact);
+        ret = _better(ret, m_prefixes);
+        ret = _better(ret, m_suffixes);
+        return (_minLength(ret) > 0 ? ret : null);
+    }
+
+    //add strings to a set, returning null if there are too many or strings is null
+    private static Set<String> _addAll(Set<String> set, Set<String> strings)
+    {
+        if (set == null || strings == null)
+        {
+            return null;
+        }
+        set.addAll(strings);
+        return (set.size() <= MAX_STRINGS ? set : null);
+    }
+
+    //all concatenations of a string from a with a string from b, or null if there would be too many
+    private static Set<String> _product(Set<String> a, Set<String> b)
+    {
+        if (a == null || b == null || a.size() * b.size() > MAX_STRINGS)
+        {
+            return null;
+        }
+        Set<String> ret = new LinkedHashSet<>();
+        for (String sa : a)
+        {
+            for (String sb : b)
+            {
+                ret.add(sa+sb);
+            }
+        }
+        return ret;
+    }
+
+    //the better of two requirements: longer strings, and then fewer of them
+    private static Set<String> _better(Set<String> a, Set<String> b)
+    {
+        int alen = _minLength(a);
+        int blen = _minLength(b);
+        if (alen != blen)
+        {
+            return (alen > blen ? a : b);
+        }
+        return (b != null && (a == null || b.size() < a.size()) ? b : a);
+    }
+
+    //the length of the shortest string, or 0 if strings is null or empty
+    private static int _minLength(Set<String> strings)
+    {
+        if (strings == null || strings.isEmpty())
+        {
+            return 0;
+        }
+        int ret = Integer.MAX_VALUE;
+        for (String s : strings)
+        {
+            ret = Math.min(ret, s.length());
+        }
+        return ret;
+    }
+}
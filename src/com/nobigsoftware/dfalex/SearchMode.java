@@ -0,0 +1,50 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * The ways that a {@link StringSearcher} can find the places where matches start
+ * <P>
+ * All modes find exactly the same matches.  They differ only in speed.
+ * <P>
+ * See {@link DfaBuilder#buildStringSearcher(DfaAmbiguityResolver, SearchMode)}
+ */
+public enum SearchMode
+{
+    /**
+     * A reverse finder DFA is run backwards over the whole input to mark every position where
+     * a match starts, and then the matches are found by running the matching DFA forward from the
+     * marked positions.  Search time is always linear in the length of the input, and this is the
+     * default.
+     */
+    REVERSE_FINDER,
+
+    /**
+     * A forward finder DFA is run forward from the current search position to find where the
+     * next match ends.  The start of that match is found by trying the matching DFA at each
+     * position before the end, and then the search continues from the end of the match.
+     * Input that matches is usually read only once or twice, instead of at least twice,
+     * so this is faster for inputs with dense matches.  When matches can be arbitrarily long,
+     * however, search time can be quadratic in the length of the input.
+     */
+    FORWARD_FINDER,
+
+    /**
+     * Use {@link #FORWARD_FINDER} if all the patterns have bounded match lengths, so that search
+     * time is guaranteed to be linear, and {@link #REVERSE_FINDER} otherwise
+     */
+    AUTO
+}
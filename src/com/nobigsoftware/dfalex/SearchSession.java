@@ -0,0 +1,406 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.nio.CharBuffer;
+import java.util.List;
+import java.util.function.ToIntFunction;
+
+/**
+ * Searches many strings with a {@link StringSearcher}, writing the matches into caller-provided arrays
+ * <P>
+ * A session keeps the scratch space that a search needs, and reuses it for every search, so searching
+ * doesn't allocate any memory once the scratch space has grown to fit the longest input.  This is the
+ * fastest way to search large numbers of short strings.
+ * <P>
+ * Matches are either written into arrays, with results reported as integer IDs provided by a function
+ * supplied when the session is created, or passed to a {@link MatchVisitor}.
+ * <P>
+ * NOTE: Instances of this class are NOT thread-safe.  Use a separate session in each thread.
+ * Get one from {@link StringSearcher#newSession(ToIntFunction)}.
+ *
+ * @param MATCHRESULT The type of result associated with the patterns being searched for
+ */
+public class SearchSession<MATCHRESULT>
+{
+    private final DfaState<MATCHRESULT> m_matcher;
+    private final DfaState<?> m_reverseFinder;
+    private final DfaState<?> m_forwardFinder;
+    //characters that take the reverse finder out of its start state
+    private final FirstCharFilter m_skipFilter;
+    //non-null in SearchMode.FORWARD_FINDER mode
+    private final ForwardFinderSearch<MATCHRESULT> m_forwardSearch;
+    //if non-null, finds literals that occur in every match
+    private final LiteralPrefilter m_prefilter;
+    private final ToIntFunction<? super MATCHRESULT> m_resultIds;
+    //bit mask of the positions where matches start
+    private int[] m_mask = new int[8];
+    //reused for the array output methods
+    private final ArrayWriter m_arrayWriter = new ArrayWriter();
+    //true while a search is running, so that searches started by visitors can be detected
+    private boolean m_busy;
+
+    SearchSession(DfaState<MATCHRESULT> matcher, DfaState<?> reverseFinder, DfaState<?> forwardFinder,
+            LiteralPrefilter prefilter, ToIntFunction<? super MATCHRESULT> resultIds)
+    {
+        m_prefilter = prefilter;
+        m_forwardSearch = (forwardFinder == null ? null : new ForwardFinderSearch<>(matcher, forwardFinder));
+        m_matcher = matcher;
+        m_reverseFinder = reverseFinder;
+        m_forwardFinder = forwardFinder;
+        m_skipFilter = (reverseFinder == null ? null : reverseFinder.getFirstCharFilter(true));
+        m_resultIds = resultIds;
+    }
+
+    /**
+     * Find all the (non-overlapping) matches in a character sequence
+     * <P>
+     * The matches found are the same as the ones found by {@link StringSearcher#searchString(CharSequence)}.
+     * The start position, end position, and result ID of each match are written into the corresponding
+     * positions of starts, ends, and resultIds, starting at destPos.  If there are more matches than fit in the
+     * arrays, then only the first ones are written, but they are all counted in the return value.
+     *
+     * @param src character sequence to search.  If it is a {@link CharBuffer} with an accessible array,
+     *      then the array is searched directly.
+     * @param starts match start positions are written here
+     * @param ends match end positions are written here
+     * @param resultIds match result IDs are written here
+     * @param destPos the position in the arrays at which to write the first match
+     * @return the number of matches found
+     */
+    public int search(CharSequence src, int[] starts, int[] ends, int[] resultIds, int destPos)
+    {
+        if (src instanceof CharBuffer)
+        {
+            CharBuffer buf = (CharBuffer)src;
+            if (buf.hasArray())
+            {
+                return _search(src, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(),
+                        m_arrayWriter.init(starts, ends, resultIds, destPos));
+            }
+        }
+        return _search(src, null, 0, src.length(), m_arrayWriter.init(starts, ends, resultIds, destPos));
+    }
+
+    /**
+     * Find all the (non-overlapping) matches in a range of a character array
+     * <P>
+     * This is the same as {@link #search(CharSequence, int[], int[], int[], int)}, except that the positions
+     * written are relative to offset.
+     *
+     * @param src   array containing the characters to search
+     * @param offset    the position of the first character to search in src
+     * @param length    the number of characters to search
+     * @param starts match start positions are written here
+     * @param ends match end positions are written here
+     * @param resultIds match result IDs are written here
+     * @param destPos the position in the arrays at which to write the first match
+     * @return the number of matches found
+     * @throws IndexOutOfBoundsException if the range is not within src
+     */
+    public int search(char[] src, int offset, int length, int[] starts, int[] ends, int[] resultIds, int destPos)
+    {
+        if (offset < 0 || length < 0 || length > src.length - offset)
+        {
+            throw new IndexOutOfBoundsException();
+        }
+        return _search(null, src, offset, length, m_arrayWriter.init(starts, ends, resultIds, destPos));
+    }
+
+    /**
+     * Find all the (non-overlapping) matches in a batch of character sequences
+     * <P>
+     * Each input is searched as if by {@link #search(CharSequence, int[], int[], int[], int)}, and the matches for
+     * all inputs are written consecutively into the arrays, starting at position 0.  The number of matches found
+     * in inputs.get(i) is written to matchCounts[i].  If there are more matches than fit in the arrays, then only the
+     * first ones are written, but they are all counted.
+     *
+     * @param inputs the character sequences to search
+     * @param matchCounts the number of matches found in each input is written here
+     * @param starts match start positions are written here
+     * @param ends match end positions are written here
+     * @param resultIds match result IDs are written here
+     * @return the total number of matches found
+     */
+    public int searchAll(List<? extends CharSequence> inputs, int[] matchCounts, int[] starts, int[] ends, int[] resultIds)
+    {
+        int total = 0;
+        final int n = inputs.size();
+        for (int i = 0; i < n; ++i)
+        {
+            int count = search(inputs.get(i), starts, ends, resultIds, total);
+            matchCounts[i] = count;
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Find all the (non-overlapping) matches in a character sequence, and pass them to a visitor
+     * <P>
+     * The matches found are the same as the ones found by {@link StringSearcher#searchString(CharSequence)}.
+     * The visitor can skip ahead or back by returning a new search position, or stop the search.
+     * <P>
+     * The visitor may start another search with this session.  The nested search gets its own scratch
+     * space, so it doesn't disturb the one in progress.
+     *
+     * @param src character sequence to search.  If it is a {@link CharBuffer} with an accessible array,
+     *      then the array is searched directly.
+     * @param visitor each match is passed to this visitor
+     * @return the number of matches passed to the visitor
+     */
+    public int search(CharSequence src, MatchVisitor<? super MATCHRESULT> visitor)
+    {
+        if (src instanceof CharBuffer)
+        {
+            CharBuffer buf = (CharBuffer)src;
+            if (buf.hasArray())
+            {
+                return _search(src, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), visitor);
+            }
+        }
+        return _search(src, null, 0, src.length(), visitor);
+    }
+
+    /**
+     * Discard scratch space that has grown large enough to fit more than maxChars of input
+     * 
+     * @param maxChars the longest input that retained scratch space may fit
+     */
+    void trimScratchSpace(int maxChars)
+    {
+        if (!m_busy && m_mask.length > ((maxChars+31)>>5))
+        {
+            m_mask = new int[8];
+        }
+    }
+
+    //If array is non-null, it contains the characters to search, starting at base.  Otherwise they're in src
+    private int _search(CharSequence src, char[] array, int base, int len, MatchVisitor<? super MATCHRESULT> visitor)
+    {
+        if (m_busy)
+        {
+            //a visitor is searching from inside one of our searches.  Our scratch space is in use
+            return new SearchSession<>(m_matcher, m_reverseFinder, m_forwardFinder, m_prefilter, m_resultIds)
+                    ._search(src, array, base, len, visitor);
+        }
+        m_busy = true;
+        try
+        {
+            return _searchImpl(src, array, base, len, visitor);
+        }
+        finally
+        {
+            m_busy = false;
+        }
+    }
+
+    private int _searchImpl(CharSequence src, char[] array, int base, int len, MatchVisitor<? super MATCHRESULT> visitor)
+    {
+        if (m_prefilter != null && !m_prefilter.occursIn(src, array, base, len))
+        {
+            return 0;
+        }
+        if (m_forwardSearch != null)
+        {
+            return _searchForward(src, array, base, len, visitor);
+        }
+        if (m_reverseFinder == null || len <= 0)
+        {
+            return 0;
+        }
+        //mark the positions where matches start
+        final int maskLen = (len+31)>>5;
+        if (m_mask.length < maskLen)
+        {
+            m_mask = new int[Math.max(maskLen, m_mask.length*2)];
+        }
+        final int[] mask = m_mask;
+        boolean found = false;
+        final DfaState<?> startState = m_reverseFinder;
+        final FirstCharFilter skipFilter = m_skipFilter;
+        DfaState<?> finderState = startState;
+        for (int w = maskLen-1; w >= 0; --w)
+        {
+            int bits = 0;
+            for (int pos = Math.min((w<<5)+32, len)-1; pos >= (w<<5); --pos)
+            {
+                if (finderState == startState)
+                {
+                    //skip over characters that would leave us in the start state
+                    pos = skipFilter.skipBack(src, array, base, pos+1, w<<5) - 1;
+                    if (pos < (w<<5))
+                    {
+                        break;
+                    }
+                }
+                finderState = finderState.getNextState(array != null ? array[base+pos] : src.charAt(pos));
+                if (finderState == null)
+                {
+                    break;
+                }
+                if (finderState.getMatch() != null)
+                {
+                    bits |= 1<<(pos&31);
+                }
+            }
+            mask[w] = bits;
+            found |= (bits != 0);
+            if (finderState == null)
+            {
+                for (--w; w >= 0; --w)
+                {
+                    mask[w] = 0;
+                }
+                break;
+            }
+        }
+        if (!found)
+        {
+            return 0;
+        }
+
+        //find the longest match at each start position
+        int count = 0;
+        int pos = 0;
+        while (pos < len)
+        {
+            int wi = pos>>5;
+            int bits = mask[wi] & (-1<<(pos&31));
+            if (bits == 0)
+            {
+                pos = (wi+1)<<5;
+                continue;
+            }
+            final int start = (wi<<5) + BitUtils.lowBitIndex(bits);
+            DfaState<MATCHRESULT> st = m_matcher;
+            MATCHRESULT result = null;
+            int end = start;
+            for (int i = start; i < len;)
+            {
+                st = st.getNextState(array != null ? array[base+i] : src.charAt(i));
+                ++i;
+                if (st == null)
+                {
+                    break;
+                }
+                MATCHRESULT match = st.getMatch();
+                if (match != null)
+                {
+                    result = match;
+                    end = i;
+                }
+            }
+            if (result == null)
+            {
+                //shouldn't happen if the reverse finder is accurate
+                pos = start+1;
+                continue;
+            }
+            ++count;
+            final int next = visitor.visit(result, start, end);
+            if (next < 0)
+            {
+                break;
+            }
+            if (next == 0)
+            {
+                pos = end;
+            }
+            else if (next <= start)
+            {
+                throw new IndexOutOfBoundsException("Visitor tried to rescan matched string");
+            }
+            else
+            {
+                pos = next;
+            }
+        }
+        return count;
+    }
+
+    private int _searchForward(CharSequence src, char[] array, int base, int len, MatchVisitor<? super MATCHRESULT> visitor)
+    {
+        final ForwardFinderSearch<MATCHRESULT> search = m_forwardSearch.reset(src, array, base, len);
+        int count = 0;
+        int pos = 0;
+        try
+        {
+            while (search.find(pos))
+            {
+                final int start = search.getMatchStart();
+                final int end = search.getMatchEnd();
+                ++count;
+                final int next = visitor.visit(search.getMatchResult(), start, end);
+                if (next < 0)
+                {
+                    break;
+                }
+                if (next == 0)
+                {
+                    pos = end;
+                }
+                else if (next <= start)
+                {
+                    throw new IndexOutOfBoundsException("Visitor tried to rescan matched string");
+                }
+                else
+                {
+                    pos = next;
+                }
+            }
+        }
+        finally
+        {
+            //don't hold on to the source
+            search.reset(null, null, 0, 0);
+        }
+        return count;
+    }
+
+    //Writes matches into the caller's arrays
+    private class ArrayWriter implements MatchVisitor<MATCHRESULT>
+    {
+        private int[] m_starts;
+        private int[] m_ends;
+        private int[] m_ids;
+        private int m_nextPos;
+        private int m_endPos;
+
+        ArrayWriter init(int[] starts, int[] ends, int[] resultIds, int destPos)
+        {
+            m_starts = starts;
+            m_ends = ends;
+            m_ids = resultIds;
+            m_nextPos = destPos;
+            m_endPos = Math.min(starts.length, Math.min(ends.length, resultIds.length));
+            return this;
+        }
+
+        @Override
+        public int visit(MATCHRESULT result, int startPos, int endPos)
+        {
+            if (m_nextPos < m_endPos)
+            {
+                m_starts[m_nextPos] = startPos;
+                m_ends[m_nextPos] = endPos;
+                m_ids[m_nextPos] = m_resultIds.applyAsInt(result);
+            }
+            ++m_nextPos;
+            return 0;
+        }
+    }
+}
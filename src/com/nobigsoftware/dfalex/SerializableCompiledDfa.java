@@ -0,0 +1,146 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.Serializable;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Serializable form of a {@link CompiledDfa}
+ * <P>
+ * This holds the generated class file, so that a cached DFA doesn't need to be regenerated.  If the
+ * DFA was too big to generate, it holds a {@link FlatDfa} instead.
+ */
+class SerializableCompiledDfa<RESULT> implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    //exactly one of these is non-null
+    private final byte[] m_classBytes;
+    private final FlatDfa<RESULT> m_flatDfa;
+
+    private final Object[] m_results;
+    private final int[] m_startStateNumbers;
+
+    //written once, with a volatile write that publishes the loaded DFAs safely
+    private transient volatile List<CompiledDfa<RESULT>> mv_startStatesMemo;
+
+    public SerializableCompiledDfa(RawDfa<RESULT> rawDfa)
+    {
+        m_classBytes = DfaClassGenerator.generateClass(rawDfa);
+        m_flatDfa = (m_classBytes == null ? new FlatDfa<>(rawDfa) : null);
+        m_results = rawDfa.getAcceptSets().toArray();
+        m_startStateNumbers = rawDfa.getStartStates().clone();
+    }
+
+    public List<CompiledDfa<RESULT>> getStartStates()
+    {
+        List<CompiledDfa<RESULT>> ret = mv_startStatesMemo;
+        return (ret != null ? ret : _load());
+    }
+
+    //load the DFAs.  We only want to define the class once, so this is synchronized
+    private synchronized List<CompiledDfa<RESULT>> _load()
+    {
+        if (mv_startStatesMemo == null)
+        {
+            List<CompiledDfa<RESULT>> startStates = new ArrayList<>(m_startStateNumbers.length);
+            if (m_classBytes == null)
+            {
+                //the fallback uses state numbers as result indexes
+                final Object[] stateResults = new Object[m_flatDfa.getStateCount()];
+                for (int i = 0; i < stateResults.length; ++i)
+                {
+                    stateResults[i] = m_flatDfa.getMatch(i);
+                }
+                for (int startState : m_startStateNumbers)
+                {
+                    startStates.add(new FlatCompiledDfa<>(m_flatDfa, startState, stateResults));
+                }
+            }
+            else
+            {
+                try
+                {
+                    GeneratedClassLoader loader = new GeneratedClassLoader(CompiledDfa.class.getClassLoader());
+                    Class<?> cls = loader.defineClass(DfaClassGenerator.CLASS_NAME, m_classBytes);
+                    @SuppressWarnings("unchecked")
+                    Constructor<? extends CompiledDfa<RESULT>> ctor = (Constructor<? extends CompiledDfa<RESULT>>)
+                        cls.asSubclass(CompiledDfa.class).getConstructor(int.class, Object[].class);
+                    for (int startState : m_startStateNumbers)
+                    {
+                        startStates.add(ctor.newInstance(startState, m_results));
+                    }
+                }
+                catch(ReflectiveOperationException e)
+                {
+                    //doesn't really happen
+                    throw new RuntimeException(e);
+                }
+            }
+            mv_startStatesMemo = Collections.unmodifiableList(startStates);
+        }
+        return mv_startStatesMemo;
+    }
+
+    //Each generated class gets its own loader, so it can be collected with its DFA
+    private static class GeneratedClassLoader extends ClassLoader
+    {
+        GeneratedClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        Class<?> defineClass(String name, byte[] classBytes)
+        {
+            return defineClass(name, classBytes, 0, classBytes.length);
+        }
+    }
+
+    //The fallback implementation, for DFAs that are too big for a generated method
+    private static class FlatCompiledDfa<M> extends CompiledDfa<M>
+    {
+        private final FlatDfa<M> m_dfa;
+
+        FlatCompiledDfa(FlatDfa<M> dfa, int startState, Object[] stateResults)
+        {
+            super(startState, stateResults);
+            m_dfa = dfa;
+        }
+
+        @Override
+        protected long runDfa(int state, CharSequence src, int pos, int limit)
+        {
+            long ret = -1L;
+            while (pos < limit)
+            {
+                state = m_dfa.getNextState(state, src.charAt(pos++));
+                if (state < 0)
+                {
+                    break;
+                }
+                if (m_dfa.getMatch(state) != null)
+                {
+                    ret = (((long)pos) << 32) | state;
+                }
+            }
+            return ret;
+        }
+    }
+}
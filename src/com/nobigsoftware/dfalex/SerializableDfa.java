@@ -17,6 +17,7 @@ package com.nobigsoftware.dfalex;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 class SerializableDfa<RESULT> implements Serializable
@@ -26,39 +27,63 @@ class SerializableDfa<RESULT> implements Serializable
 	private final ArrayList<DfaStatePlaceholder<RESULT>> m_dfaStates;
 	private final int[] m_startStateNumbers;
 	
-	private transient List<DfaState<RESULT>> m_startStatesMemo;
+	//Written once, after the placeholders have been materialized.  The volatile write publishes
+	//the materialized states safely, so readers don't need to lock
+	private transient volatile List<DfaState<RESULT>> mv_startStatesMemo;
 
 	public SerializableDfa(RawDfa<RESULT> rawDfa)
 	{
+		this(rawDfa, DfaStateRepresentation.PACKED_TREE);
+	}
+	
+	public SerializableDfa(RawDfa<RESULT> rawDfa, DfaStateRepresentation representation)
+	{
+		final int lowTableSize = representation.getLowTableSize();
 		final List<DfaStateInfo> origStates = rawDfa.getStates();
 		final int len = origStates.size();
 		m_dfaStates = new ArrayList<>(len);
 		m_startStateNumbers = rawDfa.getStartStates();
 		while(m_dfaStates.size() < len)
 		{
-			m_dfaStates.add(new PackedTreeDfaPlaceholder<>(rawDfa, m_dfaStates.size()));
+			m_dfaStates.add(new PackedTreeDfaPlaceholder<>(rawDfa, m_dfaStates.size(), lowTableSize));
 		}
 	}
 	
-	public synchronized List<DfaState<RESULT>> getStartStates()
+	public List<DfaState<RESULT>> getStartStates()
+	{
+		List<DfaState<RESULT>> ret = mv_startStatesMemo;
+		if (ret == null)
+		{
+			ret = _materialize();
+		}
+		return ret;
+	}
+
+	//Replace the placeholders with their final-form delegates.  This modifies the
+	//placeholders, so it must happen only once
+	private synchronized List<DfaState<RESULT>> _materialize()
 	{
-		if (m_startStatesMemo == null)
+		List<DfaState<RESULT>> ret = mv_startStatesMemo;
+		if (ret != null)
+		{
+			return ret;
+		}
+		final int len = m_dfaStates.size();
+		for (int i=0;i<len;++i)
+		{
+			m_dfaStates.get(i).createDelegate(i, m_dfaStates);
+		}
+		for (int i=0;i<len;++i)
+		{
+			m_dfaStates.get(i).fixPlaceholderReferences();
+		}
+		List<DfaState<RESULT>> startStates = new ArrayList<>(m_startStateNumbers.length);
+		for (int startState : m_startStateNumbers)
 		{
-	        final int len = m_dfaStates.size();
-	        for (int i=0;i<len;++i)
-	        {
-	            m_dfaStates.get(i).createDelegate(i, m_dfaStates);
-	        }
-	        for (int i=0;i<len;++i)
-	        {
-	            m_dfaStates.get(i).fixPlaceholderReferences();
-	        }
-			m_startStatesMemo = new ArrayList<>(m_startStateNumbers.length);
-			for (int startState : m_startStateNumbers)
-			{
-				m_startStatesMemo.add(m_dfaStates.get(startState).resolvePlaceholder());
-			}
+			startStates.add(m_dfaStates.get(startState).resolvePlaceholder());
 		}
-		return m_startStatesMemo;
+		ret = Collections.unmodifiableList(startStates);
+		mv_startStatesMemo = ret;
+		return ret;
 	}
 }
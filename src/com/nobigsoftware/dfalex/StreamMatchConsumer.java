@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+/**
+ * Functional interface that receives the matches found by a {@link StreamSearcher}
+ *
+ * @param MATCHRESULT The type of result associated with the patterns being searched for
+ */
+public interface StreamMatchConsumer<MATCHRESULT>
+{
+    /**
+     * This will be called for each match found, in order
+     *
+     * @param mr    The MATCHRESULT produced by the match
+     * @param startPos  the position in the stream of the first character of the match
+     * @param endPos    the position in the stream after the last character of the match
+     * @param text  the characters of the match.  This is only valid during the call, so it must be
+     *      copied (e.g., with toString()) if you need to keep it
+     * @return true to continue searching, or false to stop
+     */
+    boolean acceptMatch(MATCHRESULT mr, long startPos, long endPos, CharSequence text);
+}
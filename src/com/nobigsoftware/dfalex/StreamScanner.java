@@ -0,0 +1,325 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+
+/**
+ * A resumable cursor that finds matches in input that arrives in pieces
+ * <P>
+ * This finds the same matches as {@link StreamSearcher}, but instead of reading from a stream,
+ * the input is pushed into it with {@link #feed(char[], int, int)} or {@link #feed(CharBuffer)}
+ * as it arrives, and {@link #finish()} is called at the end.  Each completed match is passed to the
+ * consumer during the call that completes it.
+ * <P>
+ * Between calls, the scanner remembers the DFA state of the match in progress, the longest match
+ * found for it so far, and the characters since it started.  Only those characters are copied, so
+ * the input is never reassembled.  A match that spans pieces of input is reported exactly as if the
+ * input had arrived all at once.
+ * <P>
+ * Failed match attempts are accelerated with the same non-matching memo as {@link StreamSearcher}, and
+ * have the same worst case.
+ * <P>
+ * NOTE: Instances of this class are NOT thread-safe.  Get one from
+ * {@link StreamSearcher#newScanner(StreamMatchConsumer)}.
+ *
+ * @param MATCHRESULT The type of result associated with the patterns being searched for
+ */
+public class StreamScanner<MATCHRESULT>
+{
+    private static final char[] NO_CHARS = new char[0];
+
+    private final DfaState<MATCHRESULT> m_matcher;
+    private final int m_maxMatchLength;
+    private final StreamMatchConsumer<? super MATCHRESULT> m_consumer;
+    //characters from the start of the match in progress to the end of the input so far
+    private char[] m_carry = new char[64];
+    private int m_carryLen = 0;
+    //stream position of m_carry[0]
+    private long m_carryPos = 0;
+    //DFA state after the characters in m_carry, or null if no match is in progress
+    private DfaState<MATCHRESULT> m_state = null;
+    //longest match found so far for the match in progress, and its length
+    private MATCHRESULT m_result = null;
+    private int m_resultLen = 0;
+    //scratch space for match text that spans pieces of input, and for CharBuffers without arrays
+    private char[] m_scratch = NO_CHARS;
+    private boolean m_stopped = false;
+    //accelerates failed match attempts, as in StreamSearcher
+    private final NonMatchingMemo m_memo = new NonMatchingMemo();
+
+    StreamScanner(DfaState<MATCHRESULT> matcher, int maxMatchLength, StreamMatchConsumer<? super MATCHRESULT> consumer)
+    {
+        m_matcher = matcher;
+        m_maxMatchLength = maxMatchLength;
+        m_consumer = consumer;
+    }
+
+    /**
+     * Scan the next piece of input
+     *
+     * @param src   array containing the characters
+     * @param offset    position of the first character in the array
+     * @param length    number of characters
+     * @return false if the consumer has stopped the scan, or true to indicate that more input is wanted
+     */
+    public boolean feed(char[] src, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > src.length)
+        {
+            throw new IndexOutOfBoundsException("Invalid range " + offset + " + " + length);
+        }
+        return _scan(src, offset, length, false);
+    }
+
+    /**
+     * Scan the next piece of input
+     * <P>
+     * All the remaining characters in the buffer are consumed, and its position is set to its limit.
+     *
+     * @param src   buffer containing the characters
+     * @return false if the consumer has stopped the scan, or true to indicate that more input is wanted
+     */
+    public boolean feed(CharBuffer src)
+    {
+        final int len = src.remaining();
+        boolean ret;
+        if (src.hasArray())
+        {
+            ret = _scan(src.array(), src.arrayOffset() + src.position(), len, false);
+            src.position(src.limit());
+        }
+        else
+        {
+            if (m_scratch.length < len)
+            {
+                m_scratch = new char[len];
+            }
+            char[] chars = m_scratch;
+            src.get(chars, 0, len);
+            //matches may need the scratch space, so we can't use it while scanning
+            m_scratch = NO_CHARS;
+            ret = _scan(chars, 0, len, false);
+            if (m_scratch.length < chars.length)
+            {
+                m_scratch = chars;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Indicate the end of the input, and report any matches that are still pending
+     * <P>
+     * After this, the scanner can be used to scan a new stream, starting at position 0
+     *
+     * @return false if the consumer stopped the scan, or true if it didn't
+     */
+    public boolean finish()
+    {
+        boolean ret = _scan(NO_CHARS, 0, 0, true);
+        reset();
+        return ret;
+    }
+
+    /**
+     * Discard any pending input, and start scanning a new stream at position 0
+     */
+    public void reset()
+    {
+        m_carryLen = 0;
+        m_carryPos = 0;
+        m_state = null;
+        m_result = null;
+        m_resultLen = 0;
+        m_stopped = false;
+        m_memo.clear();
+    }
+
+    /**
+     * @return the stream position after the last character that has been fed to the scanner
+     */
+    public long getPosition()
+    {
+        return m_carryPos + m_carryLen;
+    }
+
+    /**
+     * @return the stream position at which the match in progress started.  If no match is
+     *      in progress, this is the same as {@link #getPosition()}
+     */
+    public long getPendingStart()
+    {
+        return m_carryPos;
+    }
+
+    /*
+     * The characters we're scanning are the ones in m_carry, followed by the ones in src.
+     * We call these virtual positions.  m_carry must be the start of a match attempt.
+     */
+    private boolean _scan(char[] src, final int offset, final int length, final boolean eof)
+    {
+        if (m_stopped)
+        {
+            return false;
+        }
+        final int carryLen = m_carryLen;
+        final char[] carry = m_carry;
+        final int vlen = carryLen + length;
+        //start of the current match attempt
+        int pos = 0;
+        DfaState<MATCHRESULT> state;
+        int i;
+        MATCHRESULT result;
+        int matchEnd;
+        if (m_state != null)
+        {
+            //resume the match in progress
+            state = m_state;
+            i = carryLen;
+            result = m_result;
+            matchEnd = m_resultLen;
+        }
+        else
+        {
+            state = m_matcher;
+            i = 0;
+            result = null;
+            matchEnd = 0;
+            m_memo.startAttempt(m_carryPos);
+        }
+        for (;;)
+        {
+            if (pos >= vlen)
+            {
+                //nothing pending
+                m_carryPos += vlen;
+                m_carryLen = 0;
+                m_state = null;
+                return true;
+            }
+            final int limit = (int)Math.min(vlen, (long)pos + m_maxMatchLength);
+            boolean memoHit = false;
+            while (i < limit)
+            {
+                state = state.getNextState(i < carryLen ? carry[i] : src[offset + i - carryLen]);
+                ++i;
+                if (state == null)
+                {
+                    break;
+                }
+                MATCHRESULT match = state.getMatch();
+                if (match != null)
+                {
+                    result = match;
+                    matchEnd = i;
+                    m_memo.matched();
+                }
+                else if (m_memo.check(state, m_carryPos + i))
+                {
+                    memoHit = true;
+                    break;
+                }
+            }
+            if (!memoHit && state != null && i >= vlen && !eof && i - pos < m_maxMatchLength)
+            {
+                //we need more input to finish this attempt
+                _saveCarry(src, offset, pos, vlen);
+                m_state = state;
+                m_result = result;
+                m_resultLen = matchEnd - pos;
+                return true;
+            }
+            //the attempt is incomplete only if it was cut short by the maximum match length
+            m_memo.finishAttempt(memoHit || state == null || eof && i >= vlen);
+            if (result == null)
+            {
+                ++pos;
+            }
+            else
+            {
+                if (!m_consumer.acceptMatch(result, m_carryPos + pos, m_carryPos + matchEnd,
+                        _text(src, offset, pos, matchEnd)))
+                {
+                    m_stopped = true;
+                    m_carryPos += matchEnd;
+                    m_carryLen = 0;
+                    m_state = null;
+                    return false;
+                }
+                pos = matchEnd;
+            }
+            state = m_matcher;
+            result = null;
+            matchEnd = pos;
+            i = pos;
+            m_memo.startAttempt(m_carryPos + pos);
+        }
+    }
+
+    //get the text between virtual positions
+    private CharSequence _text(char[] src, int offset, int start, int end)
+    {
+        final int carryLen = m_carryLen;
+        if (start >= carryLen)
+        {
+            return CharBuffer.wrap(src, offset + start - carryLen, end - start);
+        }
+        if (end <= carryLen)
+        {
+            return CharBuffer.wrap(m_carry, start, end - start);
+        }
+        if (m_scratch.length < end - start)
+        {
+            m_scratch = new char[Math.max(end - start, m_scratch.length*2)];
+        }
+        System.arraycopy(m_carry, start, m_scratch, 0, carryLen - start);
+        System.arraycopy(src, offset, m_scratch, carryLen - start, end - carryLen);
+        return CharBuffer.wrap(m_scratch, 0, end - start);
+    }
+
+    //keep the characters from virtual position pos to the end of the input
+    private void _saveCarry(char[] src, int offset, int pos, int vlen)
+    {
+        final int carryLen = m_carryLen;
+        final int newLen = vlen - pos;
+        if (pos < carryLen)
+        {
+            if (m_carry.length < newLen)
+            {
+                char[] newCarry = new char[Math.max(newLen, m_carry.length*2)];
+                System.arraycopy(m_carry, pos, newCarry, 0, carryLen - pos);
+                m_carry = newCarry;
+            }
+            else if (pos > 0)
+            {
+                System.arraycopy(m_carry, pos, m_carry, 0, carryLen - pos);
+            }
+            System.arraycopy(src, offset, m_carry, carryLen - pos, vlen - carryLen);
+        }
+        else
+        {
+            if (m_carry.length < newLen)
+            {
+                m_carry = new char[Math.max(newLen, m_carry.length*2)];
+            }
+            System.arraycopy(src, offset + pos - carryLen, m_carry, 0, newLen);
+        }
+        m_carryPos += pos;
+        m_carryLen = newLen;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Searches streams of characters for patterns, with bounded memory
+ * <P>
+ * Unlike {@link StringSearcher}, which needs the whole string in memory, this class reads its input
+ * from front to back, in chunks.  Matches are found in the same way as {@link StringMatcher#findNext(DfaState)}:
+ * at each position, the DFA is run until it stops, and the longest match starting there is reported.
+ * Then the search continues after the match, or at the next position if there was no match.
+ * <P>
+ * The only input that is kept is the part that a match in progress might still need, so memory
+ * use is proportional to the longest prefix of a pattern that appears in the input, not the size of the input.
+ * That is limited by a maximum match length, since a pattern like ".*" could otherwise require the
+ * whole stream.
+ * <P>
+ * Failed match attempts are accelerated with the same non-matching memo as {@link StringMatcher}, so
+ * search time is linear in the length of the input except when many attempts reach the maximum match
+ * length, which can take O(length * maxMatchLength) time.
+ * <P>
+ * NOTE: Instances of this class are thread-safe.
+ *
+ * @param MATCHRESULT The type of result associated with the patterns being searched for
+ */
+public class StreamSearcher<MATCHRESULT>
+{
+    /**
+     * The default maximum match length.  See {@link #StreamSearcher(DfaState, int)}
+     */
+    public static final int DEFAULT_MAX_MATCH_LENGTH = 1<<20;
+
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+
+    private final DfaState<MATCHRESULT> m_matcher;
+    private final int m_maxMatchLength;
+
+    /**
+     * Create a new StreamSearcher with the default maximum match length
+     *
+     * @param matcher  A DFA that matches the patterns being searched for
+     */
+    public StreamSearcher(DfaState<MATCHRESULT> matcher)
+    {
+        this(matcher, DEFAULT_MAX_MATCH_LENGTH);
+    }
+
+    /**
+     * Create a new StreamSearcher
+     *
+     * @param matcher  A DFA that matches the patterns being searched for
+     * @param maxMatchLength    The maximum number of characters that will be examined for a match starting
+     *      at any position.  This limits the size of the buffer.  A match that would be longer than this is
+     *      cut short to the longest match within the limit.
+     */
+    public StreamSearcher(DfaState<MATCHRESULT> matcher, int maxMatchLength)
+    {
+        if (maxMatchLength < 1)
+        {
+            throw new IllegalArgumentException("maxMatchLength must be positive");
+        }
+        m_matcher = matcher;
+        m_maxMatchLength = maxMatchLength;
+    }
+
+    /**
+     * Create a new {@link StreamScanner} that finds the same matches as this searcher, in input
+     * that is pushed into it in pieces
+     *
+     * @param consumer  this is called with each match, in order
+     * @return the new scanner
+     */
+    public StreamScanner<MATCHRESULT> newScanner(StreamMatchConsumer<? super MATCHRESULT> consumer)
+    {
+        return new StreamScanner<>(m_matcher, m_maxMatchLength, consumer);
+    }
+
+    /**
+     * Search a stream of characters for all (non-overlapping) occurrences of the patterns
+     * <P>
+     * The reader is read to the end unless the consumer stops the search.  It is not closed.
+     *
+     * @param in    the stream to search
+     * @param consumer  this is called with each match, in order
+     * @return  the position in the stream at which the search ended.  This is the length of the stream,
+     *      unless the consumer stopped the search, in which case it's the end of the last match
+     * @throws IOException if the reader throws it
+     */
+    public long search(Reader in, StreamMatchConsumer<? super MATCHRESULT> consumer) throws IOException
+    {
+        final DfaState<MATCHRESULT> startState = m_matcher;
+        char[] buf = new char[Math.min(INITIAL_BUFFER_SIZE, m_maxMatchLength)];
+        //stream position of buf[0]
+        long bufPos = 0;
+        //number of valid characters in buf
+        int len = 0;
+        //next position in buf to try for a match
+        int pos = 0;
+        boolean eof = false;
+        final NonMatchingMemo memo = new NonMatchingMemo();
+        for(;;)
+        {
+            if (pos >= len)
+            {
+                if (eof)
+                {
+                    break;
+                }
+                //nothing to keep
+                bufPos += len;
+                pos = len = 0;
+                int n = in.read(buf, 0, buf.length);
+                if (n < 0)
+                {
+                    eof = true;
+                }
+                else
+                {
+                    len = n;
+                }
+                continue;
+            }
+
+            //find the longest match at pos
+            DfaState<MATCHRESULT> state = startState;
+            MATCHRESULT result = null;
+            int matchEnd = pos;
+            int i = pos;
+            //false if the attempt is cut short by the maximum match length
+            boolean complete = true;
+            memo.startAttempt(bufPos+pos);
+            for(;;)
+            {
+                if (i >= len)
+                {
+                    //need more input.  Discard what we don't need anymore
+                    if (eof)
+                    {
+                        break;
+                    }
+                    if (pos > 0)
+                    {
+                        System.arraycopy(buf, pos, buf, 0, len-pos);
+                        bufPos += pos;
+                        len -= pos;
+                        i -= pos;
+                        matchEnd -= pos;
+                        pos = 0;
+                    }
+                    if (len >= buf.length)
+                    {
+                        if (len >= m_maxMatchLength)
+                        {
+                            //too long.  Cut it off
+                            complete = false;
+                            break;
+                        }
+                        char[] newbuf = new char[(int)Math.min((long)buf.length*2, m_maxMatchLength)];
+                        System.arraycopy(buf, 0, newbuf, 0, len);
+                        buf = newbuf;
+                    }
+                    int n = in.read(buf, len, buf.length-len);
+                    if (n < 0)
+                    {
+                        eof = true;
+                        break;
+                    }
+                    len += n;
+                    continue;
+                }
+                state = state.getNextState(buf[i++]);
+                if (state == null)
+                {
+                    break;
+                }
+                MATCHRESULT match = state.getMatch();
+                if (match != null)
+                {
+                    result = match;
+                    matchEnd = i;
+                    memo.matched();
+                }
+                else if (memo.check(state, bufPos+i))
+                {
+                    break;
+                }
+            }
+            memo.finishAttempt(complete);
+            if (result == null)
+            {
+                ++pos;
+                continue;
+            }
+            if (!consumer.acceptMatch(result, bufPos+pos, bufPos+matchEnd, CharBuffer.wrap(buf, pos, matchEnd-pos)))
+            {
+                return bufPos+matchEnd;
+            }
+            pos = matchEnd;
+        }
+        return bufPos+len;
+    }
+
+    /**
+     * Search a channel of bytes for all (non-overlapping) occurrences of the patterns
+     * <P>
+     * Malformed and unmappable input is replaced with the charset's replacement string.  Positions
+     * reported to the consumer are character positions in the decoded stream.
+     *
+     * @param in    the channel to search
+     * @param charset   the charset used to decode the bytes into characters
+     * @param consumer  this is called with each match, in order
+     * @return  the character position in the decoded stream at which the search ended
+     * @throws IOException if the channel throws it
+     */
+    public long search(ReadableByteChannel in, Charset charset, StreamMatchConsumer<? super MATCHRESULT> consumer) throws IOException
+    {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        return search(in, decoder, consumer);
+    }
+
+    /**
+     * Search a channel of bytes for all (non-overlapping) occurrences of the patterns
+     *
+     * @param in    the channel to search
+     * @param decoder   the decoder used to decode the bytes into characters.  Its error actions determine
+     *      what happens to invalid input.
+     * @param consumer  this is called with each match, in order
+     * @return  the character position in the decoded stream at which the search ended
+     * @throws IOException if the channel or decoder throws it
+     */
+    public long search(ReadableByteChannel in, CharsetDecoder decoder, StreamMatchConsumer<? super MATCHRESULT> consumer) throws IOException
+    {
+        return search(Channels.newReader(in, decoder, -1), consumer);
+    }
+}
@@ -15,6 +15,8 @@
  */
 package com.nobigsoftware.dfalex;
 
+import java.nio.CharBuffer;
+
 /**
  * This class implements fast matching in a string using DFAs
  * <P>
@@ -40,7 +42,11 @@ package com.nobigsoftware.dfalex;
 public class StringMatcher
 {
     private static final int NMM_SIZE = 40;
-    private final String m_src;
+    private final CharSequence m_src;
+    //if this is non-null, it has the characters of m_src, starting at m_arrayBase
+    private final char[] m_array;
+    private final int m_arrayBase;
+    private final int m_srcLen;
     private int m_lastMatchStart = 0;
     private int m_lastMatchEnd = 0;
     private int m_limit;
@@ -51,6 +57,9 @@ public class StringMatcher
     private int m_nmmStart = NMM_SIZE;
     private final int[] m_nmmPositions = new int[NMM_SIZE];
     private final DfaState<?>[] m_nmmStates = (DfaState<?>[]) new DfaState[NMM_SIZE];
+    //memo entries for FlatDfa states have null in m_nmmStates, and the state number here
+    private final int[] m_nmmFlatStates = new int[NMM_SIZE];
+    private FlatDfa<?> m_nmmFlatDfa = null;
     
     /**
      * Create a new StringMatcher.
@@ -60,9 +69,50 @@ public class StringMatcher
      * @param src the source string to be searched
      */
     public StringMatcher(String src)
+    {
+        this((CharSequence)src);
+    }
+    
+    /**
+     * Create a new StringMatcher for a character sequence.
+     * <P>
+     * The sequence is not copied, so it must not be modified while the matcher is in use.
+     * If it is a {@link CharBuffer} with an accessible array, then the array is read directly.
+     * 
+     * @param src the source character sequence to be searched
+     */
+    public StringMatcher(CharSequence src)
     {
         m_src = src;
-        m_limit = m_src.length();
+        m_srcLen = src.length();
+        CharBuffer buf = (src instanceof CharBuffer ? (CharBuffer)src : null);
+        if (buf != null && buf.hasArray())
+        {
+            m_array = buf.array();
+            m_arrayBase = buf.arrayOffset() + buf.position();
+        }
+        else
+        {
+            m_array = null;
+            m_arrayBase = 0;
+        }
+        m_limit = m_srcLen;
+    }
+    
+    /**
+     * Create a new StringMatcher for a range of a character array.
+     * <P>
+     * The array is not copied, so it must not be modified while the matcher is in use.
+     * All positions are relative to offset.
+     * 
+     * @param src array containing the characters to be searched
+     * @param offset the position of the first character to search in src
+     * @param length the number of characters to search
+     * @throws IndexOutOfBoundsException if the range is not within src
+     */
+    public StringMatcher(char[] src, int offset, int length)
+    {
+        this(CharBuffer.wrap(src, offset, length));
     }
     
     /**
@@ -77,7 +127,7 @@ public class StringMatcher
      */
     public void setPositions(int lastMatchStart, int lastMatchEnd, int searchLimit)
     {
-        searchLimit = Math.min(searchLimit, m_src.length());
+        searchLimit = Math.min(searchLimit, m_srcLen);
         if (lastMatchStart < 0 || lastMatchEnd < lastMatchStart || searchLimit < lastMatchEnd)
         {
             throw new IndexOutOfBoundsException("Invalid positions in StringMatcher.setPositions");
@@ -129,7 +179,11 @@ public class StringMatcher
         {
             return "";
         }
-        return m_src.substring(m_lastMatchStart, m_lastMatchEnd);
+        if (m_array != null)
+        {
+            return new String(m_array, m_arrayBase + m_lastMatchStart, m_lastMatchEnd - m_lastMatchStart);
+        }
+        return m_src.subSequence(m_lastMatchStart, m_lastMatchEnd).toString();
     }
 
     /**
@@ -150,7 +204,11 @@ public class StringMatcher
      */
     public <MATCHRESULT> MATCHRESULT findNext(DfaState<MATCHRESULT> state)
     {
-        for (int pos = m_lastMatchEnd; pos < m_limit; ++pos)
+        //only positions with a first character in the filter can start a match
+        final FirstCharFilter filter = state.getFirstCharFilter(false);
+        final int limit = m_limit;
+        for (int pos = filter.skip(m_src, m_array, m_arrayBase, m_lastMatchEnd, limit);
+                pos < limit; pos = filter.skip(m_src, m_array, m_arrayBase, pos+1, limit))
         {
             MATCHRESULT ret=matchAt(state, pos);
             if (ret!=null)
@@ -181,10 +239,12 @@ public class StringMatcher
         int newNmmSize = 0;
         int writeNmmNext = startPos + 4;
 
+        final char[] array = m_array;
+
         POSLOOP:
         for(int pos = startPos; pos < m_limit ;)
         {
-            state = state.getNextState(m_src.charAt(pos));
+            state = state.getNextState(array != null ? array[m_arrayBase+pos] : m_src.charAt(pos));
             pos++;
             if (state == null)
             {
@@ -243,6 +303,173 @@ public class StringMatcher
         }
         return ret;
     }
+
+    /**
+     * Find the next non-empty match with a {@link FlatDfa}
+     * <P>
+     * This is the same as {@link #findNext(DfaState)}, but uses a DFA in flat form, with
+     * integer state numbers.
+     * 
+     * @param <MATCHRESULT> the type of results produced by the DFA  
+     * @param dfa The DFA for the patterns you want to find
+     * @param state The number of the DFA start state, usually from {@link FlatDfa#getStartState(int)}
+     * @return The MATCHRESULT for the next non-empty match in the string, or null if there isn't one
+     */
+    public <MATCHRESULT> MATCHRESULT findNext(FlatDfa<MATCHRESULT> dfa, int state)
+    {
+        final FirstCharFilter filter = dfa.getFirstCharFilter(state);
+        final int limit = m_limit;
+        for (int pos = filter.skip(m_src, m_array, m_arrayBase, m_lastMatchEnd, limit);
+                pos < limit; pos = filter.skip(m_src, m_array, m_arrayBase, pos+1, limit))
+        {
+            MATCHRESULT ret=matchAt(dfa, state, pos);
+            if (ret!=null)
+            {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the longest match starting at a given position, with a {@link FlatDfa}
+     * <P>
+     * This is the same as {@link #matchAt(DfaState, int)}, but uses a DFA in flat form, with
+     * integer state numbers.
+     * 
+     * @param <MATCHRESULT> the type of results produced by the DFA  
+     * @param dfa The DFA for the patterns you want to match
+     * @param state The number of the DFA start state, usually from {@link FlatDfa#getStartState(int)}
+     * @param startPos the position in the source string to test for a match
+     * @return If the source string matches a pattern in the DFA at startPos, the MATCHRESULT that
+     *      the pattern match produces.  Otherwise null.
+     */
+    public <MATCHRESULT> MATCHRESULT matchAt(FlatDfa<MATCHRESULT> dfa, int state, final int startPos)
+    {
+        if (dfa != m_nmmFlatDfa)
+        {
+            //state numbers from different DFAs can't be compared
+            m_nmmFlatDfa = dfa;
+            m_nmmStart = NMM_SIZE;
+        }
+        MATCHRESULT ret = null; 
+        int newNmmSize = 0;
+        int writeNmmNext = startPos + 4;
+
+        final char[] array = m_array;
+
+        POSLOOP:
+        for(int pos = startPos; pos < m_limit ;)
+        {
+            state = dfa.getNextState(state, array != null ? array[m_arrayBase+pos] : m_src.charAt(pos));
+            pos++;
+            if (state < 0)
+            {
+                break;
+            }
+            MATCHRESULT match = dfa.getMatch(state);
+            if (match != null)
+            {
+                ret = match;
+                m_lastMatchEnd = pos;
+                newNmmSize = 0;
+                continue;
+            }
+            
+            //Check and update the non-matching memo, as in matchAt(DfaState, int)
+            while (m_nmmStart < NMM_SIZE && m_nmmPositions[m_nmmStart] <= pos)
+            {
+                if (m_nmmPositions[m_nmmStart] == pos && m_nmmStates[m_nmmStart] == null && m_nmmFlatStates[m_nmmStart] == state)
+                {
+                    //hit the memo -- we won't find a match.
+                    break POSLOOP;
+                }
+                //we passed this memo entry without using it -- remove it.
+                ++m_nmmStart;
+            }
+            if (pos >= writeNmmNext && newNmmSize < NMM_SIZE)
+            {
+                m_nmmPositions[newNmmSize] = pos;
+                m_nmmStates[newNmmSize] = null;
+                m_nmmFlatStates[newNmmSize] = state;
+                ++newNmmSize;
+                writeNmmNext = pos+(2<<newNmmSize);
+                if (m_nmmStart < newNmmSize)
+                {
+                    m_nmmStart = newNmmSize;
+                }
+            }
+        }
+        //successful or not, we're done.  Merge in our new entries for the non-matching memo
+        while (m_nmmStart < NMM_SIZE && m_nmmPositions[m_nmmStart] < writeNmmNext)
+        {
+            ++m_nmmStart;
+        }
+        while(newNmmSize > 0)
+        {
+            --newNmmSize;
+            --m_nmmStart;
+            m_nmmPositions[m_nmmStart] = m_nmmPositions[newNmmSize]; 
+            m_nmmStates[m_nmmStart] = m_nmmStates[newNmmSize]; 
+            m_nmmFlatStates[m_nmmStart] = m_nmmFlatStates[newNmmSize]; 
+        }
+        if (ret != null)
+        {
+            m_lastMatchStart = startPos;
+        }
+        return ret;
+    }
+    
+    /**
+     * Find the next non-empty match with a {@link CompiledDfa}
+     * <P>
+     * This is the same as {@link #findNext(DfaState)}, but uses a DFA compiled into a JVM class.
+     * <P>
+     * NOTE: compiled DFAs don't expose their states, so this method can't use the non-matching
+     * memo that the other findNext methods use.  Each position is tried from scratch, so a search
+     * can take time proportional to the length of the string times the length of the longest failed
+     * match attempt.  With patterns like "a+b", that's quadratic in the worst case.  If your input
+     * might have long runs that almost match, use {@link #findNext(FlatDfa, int)} instead.
+     * 
+     * @param <MATCHRESULT> the type of results produced by the DFA  
+     * @param dfa The DFA for the patterns you want to find
+     * @return The MATCHRESULT for the next non-empty match in the string, or null if there isn't one
+     */
+    public <MATCHRESULT> MATCHRESULT findNext(CompiledDfa<MATCHRESULT> dfa)
+    {
+        for (int pos = m_lastMatchEnd; pos < m_limit; ++pos)
+        {
+            MATCHRESULT ret=matchAt(dfa, pos);
+            if (ret!=null)
+            {
+                return ret;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the longest match starting at a given position, with a {@link CompiledDfa}
+     * <P>
+     * This is the same as {@link #matchAt(DfaState, int)}, but uses a DFA compiled into a JVM class.
+     * 
+     * @param <MATCHRESULT> the type of results produced by the DFA  
+     * @param dfa The DFA for the patterns you want to match
+     * @param startPos the position in the source string to test for a match
+     * @return If the source string matches a pattern in the DFA at startPos, the MATCHRESULT that
+     *      the pattern match produces.  Otherwise null.
+     */
+    public <MATCHRESULT> MATCHRESULT matchAt(CompiledDfa<MATCHRESULT> dfa, final int startPos)
+    {
+        final long match = dfa.matchAt(m_src, startPos, m_limit);
+        if (match < 0)
+        {
+            return null;
+        }
+        m_lastMatchStart = startPos;
+        m_lastMatchEnd = CompiledDfa.getMatchEnd(match);
+        return dfa.getMatchResult(match);
+    }
     
     /**
      * See if a whole string matches a DFA
@@ -265,4 +492,27 @@ public class StringMatcher
         }
         return (state == null ? null : state.getMatch());
     }
+
+    /**
+     * See if a whole string matches a {@link FlatDfa}
+     * 
+     * @param <MATCHRESULT> the type of results produced by the DFA  
+     * @param dfa  the DFA
+     * @param state  the number of the DFA start state
+     * @param str string to test
+     * @return If the whole string matches the DFA, this is the match result produced.  Otherwise null.
+     */
+    static public <MATCHRESULT> MATCHRESULT matchWholeString(FlatDfa<MATCHRESULT> dfa, int state, String str)
+    {
+        final int len = str.length();
+        for (int i=0; i<len; i++)
+        {
+            if (state < 0)
+            {
+                return null;
+            }
+            state = dfa.getNextState(state, str.charAt(i));
+        }
+        return (state < 0 ? null : dfa.getMatch(state));
+    }
 }
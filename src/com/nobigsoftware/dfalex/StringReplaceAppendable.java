@@ -24,7 +24,7 @@ import java.util.Arrays;
  */
 class StringReplaceAppendable implements SafeAppendable
 {
-    private final String m_src;
+    private final CharSequence m_src;
     private char[] m_buf;
     private int m_len;
     
@@ -32,7 +32,7 @@ class StringReplaceAppendable implements SafeAppendable
      * Create a new StringReplaceAppendable.
      * @param src
      */
-    public StringReplaceAppendable(String src)
+    public StringReplaceAppendable(CharSequence src)
     {
         m_src = src;
     }
@@ -126,14 +126,24 @@ class StringReplaceAppendable implements SafeAppendable
         }
         if (m_len == m_src.length())
         {
-            return m_src;
+            return m_src.toString();
         }
-        return m_src.substring(0, m_len);
+        return m_src.subSequence(0, m_len).toString();
     }
     
     private void _allocate(int addlen)
     {
         m_buf = new char[Math.max(m_len + addlen, m_src.length()+16)];
-        m_src.getChars(0, m_len, m_buf, 0);
+        if (m_src instanceof String)
+        {
+            ((String)m_src).getChars(0, m_len, m_buf, 0);
+        }
+        else
+        {
+            for (int i = 0; i < m_len; ++i)
+            {
+                m_buf[i] = m_src.charAt(i);
+            }
+        }
     }
 }
@@ -15,7 +15,12 @@
  */
 package com.nobigsoftware.dfalex;
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToIntFunction;
 
 /**
  * Performs fast searches of a whole string for patterns.  When you need to search the
@@ -29,8 +34,17 @@ import java.util.NoSuchElementException;
 public class StringSearcher<MATCHRESULT>
 {
     private static final StringMatchIterator<?> NO_MATCHES = new NoMatchIterator();
+    private static final LongAdder s_maskReallocations = new LongAdder();
+    //visitor searches keep their per-thread scratch space only if it fits inputs this long
+    private static final int MAX_RETAINED_SCRATCH_CHARS = 1<<16;
     private final DfaState<MATCHRESULT> m_matcher;
     private final DfaState<?> m_reverseFinder;
+    //non-null in SearchMode.FORWARD_FINDER mode
+    private final DfaState<?> m_forwardFinder;
+    //if non-null, finds literals that occur in every match
+    private final LiteralPrefilter m_prefilter;
+    //per-thread scratch space for searches with a MatchVisitor
+    private final ThreadLocal<SearchSession<MATCHRESULT>> m_visitorSessions;
     
     /**
      * Create a new StringSearcher.
@@ -41,9 +55,80 @@ public class StringSearcher<MATCHRESULT>
      */
     public StringSearcher(DfaState<MATCHRESULT> matcher,
             DfaState<?> reverseFinder)
+    {
+        this(matcher, reverseFinder, null);
+    }
+    
+    /**
+     * Create a new StringSearcher that can use a forward finder
+     * <P>
+     * If a forward finder is provided, then the searcher works in {@link SearchMode#FORWARD_FINDER} mode,
+     * and the reverse finder is only used by {@link #searchStringParallel(CharSequence, ForkJoinPool)}.
+     * 
+     * @param matcher  A DFA that matches the patterns being searched for
+     * @param reverseFinder A DFA that can be applied to a string backwards to
+     *      find all the places where matches start.  See {@link DfaBuilder#buildReverseFinder()}.
+     *      This may be null if forwardFinder is provided, in which case parallel searches are done in
+     *      the calling thread.
+     * @param forwardFinder A DFA that can be applied to a string forward to find the places where matches
+     *      end.  See {@link DfaBuilder#buildForwardFinder()}.  If this is null, the searcher works in
+     *      {@link SearchMode#REVERSE_FINDER} mode.
+     */
+    public StringSearcher(DfaState<MATCHRESULT> matcher,
+            DfaState<?> reverseFinder, DfaState<?> forwardFinder)
+    {
+        this(matcher, reverseFinder, forwardFinder, null);
+    }
+    
+    //prefilter, if non-null, must find a literal in every string that contains a match
+    StringSearcher(DfaState<MATCHRESULT> matcher,
+            DfaState<?> reverseFinder, DfaState<?> forwardFinder, LiteralPrefilter prefilter)
     {
         m_matcher = matcher;
         m_reverseFinder = reverseFinder;
+        m_forwardFinder = forwardFinder;
+        m_prefilter = prefilter;
+        m_visitorSessions = ThreadLocal.withInitial(() -> new SearchSession<>(matcher, reverseFinder, forwardFinder, prefilter, null));
+    }
+    
+    /**
+     * Get the way that this searcher finds the places where matches start
+     * 
+     * @return {@link SearchMode#FORWARD_FINDER} or {@link SearchMode#REVERSE_FINDER}.  Searchers built
+     *      in {@link SearchMode#AUTO} mode report the mode that was chosen.
+     */
+    public SearchMode getSearchMode()
+    {
+        return (m_forwardFinder != null ? SearchMode.FORWARD_FINDER : SearchMode.REVERSE_FINDER);
+    }
+    
+    /**
+     * Get the number of times that the buffers used to record match start positions have been reallocated
+     * <P>
+     * These buffers are sized to fit the input when possible, so this is a measure of how much garbage
+     * searches with {@link #searchString(CharSequence)} produce beyond the minimum.  Searches with a
+     * {@link SearchSession} or a {@link MatchVisitor} reuse their buffers, and aren't counted.
+     * The count is shared by all StringSearchers.
+     * 
+     * @return the number of reallocations since the class was loaded
+     */
+    public static long getMaskReallocationCount()
+    {
+        return s_maskReallocations.sum();
+    }
+    
+    /**
+     * Create a new {@link SearchSession} for searching with this searcher in the current thread
+     * <P>
+     * Sessions reuse their scratch space, and write matches into caller-provided arrays, so that
+     * searching many short strings doesn't allocate any memory.
+     * 
+     * @param resultIds a function that provides an integer ID for each match result
+     * @return the new session
+     */
+    public SearchSession<MATCHRESULT> newSession(ToIntFunction<? super MATCHRESULT> resultIds)
+    {
+        return new SearchSession<>(m_matcher, m_reverseFinder, m_forwardFinder, m_prefilter, resultIds);
     }
     
     /**
@@ -52,68 +137,241 @@ public class StringSearcher<MATCHRESULT>
      * @param src   String to search
      * @return  a {@link StringMatchIterator} that returns all (non-overlapping) matches
      */
-    @SuppressWarnings("unchecked")
     public StringMatchIterator<MATCHRESULT> searchString(String src)
     {
-        int pos=src.length();
+        return searchString((CharSequence)src);
+    }
+
+    /**
+     * Search a character sequence for all occurrences of the patterns that this searcher finds
+     * <P>
+     * The sequence is not copied, so it must not be modified while the returned iterator is in use.
+     * If it is a {@link CharBuffer} with an accessible array, then the array is searched directly.
+     * 
+     * @param src   Character sequence to search
+     * @return  a {@link StringMatchIterator} that returns all (non-overlapping) matches
+     */
+    public StringMatchIterator<MATCHRESULT> searchString(CharSequence src)
+    {
+        if (src instanceof CharBuffer)
+        {
+            CharBuffer buf = (CharBuffer)src;
+            if (buf.hasArray())
+            {
+                return _search(src, buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            }
+        }
+        return _search(src, null, 0, src.length());
+    }
+
+    /**
+     * Search a range of a character array for all occurrences of the patterns that this searcher finds
+     * <P>
+     * The array is not copied, so it must not be modified while the returned iterator is in use.
+     * Positions reported by the iterator are relative to offset.
+     * 
+     * @param src   array containing the characters to search
+     * @param offset    the position of the first character to search in src
+     * @param length    the number of characters to search
+     * @return  a {@link StringMatchIterator} that returns all (non-overlapping) matches
+     * @throws IndexOutOfBoundsException if the range is not within src
+     */
+    public StringMatchIterator<MATCHRESULT> searchString(char[] src, int offset, int length)
+    {
+        return searchString(CharBuffer.wrap(src, offset, length));
+    }
+
+    /**
+     * Search a character sequence for all occurrences of the patterns that this searcher finds, and
+     * pass them to a visitor
+     * <P>
+     * The matches found are the same as the ones returned by {@link #searchString(CharSequence)}, but no iterator
+     * or match strings are allocated, and the scratch space used to find match positions is reused by
+     * later searches in the same thread.  The visitor may search again with this searcher.
+     * 
+     * @param src   Character sequence to search.  If it is a {@link CharBuffer} with an accessible array,
+     *      then the array is searched directly.
+     * @param visitor   each match is passed to this visitor, which can skip ahead or back by returning a
+     *      new search position, or stop the search
+     * @return  the number of matches passed to the visitor
+     */
+    public int searchString(CharSequence src, MatchVisitor<? super MATCHRESULT> visitor)
+    {
+        final SearchSession<MATCHRESULT> session = m_visitorSessions.get();
+        try
+        {
+            return session.search(src, visitor);
+        }
+        finally
+        {
+            //don't let one huge input pin a huge mask to the thread
+            session.trimScratchSpace(MAX_RETAINED_SCRATCH_CHARS);
+        }
+    }
+
+    /**
+     * Search a large character sequence in parallel
+     * <P>
+     * The sequence is split into chunks that are searched by the threads in the given pool, and the results
+     * are stitched together.  The matches found are exactly the same as the ones found by
+     * {@link #searchString(CharSequence)}, but on a multi-core machine they are found much faster.
+     * All the matches are found before this method returns.
+     * <P>
+     * Sequences that are too short to benefit from parallel search are searched in the calling thread.
+     * The sequence is not copied, so it must not be modified while the returned iterator is in use.
+     * If it is a {@link CharBuffer} with an accessible array, then the array is searched directly.
+     * 
+     * @param src   Character sequence to search
+     * @param pool  the pool to search in
+     * @return  a {@link StringMatchIterator} that returns all (non-overlapping) matches
+     */
+    @SuppressWarnings("unchecked")
+    public StringMatchIterator<MATCHRESULT> searchStringParallel(CharSequence src, ForkJoinPool pool)
+    {
+        char[] array = null;
+        int base = 0;
+        int len = src.length();
+        if (src instanceof CharBuffer)
+        {
+            CharBuffer buf = (CharBuffer)src;
+            if (buf.hasArray())
+            {
+                array = buf.array();
+                base = buf.arrayOffset() + buf.position();
+            }
+        }
+        if (pool.getParallelism() < 2 || len < ParallelStringSearch.MIN_CHUNK_SIZE*2 || m_forwardFinder != null && m_reverseFinder == null)
+        {
+            return _search(src, array, base, len);
+        }
+        if (m_reverseFinder == null)
+        {
+            return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
+        }
+        return new ParallelStringSearch<>(src, array, base, len, m_matcher, m_reverseFinder, pool.getParallelism()).search(pool);
+    }
+
+    //Search a source.  If array is non-null, it contains the same characters as src, starting at base
+    @SuppressWarnings("unchecked")
+    private StringMatchIterator<MATCHRESULT> _search(CharSequence src, char[] array, int base, int len)
+    {
+        if (m_prefilter != null && !m_prefilter.occursIn(src, array, base, len))
+        {
+            //none of the required literals are present, so there can't be any matches
+            return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
+        }
+        if (m_forwardFinder != null)
+        {
+            ForwardFinderSearch<MATCHRESULT> search = new ForwardFinderSearch<>(m_matcher, m_forwardFinder);
+            if (!search.reset(src, array, base, len).find(0))
+            {
+                return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
+            }
+            return new ForwardIteratorImpl<>(src, array, base, search);
+        }
+        int pos=len;
         DfaState<?> finderState = m_reverseFinder;
         if (finderState == null)
         {
             return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
         }
+        final FirstCharFilter skipFilter = finderState.getFirstCharFilter(true);
         //see if the string has at least one match.  If there are
         //no matches, then we don't have to allocate anything
-        for (;;)
+        //These loops are specialized for arrays, to avoid CharSequence.charAt calls
+        if (array != null)
         {
-            if (pos<=0)
+            do
             {
-                return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
-            }
-            --pos;
-            finderState = finderState.getNextState(src.charAt(pos));
-            if (finderState == null)
-            {
-                return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
-            }
-            if (finderState.getMatch() != null)
+                if (finderState == m_reverseFinder)
+                {
+                    //skip over characters that would leave us in the start state
+                    pos = skipFilter.skipBack(src, array, base, pos, 0);
+                }
+                if (pos<=0)
+                {
+                    return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
+                }
+                --pos;
+                finderState = finderState.getNextState(array[base+pos]);
+                if (finderState == null)
+                {
+                    return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
+                }
+            } while (finderState.getMatch() == null);
+        }
+        else
+        {
+            do
             {
-                break;
-            }
+                if (finderState == m_reverseFinder)
+                {
+                    pos = skipFilter.skipBack(src, array, base, pos, 0);
+                }
+                if (pos<=0)
+                {
+                    return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
+                }
+                --pos;
+                finderState = finderState.getNextState(src.charAt(pos));
+                if (finderState == null)
+                {
+                    return (StringMatchIterator<MATCHRESULT>)NO_MATCHES;
+                }
+            } while (finderState.getMatch() == null);
         }
         //found at least one (the last) match
         //make a bit mask of matching positions, starting at the end
-        int[] maskArray = new int[8];
-        maskArray[maskArray.length-1] = 1<<31;
-        int maskStartPos = pos-(maskArray.length*32-1);
-        while(pos > 0)
+        MatchMask mask = new MatchMask(pos);
+        if (array != null)
         {
-            --pos;
-            finderState = finderState.getNextState(src.charAt(pos));
-            if (finderState == null)
+            while(pos > 0)
             {
-                break;
+                if (finderState == m_reverseFinder)
+                {
+                    pos = skipFilter.skipBack(src, array, base, pos, 0);
+                    if (pos <= 0)
+                    {
+                        break;
+                    }
+                }
+                --pos;
+                finderState = finderState.getNextState(array[base+pos]);
+                if (finderState == null)
+                {
+                    break;
+                }
+                if (finderState.getMatch() != null)
+                {
+                    mask.add(pos);
+                }
             }
-            if (finderState.getMatch() != null)
+        }
+        else
+        {
+            while(pos > 0)
             {
-                if (pos < maskStartPos)
+                if (finderState == m_reverseFinder)
                 {
-                    //need a longer array
-                    int toadd = Math.max(maskStartPos-pos, maskArray.length<<5);
-                    toadd = (toadd+31)>>5; //bits to ints
-                    int[] newMask = new int[maskArray.length + toadd];
-                    for (int i=0;i<maskArray.length;++i)
+                    pos = skipFilter.skipBack(src, array, base, pos, 0);
+                    if (pos <= 0)
                     {
-                        newMask[i+toadd] = maskArray[i];
+                        break;
                     }
-                    maskArray = newMask;
-                    maskStartPos -= toadd<<5;
-                    assert(maskStartPos<=pos);
                 }
-                int offset = pos-maskStartPos;
-                maskArray[offset>>>5] |= 1<<(offset&31);
+                --pos;
+                finderState = finderState.getNextState(src.charAt(pos));
+                if (finderState == null)
+                {
+                    break;
+                }
+                if (finderState.getMatch() != null)
+                {
+                    mask.add(pos);
+                }
             }
         }
-        return new IteratorImpl<>(src, m_matcher, maskArray, maskStartPos);
+        return new IteratorImpl<>(src, array, base, len, m_matcher, mask);
     }
 
     /**
@@ -129,6 +387,21 @@ public class StringSearcher<MATCHRESULT>
      * @return the new string with values replaced
      */
     public String findAndReplace(String src, ReplacementSelector<? super MATCHRESULT> replacer)
+    {
+        return findAndReplace((CharSequence)src, replacer);
+    }
+
+    /**
+     * Replace all occurrences of patterns in a character sequence
+     * <P>
+     * This is the same as {@link #findAndReplace(String, ReplacementSelector)}, but the source doesn't
+     * have to be a String.
+     * 
+     * @param src  the character sequence to search
+     * @param replacer  the {@link ReplacementSelector} that provides new values for matches in the string
+     * @return the new string with values replaced
+     */
+    public String findAndReplace(CharSequence src, ReplacementSelector<? super MATCHRESULT> replacer)
     {
         StringMatchIterator<MATCHRESULT> it = searchString(src);
         StringReplaceAppendable dest=null;
@@ -170,17 +443,128 @@ public class StringSearcher<MATCHRESULT>
         }
         else
         {
-            return src;
+            return src.toString();
+        }
+    }
+
+    /**
+     * Replace all occurrences of patterns in a range of a character array
+     * <P>
+     * This is the same as {@link #findAndReplace(String, ReplacementSelector)}, but searches
+     * characters in an array.  The replacer is passed a {@link CharBuffer} that wraps the range, so positions
+     * are relative to offset.
+     * 
+     * @param src   array containing the characters to search
+     * @param offset    the position of the first character to search in src
+     * @param length    the number of characters to search
+     * @param replacer  the {@link ReplacementSelector} that provides new values for matches in the string
+     * @return the new string with values replaced
+     * @throws IndexOutOfBoundsException if the range is not within src
+     */
+    public String findAndReplace(char[] src, int offset, int length, ReplacementSelector<? super MATCHRESULT> replacer)
+    {
+        return findAndReplace(CharBuffer.wrap(src, offset, length), replacer);
+    }
+
+    //The positions where matches start, built from the end of the string.  It starts out as a sparse
+    //list of positions, and switches to a bit mask, sized to fit all the positions, when that is smaller
+    private static class MatchMask
+    {
+        //sparse mode: the match start positions, in decreasing order
+        private int[] m_positions;
+        private int m_count;
+        //the number of ints in the bit mask
+        private final int m_maskLen;
+        //dense mode: bit i is set if a match starts at position i.  null in sparse mode
+        private int[] m_maskArray;
+
+        MatchMask(int lastPos)
+        {
+            m_maskLen = (lastPos>>5)+1;
+            m_positions = new int[Math.min(8, m_maskLen)];
+            m_positions[0] = lastPos;
+            m_count = 1;
+        }
+
+        void add(int pos)
+        {
+            if (m_maskArray != null)
+            {
+                m_maskArray[pos>>5] |= 1<<(pos&31);
+                return;
+            }
+            if (m_count >= m_positions.length)
+            {
+                s_maskReallocations.increment();
+                if (m_positions.length*2 >= m_maskLen)
+                {
+                    //switch to dense mode
+                    m_maskArray = new int[m_maskLen];
+                    for (int i = 0; i < m_count; ++i)
+                    {
+                        m_maskArray[m_positions[i]>>5] |= 1<<(m_positions[i]&31);
+                    }
+                    m_positions = null;
+                    m_maskArray[pos>>5] |= 1<<(pos&31);
+                    return;
+                }
+                m_positions = Arrays.copyOf(m_positions, m_positions.length*2);
+            }
+            m_positions[m_count++] = pos;
+        }
+
+        //Get the first match start position in [pos, limit), or -1 if there isn't one
+        int nextStart(int pos, int limit)
+        {
+            if (m_maskArray == null)
+            {
+                //find the first position < pos
+                int lo = 0, hi = m_count;
+                while (lo < hi)
+                {
+                    int mid = (lo+hi)>>>1;
+                    if (m_positions[mid] >= pos)
+                    {
+                        lo = mid+1;
+                    }
+                    else
+                    {
+                        hi = mid;
+                    }
+                }
+                if (lo <= 0 || m_positions[lo-1] >= limit)
+                {
+                    return -1;
+                }
+                return m_positions[lo-1];
+            }
+            limit = Math.min(limit, m_maskLen<<5);
+            while(pos < limit)
+            {
+                int wi = pos>>5;
+                //all bits with positions >= pos&31
+                int bits = m_maskArray[wi] & (-1<<(pos&31));
+                if (bits != 0)
+                {
+                    pos = (wi<<5) + BitUtils.lowBitIndex(bits);
+                    return (pos < limit ? pos : -1);
+                }
+                pos = (wi+1)<<5;   //next start position is after the current word
+            }
+            return -1;
         }
     }
 
 
     private static class IteratorImpl<MR> implements StringMatchIterator<MR>
     {
-        private final String m_src;
+        private final CharSequence m_src;
+        //if this is non-null, it has the characters of m_src, starting at m_arrayBase
+        private final char[] m_array;
+        private final int m_arrayBase;
+        private final int m_len;
         private final DfaState<MR> m_matcher;
-        private final int [] m_matchMask;
-        private final int m_matchMaskPos;
+        private final MatchMask m_matchMask;
         private DfaState<MR> m_nextEndState;
         private int m_nextScanStart; //where we started looking for m_next*
         private int m_nextPos;
@@ -195,17 +579,19 @@ public class StringSearcher<MATCHRESULT>
          * @param src
          * @param matcher
          */
-        IteratorImpl(String src, DfaState<MR> matcher, int[] matchMask, int matchMaskPos)
+        IteratorImpl(CharSequence src, char[] array, int arrayBase, int len, DfaState<MR> matcher, MatchMask matchMask)
         {
             m_src = src;
+            m_array = array;
+            m_arrayBase = arrayBase;
+            m_len = len;
             m_matcher = matcher;
             m_matchMask = matchMask;
-            m_matchMaskPos = matchMaskPos;
             m_nextScanStart = 0;
-            if (!_scanForNext(0, m_src.length()))
+            if (!_scanForNext(0, m_len))
             {
                 m_nextEndState = null;
-                m_nextPos = m_nextEnd = m_src.length();
+                m_nextPos = m_nextEnd = m_len;
             }
         }
 
@@ -228,10 +614,11 @@ public class StringSearcher<MATCHRESULT>
             m_prevString = null;
             //extend the previously found match as far as possible
             DfaState<MR> st = m_nextEndState;
-            final int len = m_src.length();
+            final int len = m_len;
+            final char[] array = m_array;
             for (int pos = m_nextEnd; pos < len; pos++)
             {
-                st = st.getNextState(m_src.charAt(pos));
+                st = st.getNextState(array != null ? array[m_arrayBase+pos] : m_src.charAt(pos));
                 if (st == null)
                 {
                     break;
@@ -281,7 +668,14 @@ public class StringSearcher<MATCHRESULT>
                 {
                     throw new IllegalStateException();
                 }
-                m_prevString = m_src.substring(m_prevPos, m_prevEnd);
+                if (m_array != null)
+                {
+                    m_prevString = new String(m_array, m_arrayBase + m_prevPos, m_prevEnd - m_prevPos);
+                }
+                else
+                {
+                    m_prevString = m_src.subSequence(m_prevPos, m_prevEnd).toString();
+                }
             }
             return m_prevString;
         }
@@ -310,10 +704,10 @@ public class StringSearcher<MATCHRESULT>
                     return true;
                 }
                 m_nextScanStart = pos;
-                if (!_scanForNext(pos, m_src.length()))
+                if (!_scanForNext(pos, m_len))
                 {
                     m_nextEndState = null;
-                    m_nextPos = m_nextEnd = m_src.length();
+                    m_nextPos = m_nextEnd = m_len;
                     return false;
                 }
                 return true;
@@ -331,39 +725,22 @@ public class StringSearcher<MATCHRESULT>
         
         private boolean _scanForNext(int start, int end)
         {
-            if (start < m_matchMaskPos)
-            {
-                start = m_matchMaskPos;
-            }
-            //switch from string positions to mask array bit positions
-            start -= m_matchMaskPos;
-            end -= m_matchMaskPos;
-            while(start < end)
+            for (;;)
             {
-                int wi = start>>5;
-                if (wi >= m_matchMask.length)
+                final int trypos = m_matchMask.nextStart(start, end);
+                if (trypos < 0)
                 {
                     return false;
                 }
-                //all bits with positions >= start&31
-                int mask = -1<<(start&31);
-                mask &= m_matchMask[wi];    //only ones with bits set
-                if (mask == 0)
-                {
-                    start = (start|31)+1;   //next start position is after the current word
-                    continue;
-                }
-                //move start position up to next bit set
-                start = (wi<<5)+BitUtils.lowBitIndex(mask);
                 
-                //get corresponding string position and find the _shortest_ match
+                //find the _shortest_ match
                 //(it will be expanded to the longest match when next() is called)
-                final int trypos = start + m_matchMaskPos;
-                final int len = m_src.length();
+                final int len = m_len;
+                final char[] array = m_array;
                 DfaState<MR> st = m_matcher;
                 for (int pos = trypos; pos<len; ++pos)
                 {
-                    st = st.getNextState(m_src.charAt(pos));
+                    st = st.getNextState(array != null ? array[m_arrayBase+pos] : m_src.charAt(pos));
                     if (st == null)
                     {
                         break;
@@ -378,9 +755,116 @@ public class StringSearcher<MATCHRESULT>
                     }
                 }
                 //missed (shouldn't happen if the reverse finder is accurate)
-                ++start;
+                start = trypos+1;
             }
-            return false;
+        }
+    }
+    
+    //Iterator for SearchMode.FORWARD_FINDER
+    private static class ForwardIteratorImpl<MR> implements StringMatchIterator<MR>
+    {
+        private final CharSequence m_src;
+        //if this is non-null, it has the characters of m_src, starting at m_arrayBase
+        private final char[] m_array;
+        private final int m_arrayBase;
+        //holds the next match
+        private final ForwardFinderSearch<MR> m_search;
+        private boolean m_hasNext;
+        private int m_prevPos;
+        private int m_prevEnd;
+        private MR m_prevResult;
+        private String m_prevString;
+        
+        //search must have found the first match already
+        ForwardIteratorImpl(CharSequence src, char[] array, int arrayBase, ForwardFinderSearch<MR> search)
+        {
+            m_src = src;
+            m_array = array;
+            m_arrayBase = arrayBase;
+            m_search = search;
+            m_hasNext = true;
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return m_hasNext;
+        }
+
+        @Override
+        public MR next()
+        {
+            if (!m_hasNext)
+            {
+                throw new NoSuchElementException();
+            }
+            m_prevPos = m_search.getMatchStart();
+            m_prevEnd = m_search.getMatchEnd();
+            m_prevResult = m_search.getMatchResult();
+            m_prevString = null;
+            m_hasNext = m_search.find(m_prevEnd);
+            return m_prevResult;
+        }
+
+        @Override
+        public int matchStartPosition()
+        {
+            if (m_prevResult == null)
+            {
+                throw new IllegalStateException();
+            }
+            return m_prevPos;
+        }
+
+        @Override
+        public int matchEndPosition()
+        {
+            if (m_prevResult == null)
+            {
+                throw new IllegalStateException();
+            }
+            return m_prevEnd;
+        }
+
+        @Override
+        public String matchValue()
+        {
+            if (m_prevString == null)
+            {
+                if (m_prevResult == null)
+                {
+                    throw new IllegalStateException();
+                }
+                if (m_array != null)
+                {
+                    m_prevString = new String(m_array, m_arrayBase + m_prevPos, m_prevEnd - m_prevPos);
+                }
+                else
+                {
+                    m_prevString = m_src.subSequence(m_prevPos, m_prevEnd).toString();
+                }
+            }
+            return m_prevString;
+        }
+
+        @Override
+        public MR matchResult()
+        {
+            if (m_prevResult == null)
+            {
+                throw new IllegalStateException();
+            }
+            return m_prevResult;
+        }
+
+        @Override
+        public boolean reposition(int pos)
+        {
+            if (!m_hasNext || pos != m_search.getMatchStart())
+            {
+                m_hasNext = m_search.find(pos);
+            }
+            return m_hasNext;
         }
     }
     
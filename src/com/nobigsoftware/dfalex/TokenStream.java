@@ -0,0 +1,297 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of tokens produced by a {@link Lexer}, packed into an int array
+ * <P>
+ * Each token is stored as three consecutive ints: its token ID, its start position, and its length.
+ * Token i is at positions 3*i to 3*i+2 of {@link #getArray()}.  No object is allocated per token, and
+ * a stream can be cleared and reused to tokenize many inputs.
+ * <P>
+ * For each token, the stream also records its reach: the position before which all the characters
+ * that determined the tokens up to and including it were read.  See {@link #getReach(int)}.  This allows
+ * {@link Lexer#relex(CharSequence, TokenStream, int, int, int)} to update the stream after an edit
+ * without re-lexing the whole input.
+ * <P>
+ * Instances of this class are not thread-safe.
+ */
+public final class TokenStream
+{
+    private int[] m_data;
+    //reach of each token
+    private int[] m_reach;
+    private int m_size = 0;
+    //reach of the input that was skipped before the first token was added.  It's included
+    //in the reach of the first token
+    private int m_leadingReach = Integer.MIN_VALUE;
+
+    /**
+     * Create a new empty TokenStream
+     */
+    public TokenStream()
+    {
+        this(16);
+    }
+
+    /**
+     * Create a new empty TokenStream with an initial capacity
+     * 
+     * @param capacity the number of tokens the stream can hold before it needs to grow
+     */
+    public TokenStream(int capacity)
+    {
+        capacity = Math.max(capacity, 1);
+        m_data = new int[capacity*3];
+        m_reach = new int[capacity];
+    }
+
+    /**
+     * @return the number of tokens in the stream
+     */
+    public int size()
+    {
+        return m_size;
+    }
+
+    /**
+     * Remove all the tokens from the stream.  The storage is retained for reuse.
+     */
+    public void clear()
+    {
+        m_size = 0;
+        m_leadingReach = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Remove tokens from the end of the stream
+     * 
+     * @param size the number of tokens to keep
+     */
+    public void truncate(int size)
+    {
+        if (size < 0 || size > m_size)
+        {
+            throw new IndexOutOfBoundsException("Invalid token stream size " + size);
+        }
+        m_size = size;
+        if (size == 0)
+        {
+            m_leadingReach = Integer.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Add a token to the end of the stream
+     * <P>
+     * The reach of the token is unknown, so it is set to {@link Integer#MAX_VALUE}.
+     * 
+     * @param tokenId the token ID
+     * @param start the start position of the token
+     * @param length the length of the token
+     */
+    public void add(int tokenId, int start, int length)
+    {
+        add(tokenId, start, length, Integer.MAX_VALUE);
+    }
+
+    //add a token with a known reach
+    void add(int tokenId, int start, int length, int reach)
+    {
+        int pos = m_size*3;
+        if (pos + 3 > m_data.length)
+        {
+            m_data = Arrays.copyOf(m_data, m_data.length*2);
+            m_reach = Arrays.copyOf(m_reach, m_data.length/3);
+        }
+        m_data[pos] = tokenId;
+        m_data[pos+1] = start;
+        m_data[pos+2] = length;
+        //reaches never decrease
+        m_reach[m_size] = Math.max(reach, m_size > 0 ? m_reach[m_size-1] : m_leadingReach);
+        ++m_size;
+    }
+
+    /**
+     * @param index the index of a token in the stream
+     * @return the ID of the token
+     */
+    public int getTokenId(int index)
+    {
+        return m_data[_check(index)*3];
+    }
+
+    /**
+     * @param index the index of a token in the stream
+     * @return the start position of the token
+     */
+    public int getStart(int index)
+    {
+        return m_data[_check(index)*3+1];
+    }
+
+    /**
+     * @param index the index of a token in the stream
+     * @return the length of the token
+     */
+    public int getLength(int index)
+    {
+        return m_data[_check(index)*3+2];
+    }
+
+    /**
+     * @param index the index of a token in the stream
+     * @return the end position of the token
+     */
+    public int getEnd(int index)
+    {
+        index = _check(index)*3;
+        return m_data[index+1] + m_data[index+2];
+    }
+
+    /**
+     * Get the reach of a token
+     * <P>
+     * The tokens up to and including this one, and the position at which lexing continues after it,
+     * depend only on the characters before the reach.  Reaching the end of the input counts as reading
+     * the position at the end, so the reach can be one more than the input length.  Tokens added with
+     * {@link #add(int, int, int)} have unknown reach, recorded as {@link Integer#MAX_VALUE}.
+     * <P>
+     * Reaches never decrease from one token to the next.
+     * 
+     * @param index the index of a token in the stream
+     * @return the reach of the token
+     */
+    public int getReach(int index)
+    {
+        return m_reach[_check(index)];
+    }
+
+    /**
+     * Get the array that holds the tokens
+     * <P>
+     * Token i is at positions 3*i (ID), 3*i+1 (start), and 3*i+2 (length).  Only the first
+     * 3*{@link #size()} entries are valid.  The array is replaced when the stream grows,
+     * so it should not be retained while tokens are added.
+     * 
+     * @return the packed token array
+     */
+    public int[] getArray()
+    {
+        return m_data;
+    }
+
+    /**
+     * Copy the tokens into a new array
+     * 
+     * @return a packed array of exactly 3*{@link #size()} ints
+     */
+    public int[] toArray()
+    {
+        return Arrays.copyOf(m_data, m_size*3);
+    }
+
+    //replace the length of the last token
+    void setLastLength(int length)
+    {
+        m_data[m_size*3-1] = length;
+    }
+
+    //increase the reach of the last token, or of the skipped input before the first one
+    //if there are no tokens yet
+    void extendReach(int reach)
+    {
+        if (m_size == 0)
+        {
+            m_leadingReach = Math.max(m_leadingReach, reach);
+        }
+        else if (m_reach[m_size-1] < reach)
+        {
+            m_reach[m_size-1] = reach;
+        }
+    }
+
+    //find the first token with reach greater than pos, or size() if there isn't one
+    int findFirstReachAfter(int pos)
+    {
+        int lo = 0, hi = m_size;
+        while (hi > lo)
+        {
+            int test = lo+((hi-lo)>>1);
+            if (m_reach[test] <= pos)
+            {
+                lo = test+1;
+            }
+            else
+            {
+                hi = test;
+            }
+        }
+        return lo;
+    }
+
+    //Replace the tokens in [from, to) with all the tokens in src, and shift the positions of
+    //the tokens after them by delta
+    void replace(int from, int to, TokenStream src, int delta)
+    {
+        final int tail = m_size - to;
+        final int newSize = from + src.m_size + tail;
+        if (newSize*3 > m_data.length)
+        {
+            int cap = Math.max(newSize, m_data.length*2/3);
+            m_data = Arrays.copyOf(m_data, cap*3);
+            m_reach = Arrays.copyOf(m_reach, cap);
+        }
+        System.arraycopy(m_data, to*3, m_data, (from + src.m_size)*3, tail*3);
+        System.arraycopy(m_reach, to, m_reach, from + src.m_size, tail);
+        System.arraycopy(src.m_data, 0, m_data, from*3, src.m_size*3);
+        System.arraycopy(src.m_reach, 0, m_reach, from, src.m_size);
+        m_size = newSize;
+        if (from == 0)
+        {
+            m_leadingReach = src.m_leadingReach;
+        }
+        int maxReach = (from > 0 ? m_reach[from-1] : m_leadingReach);
+        for (int i = from; i < from + src.m_size; ++i)
+        {
+            maxReach = Math.max(maxReach, m_reach[i]);
+            m_reach[i] = maxReach;
+        }
+        for (int i = from + src.m_size; i < newSize; ++i)
+        {
+            m_data[i*3+1] += delta;
+            int reach = m_reach[i];
+            if (reach != Integer.MAX_VALUE)
+            {
+                reach += delta;
+            }
+            //keep reaches from decreasing
+            maxReach = Math.max(maxReach, reach);
+            m_reach[i] = maxReach;
+        }
+    }
+
+    private int _check(int index)
+    {
+        if (index < 0 || index >= m_size)
+        {
+            throw new IndexOutOfBoundsException("Invalid token index " + index);
+        }
+        return index;
+    }
+}
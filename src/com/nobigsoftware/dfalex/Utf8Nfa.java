@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.ArrayList;
+
+/**
+ * Transforms an NFA over UTF-16 characters into an equivalent NFA over UTF-8 bytes
+ * <P>
+ * Each transition on a range of characters is replaced by paths of transitions on byte
+ * ranges that match the UTF-8 encodings of those characters, using the same range-splitting
+ * method as RE2 and Rust's regex-automata.  A transition on high surrogates followed by a
+ * transition on low surrogates is replaced by the 4-byte encodings of the supplementary code points they
+ * combine to make.  Unpaired surrogates have no UTF-8 encoding, so they are never matched.
+ * <P>
+ * In the new NFA, byte values are represented as characters 0-255.  States of the original NFA
+ * keep their numbers, so the start states don't change.
+ */
+final class Utf8Nfa
+{
+    private static final int MIN_HIGH_SURROGATE = 0xD800;
+    private static final int MAX_HIGH_SURROGATE = 0xDBFF;
+    private static final int MIN_LOW_SURROGATE = 0xDC00;
+    private static final int MAX_LOW_SURROGATE = 0xDFFF;
+    //the largest code point with each UTF-8 encoded length
+    private static final int[] MAX_FOR_LENGTH = {0x7F, 0x7FF, 0xFFFF, 0x10FFFF};
+
+    private final Nfa<?> m_src;
+    private final Nfa<?> m_dest;
+    //scratch space
+    private final int[] m_tempStartBytes = new int[4];
+    private final int[] m_tempEndBytes = new int[4];
+
+    private Utf8Nfa(Nfa<?> src, Nfa<?> dest)
+    {
+        m_src = src;
+        m_dest = dest;
+    }
+
+    /**
+     * Make a UTF-8 version of an NFA
+     *
+     * @param nfa the NFA over UTF-16 characters
+     * @return a new NFA over bytes, in which the states of nfa have the same numbers
+     */
+    static <R> Nfa<R> toUtf8(Nfa<R> nfa)
+    {
+        final Nfa<R> dest = new Nfa<>();
+        final int numStates = nfa.numStates();
+        for (int st = 0; st < numStates; ++st)
+        {
+            dest.addState(nfa.getAccept(st));
+        }
+        Utf8Nfa transformer = new Utf8Nfa(nfa, dest);
+        for (int st = 0; st < numStates; ++st)
+        {
+            final int from = st;
+            nfa.forStateEpsilons(from, to -> dest.addEpsilon(from, to));
+            nfa.forStateTransitions(from, trans -> transformer._addTransition(from, trans));
+        }
+        return dest;
+    }
+
+    private void _addTransition(int from, NfaTransition trans)
+    {
+        final int first = trans.m_firstChar;
+        final int last = trans.m_lastChar;
+        //the part before the surrogates
+        if (first < MIN_HIGH_SURROGATE)
+        {
+            _addCodePointRange(from, first, Math.min(last, MIN_HIGH_SURROGATE-1), trans.m_stateNum);
+        }
+        //the part after the surrogates
+        if (last > MAX_LOW_SURROGATE)
+        {
+            _addCodePointRange(from, Math.max(first, MAX_LOW_SURROGATE+1), last, trans.m_stateNum);
+        }
+        //high surrogates combine with the low surrogates that follow them
+        final int firstHigh = Math.max(first, MIN_HIGH_SURROGATE);
+        final int lastHigh = Math.min(last, MAX_HIGH_SURROGATE);
+        if (firstHigh <= lastHigh)
+        {
+            _addSurrogatePairs(from, firstHigh, lastHigh, trans.m_stateNum);
+        }
+    }
+
+    private void _addSurrogatePairs(int from, int firstHigh, int lastHigh, int highTarget)
+    {
+        //find the low surrogate transitions reachable from the high surrogate's target
+        final CompactIntSubset closure = new CompactIntSubset(m_src.numStates());
+        final ArrayList<Integer> queue = new ArrayList<>();
+        closure.add(highTarget);
+        queue.add(highTarget);
+        for (int i = 0; i < queue.size(); ++i)
+        {
+            m_src.forStateEpsilons(queue.get(i), st -> {
+                if (closure.add(st))
+                {
+                    queue.add(st);
+                }
+            });
+        }
+        for (Integer st : queue)
+        {
+            m_src.forStateTransitions(st, trans -> {
+                final int firstLow = Math.max(trans.m_firstChar, MIN_LOW_SURROGATE);
+                final int lastLow = Math.min(trans.m_lastChar, MAX_LOW_SURROGATE);
+                if (firstLow > lastLow)
+                {
+                    return;
+                }
+                if (firstLow == MIN_LOW_SURROGATE && lastLow == MAX_LOW_SURROGATE)
+                {
+                    //all low surrogates.  The code points are contiguous
+                    _addCodePointRange(from, Character.toCodePoint((char)firstHigh, (char)firstLow),
+                            Character.toCodePoint((char)lastHigh, (char)lastLow), trans.m_stateNum);
+                    return;
+                }
+                for (int high = firstHigh; high <= lastHigh; ++high)
+                {
+                    _addCodePointRange(from, Character.toCodePoint((char)high, (char)firstLow),
+                            Character.toCodePoint((char)high, (char)lastLow), trans.m_stateNum);
+                }
+            });
+        }
+    }
+
+    //Add paths from -> to that match the UTF-8 encodings of code points in [start, end]
+    private void _addCodePointRange(int from, int start, int end, int to)
+    {
+        //split into ranges with the same encoded length
+        for (int len = 1; len <= 4 && start <= end; ++len)
+        {
+            final int max = MAX_FOR_LENGTH[len-1];
+            if (start <= max)
+            {
+                _addSameLengthRange(from, start, Math.min(end, max), to, len);
+                start = max+1;
+            }
+        }
+    }
+
+    private void _addSameLengthRange(int from, int start, int end, int to, int len)
+    {
+        //split the range until the encodings of start and end differ only in a prefix of
+        //bytes that are otherwise unconstrained
+        for (int i = 1; i < len; ++i)
+        {
+            final int m = (1 << (6*i)) - 1;
+            if ((start & ~m) != (end & ~m))
+            {
+                if ((start & m) != 0)
+                {
+                    _addSameLengthRange(from, start, start | m, to, len);
+                    _addSameLengthRange(from, (start | m) + 1, end, to, len);
+                    return;
+                }
+                if ((end & m) != m)
+                {
+                    _addSameLengthRange(from, start, (end & ~m) - 1, to, len);
+                    _addSameLengthRange(from, end & ~m, end, to, len);
+                    return;
+                }
+            }
+        }
+        _encode(start, len, m_tempStartBytes);
+        _encode(end, len, m_tempEndBytes);
+        int st = from;
+        for (int i = 0; i < len; ++i)
+        {
+            final int next = (i == len-1 ? to : m_dest.addState(null));
+            m_dest.addTransition(st, next, (char)m_tempStartBytes[i], (char)m_tempEndBytes[i]);
+            st = next;
+        }
+    }
+
+    private static void _encode(int cp, int len, int[] dest)
+    {
+        switch(len)
+        {
+        case 1:
+            dest[0] = cp;
+            break;
+        case 2:
+            dest[0] = 0xC0 | (cp >> 6);
+            dest[1] = 0x80 | (cp & 0x3F);
+            break;
+        case 3:
+            dest[0] = 0xE0 | (cp >> 12);
+            dest[1] = 0x80 | ((cp >> 6) & 0x3F);
+            dest[2] = 0x80 | (cp & 0x3F);
+            break;
+        default:
+            dest[0] = 0xF0 | (cp >> 18);
+            dest[1] = 0x80 | ((cp >> 12) & 0x3F);
+            dest[2] = 0x80 | ((cp >> 6) & 0x3F);
+            dest[3] = 0x80 | (cp & 0x3F);
+            break;
+        }
+    }
+}
@@ -37,6 +37,60 @@ public class BuilderCacheTest extends TestBase
         Assert.assertEquals(2, cache.m_hits);
     }
     
+    @Test
+    public void testCompiled() throws Exception
+    {
+        InMemoryBuilderCache cache = new InMemoryBuilderCache();
+        String src = _readResource("SearcherTestInput.txt");
+        String want = null;
+        for (int i = 0; i < 2; ++i)
+        {
+            DfaBuilder<JavaToken> builder = new DfaBuilder<>(cache);
+            for (JavaToken tok : JavaToken.values())
+            {
+                builder.addPattern(tok.m_pattern, tok);
+            }
+            CompiledDfa<JavaToken> dfa = builder.buildCompiled(null);
+            Assert.assertEquals(DfaClassGenerator.CLASS_NAME, dfa.getClass().getName());
+            StringBuilder sb = new StringBuilder();
+            StringMatcher m = new StringMatcher(src);
+            for (JavaToken tok = m.findNext(dfa); tok != null; tok = m.findNext(dfa))
+            {
+                sb.append(tok).append(':').append(m.getLastMatch()).append('\n');
+            }
+            if (want == null)
+            {
+                want = sb.toString();
+            }
+            Assert.assertEquals(want, sb.toString());
+            Assert.assertEquals(1, cache.m_cache.size());
+            Assert.assertEquals(i, cache.m_hits);
+        }
+    }
+    
+    @Test
+    public void testBinaryFormat() throws Exception
+    {
+        InMemoryBuilderCache cache = new InMemoryBuilderCache();
+        int serializedSize = 0;
+        {
+            DfaBuilder<JavaToken> builder = new DfaBuilder<>(cache);
+            _build(builder);
+            serializedSize = cache.m_cache.values().iterator().next().length;
+            cache.m_cache.clear();
+        }
+        for (int i = 0; i < 2; ++i)
+        {
+            DfaBuilder<JavaToken> builder = new DfaBuilder<>(cache);
+            builder.setResultCodec(DfaBinaryFormatTest.JAVATOKEN_CODEC);
+            _build(builder);
+            Assert.assertEquals(1, cache.m_cache.size());
+            Assert.assertEquals(i, cache.m_hits);
+        }
+        int binarySize = cache.m_cache.values().iterator().next().length;
+        Assert.assertTrue(binarySize*2 < serializedSize);
+    }
+    
     private void _build(DfaBuilder<JavaToken> builder) throws Exception
     {
         for (JavaToken tok : JavaToken.values())
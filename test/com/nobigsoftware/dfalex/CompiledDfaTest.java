@@ -0,0 +1,96 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompiledDfaTest extends TestBase
+{
+    @Test
+    public void testJavaTokens() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        DfaState<JavaToken> start = builder.build(null);
+        CompiledDfa<JavaToken> compiled = builder.buildCompiled(null);
+
+        String src = _readResource("SearcherTestInput.txt");
+        StringMatcher want = new StringMatcher(src);
+        StringMatcher have = new StringMatcher(src);
+        for (int pos = 0; pos < src.length(); ++pos)
+        {
+            Assert.assertEquals(want.matchAt(start, pos), have.matchAt(compiled, pos));
+            Assert.assertEquals(want.getLastMatchEnd(), have.getLastMatchEnd());
+        }
+
+        want.reset();
+        have.reset();
+        for (;;)
+        {
+            JavaToken tok = want.findNext(start);
+            Assert.assertEquals(tok, have.findNext(compiled));
+            if (tok == null)
+            {
+                break;
+            }
+            Assert.assertEquals(want.getLastMatchStart(), have.getLastMatchStart());
+            Assert.assertEquals(want.getLastMatchEnd(), have.getLastMatchEnd());
+        }
+    }
+
+    @Test
+    public void testWholeString() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        for (int i=0;i<10000;++i)
+        {
+            builder.addPattern(Pattern.match(Integer.toString(i)), i%7);
+        }
+        CompiledDfa<Integer> compiled = builder.buildCompiled(null);
+        Assert.assertEquals(DfaClassGenerator.CLASS_NAME, compiled.getClass().getName());
+        Assert.assertEquals(null, compiled.matchWholeString(""));
+        Assert.assertEquals(null, compiled.matchWholeString("10001"));
+        Assert.assertEquals(null, compiled.matchWholeString("12x"));
+        for (int i=0;i<10000;++i)
+        {
+            Assert.assertEquals((Integer)(i%7), compiled.matchWholeString(Integer.toString(i)));
+        }
+    }
+
+    @Test
+    public void testTooBig() throws Exception
+    {
+        //a DFA with too many states to fit in one method
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        for (int i = 0; i < 20000; ++i)
+        {
+            builder.addPattern(Pattern.match(Integer.toString(i*7919, 36)), i);
+        }
+        DfaState<Integer> start = builder.build(null);
+        CompiledDfa<Integer> compiled = builder.buildCompiled(null);
+        Assert.assertFalse(DfaClassGenerator.CLASS_NAME.equals(compiled.getClass().getName()));
+        for (int i = 0; i < 20000; i += 7)
+        {
+            String s = Integer.toString(i*7919, 36);
+            Assert.assertEquals(StringMatcher.matchWholeString(start, s), compiled.matchWholeString(s));
+            Assert.assertEquals(StringMatcher.matchWholeString(start, s+"x"), compiled.matchWholeString(s+"x"));
+        }
+    }
+}
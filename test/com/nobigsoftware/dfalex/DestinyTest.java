@@ -6,6 +6,10 @@ import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.junit.Assert;
@@ -74,4 +78,52 @@ public class DestinyTest extends TestBase
             Assert.assertEquals("State " + i + " destiny", wantDestiny, destinies.get(i));
         }
     }
+
+    @Test
+    public void testConcurrent() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>(null);
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        DfaState<JavaToken> start = builder.build(null);
+        DfaAuxiliaryInformation<JavaToken> wantInfo = new DfaAuxiliaryInformation<>(Collections.singleton(start));
+        final int[] wantCycles = wantInfo.getCycleNumbers().clone();
+        final List<JavaToken> wantDestinies = new ArrayList<>(wantInfo.getDestinies());
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try
+        {
+            for (int round = 0; round < 20; ++round)
+            {
+                //all the threads ask a fresh instance at the same time, some for destinies first
+                DfaAuxiliaryInformation<JavaToken> auxInfo = new DfaAuxiliaryInformation<>(Collections.singleton(start));
+                CyclicBarrier barrier = new CyclicBarrier(8);
+                List<Future<?>> futures = new ArrayList<>();
+                for (int i = 0; i < 8; ++i)
+                {
+                    final boolean destiniesFirst = (i & 1) != 0;
+                    futures.add(pool.submit(() -> {
+                        barrier.await();
+                        if (destiniesFirst)
+                        {
+                            Assert.assertEquals(wantDestinies, new ArrayList<>(auxInfo.getDestinies()));
+                        }
+                        Assert.assertArrayEquals(wantCycles, auxInfo.getCycleNumbers());
+                        Assert.assertEquals(wantDestinies, new ArrayList<>(auxInfo.getDestinies()));
+                        return null;
+                    }));
+                }
+                for (Future<?> f : futures)
+                {
+                    f.get();
+                }
+            }
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
 }
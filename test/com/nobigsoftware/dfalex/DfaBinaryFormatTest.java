@@ -0,0 +1,160 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DfaBinaryFormatTest extends TestBase
+{
+    static final DfaResultCodec<JavaToken> JAVATOKEN_CODEC = new DfaResultCodec<JavaToken>()
+    {
+        @Override
+        public void writeResult(JavaToken result, DataOutput out) throws IOException
+        {
+            out.writeByte(result.ordinal());
+        }
+
+        @Override
+        public JavaToken readResult(DataInput in) throws IOException
+        {
+            return JavaToken.values()[in.readUnsignedByte()];
+        }
+    };
+
+    @Test
+    public void testRoundTrip() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        Set<JavaToken> lang = EnumSet.allOf(JavaToken.class);
+        List<DfaState<JavaToken>> starts = builder.build(Arrays.asList(lang, lang), null);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DfaBinaryFormat.write(starts, JAVATOKEN_CODEC, bytes);
+        bytes.write(42);
+        byte[] data = bytes.toByteArray();
+
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        List<DfaState<JavaToken>> haveStarts = DfaBinaryFormat.read(in, JAVATOKEN_CODEC);
+        Assert.assertEquals(2, haveStarts.size());
+        Assert.assertSame(haveStarts.get(0), haveStarts.get(1));
+        _checkDfa(haveStarts.get(0), "JavaTest.out.txt", false);
+        //exactly the DFA bytes were read
+        Assert.assertEquals(42, in.read());
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        haveStarts = DfaBinaryFormat.read(buf, JAVATOKEN_CODEC, DfaStateRepresentation.ASCII_TABLE);
+        _checkDfa(haveStarts.get(0), "JavaTest.out.txt", false);
+        Assert.assertEquals(1, buf.remaining());
+
+        //writing again produces the same bytes
+        bytes.reset();
+        DfaBinaryFormat.write(haveStarts, JAVATOKEN_CODEC, bytes);
+        Assert.assertArrayEquals(Arrays.copyOf(data, data.length-1), bytes.toByteArray());
+    }
+
+    @Test
+    public void testConcurrentMaterialization() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DfaBinaryFormat.write(Arrays.asList(builder.build(null)), JAVATOKEN_CODEC, bytes);
+        RawDfa<JavaToken> raw = DfaBinaryFormat.readRawDfa(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())), JAVATOKEN_CODEC);
+        for (int round = 0; round < 10; ++round)
+        {
+            //all the threads ask for the start states of a fresh DFA at the same time
+            SerializableDfa<JavaToken> dfa = new SerializableDfa<>(raw);
+            CyclicBarrier barrier = new CyclicBarrier(8);
+            List<Future<List<DfaState<JavaToken>>>> futures = new ArrayList<>();
+            ExecutorService pool = Executors.newFixedThreadPool(8);
+            try
+            {
+                for (int i = 0; i < 8; ++i)
+                {
+                    futures.add(pool.submit(() -> {
+                        barrier.await();
+                        List<DfaState<JavaToken>> starts = dfa.getStartStates();
+                        Assert.assertEquals(JavaToken.PUBLIC, StringMatcher.matchWholeString(starts.get(0), "public"));
+                        return starts;
+                    }));
+                }
+                for (Future<List<DfaState<JavaToken>>> f : futures)
+                {
+                    Assert.assertSame(futures.get(0).get(), f.get());
+                }
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void testInvalid() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        builder.addPattern(JavaToken.VOID.m_pattern, JavaToken.VOID);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DfaBinaryFormat.write(Arrays.asList(builder.build(null)), JAVATOKEN_CODEC, bytes);
+        byte[] data = bytes.toByteArray();
+
+        byte[] badMagic = data.clone();
+        badMagic[0] ^= 1;
+        _assertInvalid(badMagic);
+        byte[] badVersion = data.clone();
+        badVersion[4] = 2;
+        _assertInvalid(badVersion);
+        _assertInvalid(Arrays.copyOf(data, data.length-1));
+    }
+
+    private void _assertInvalid(byte[] data)
+    {
+        try
+        {
+            DfaBinaryFormat.read(ByteBuffer.wrap(data), JAVATOKEN_CODEC);
+            Assert.fail("Invalid data was read");
+        }
+        catch(IOException e)
+        {
+        }
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileSearcherTest extends TestBase
+{
+    @Test
+    public void testUtf8() throws Exception
+    {
+        _test(StandardCharsets.UTF_8, "x\u00e9\u4e00\ud83d\ude00y");
+    }
+
+    @Test
+    public void testLatin1() throws Exception
+    {
+        _test(StandardCharsets.ISO_8859_1, "x\u00e9\u00ffy");
+    }
+
+    @Test
+    public void testMaxMatchBytes() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("[a\u00e9]+"), 1);
+        builder.addPattern(Pattern.regex("b"), 2);
+        DfaState<Integer> dfa = builder.build(null);
+        //matches are cut short within a segment, and a character can't straddle the limit
+        byte[] bytes = "aaaaaaaaaa b a\u00e9\u00e9".getBytes(StandardCharsets.UTF_8);
+        String want = "1:0-4:0-4\n1:4-8:4-8\n1:8-10:8-10\n2:11-12:11-12\n1:13-16:13-15\n1:16-18:15-16\n";
+        File file = File.createTempFile("FileSearcherTest", ".txt");
+        try
+        {
+            Files.write(file.toPath(), bytes);
+            StringBuilder have = new StringBuilder();
+            long end = new FileSearcher<>(dfa, 4).search(file.toPath(), StandardCharsets.UTF_8, (r, bs, be, s, e) -> {
+                have.append(r).append(':').append(bs).append('-').append(be).append(':').append(s).append('-').append(e).append('\n');
+                return true;
+            });
+            Assert.assertEquals(bytes.length, end);
+            Assert.assertEquals(want, have.toString());
+        }
+        finally
+        {
+            file.delete();
+        }
+        StringBuilder have = new StringBuilder();
+        new FileSearcher<>(dfa, 4).search(ByteBuffer.wrap(bytes), StandardCharsets.UTF_8, (r, bs, be, s, e) -> {
+            have.append(r).append(':').append(bs).append('-').append(be).append(':').append(s).append('-').append(e).append('\n');
+            return true;
+        });
+        Assert.assertEquals(want, have.toString());
+    }
+
+    @Test
+    public void testNonMatchingMemo() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab]*b"), 1);
+        builder.addPattern(Pattern.regex("ba*c"), 2);
+        DfaState<Integer> dfa = builder.build(null);
+
+        //failed attempts over a long run would take quadratic time without the memo
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i)
+        {
+            sb.append('a');
+        }
+        sb.append("cc");
+        Assert.assertEquals("", _search(new FileSearcher<>(dfa), sb.toString()));
+
+        //attempts cut short by the limit or a segment boundary must not fool the memo
+        Random r = new Random(2468);
+        for (int test = 0; test < 100; ++test)
+        {
+            sb.setLength(0);
+            while (sb.length() < 500)
+            {
+                int run = r.nextInt(40);
+                char c = "aabc".charAt(r.nextInt(4));
+                for (int i = 0; i < run; ++i)
+                {
+                    sb.append(c);
+                }
+            }
+            String src = sb.toString();
+            for (int maxLen : new int[] {5, 17, 1000})
+            {
+                //try every position, without a memo
+                StringBuilder want = new StringBuilder();
+                for (int pos = 0; pos < src.length();)
+                {
+                    DfaState<Integer> state = dfa;
+                    Integer result = null;
+                    int matchEnd = pos;
+                    for (int i = pos; i < Math.min(src.length(), pos + maxLen) && state != null;)
+                    {
+                        state = state.getNextState(src.charAt(i++));
+                        if (state != null && state.getMatch() != null)
+                        {
+                            result = state.getMatch();
+                            matchEnd = i;
+                        }
+                    }
+                    if (result == null)
+                    {
+                        ++pos;
+                        continue;
+                    }
+                    want.append(result).append(':').append(pos).append('-').append(matchEnd).append('\n');
+                    pos = matchEnd;
+                }
+                Assert.assertEquals(want.toString(), _search(new FileSearcher<>(dfa, maxLen), src));
+                Assert.assertEquals(want.toString(), _search(new FileSearcher<>(dfa, maxLen, 31), src));
+            }
+        }
+    }
+
+    private static String _search(FileSearcher<Integer> searcher, String src) throws Exception
+    {
+        StringBuilder have = new StringBuilder();
+        File file = File.createTempFile("FileSearcherTest", ".txt");
+        try
+        {
+            Files.write(file.toPath(), src.getBytes(StandardCharsets.ISO_8859_1));
+            searcher.search(file.toPath(), StandardCharsets.ISO_8859_1, (r, bs, be, s, e) -> {
+                have.append(r).append(':').append(bs).append('-').append(be).append('\n');
+                return true;
+            });
+        }
+        finally
+        {
+            file.delete();
+        }
+        return have.toString();
+    }
+
+    private void _test(Charset charset, String extra) throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        builder.addPattern(Pattern.match(extra), JavaToken.COMMA);
+        DfaState<JavaToken> dfa = builder.build(null);
+        String src = _readResource("SearcherTestInput.txt");
+        src = extra + src.substring(0, 500) + extra + extra + src.substring(500) + extra;
+        byte[] bytes = src.getBytes(charset);
+
+        StringBuilder want = new StringBuilder();
+        StringMatcher m = new StringMatcher(src);
+        for (JavaToken tok = m.findNext(dfa); tok != null; tok = m.findNext(dfa))
+        {
+            int s = m.getLastMatchStart();
+            int e = m.getLastMatchEnd();
+            int bs = src.substring(0, s).getBytes(charset).length;
+            int be = src.substring(0, e).getBytes(charset).length;
+            want.append(tok).append(':').append(bs).append('-').append(be).append(':').append(s).append('-').append(e).append('\n');
+        }
+
+        File file = File.createTempFile("FileSearcherTest", ".txt");
+        try
+        {
+            Files.write(file.toPath(), bytes);
+            //small segments, to test segment boundaries
+            List<FileSearcher<JavaToken>> searchers = Arrays.asList(new FileSearcher<>(dfa), new FileSearcher<>(dfa, 1000, 97));
+            for (FileSearcher<JavaToken> searcher : searchers)
+            {
+                StringBuilder have = new StringBuilder();
+                long end = searcher.search(file.toPath(), charset, (tok, bs, be, s, e) -> {
+                    have.append(tok).append(':').append(bs).append('-').append(be).append(':').append(s).append('-').append(e).append('\n');
+                    return true;
+                });
+                Assert.assertEquals(bytes.length, end);
+                Assert.assertEquals(want.toString(), have.toString());
+            }
+        }
+        finally
+        {
+            file.delete();
+        }
+
+        StringBuilder have = new StringBuilder();
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length+5);
+        buf.put(new byte[5]).put(bytes).flip().position(5);
+        new FileSearcher<>(dfa).search(buf, charset, (tok, bs, be, s, e) -> {
+            have.append(tok).append(':').append(bs).append('-').append(be).append(':').append(s).append('-').append(e).append('\n');
+            return true;
+        });
+        Assert.assertEquals(want.toString(), have.toString());
+        Assert.assertEquals(5, buf.position());
+    }
+}
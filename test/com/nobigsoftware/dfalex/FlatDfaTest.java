@@ -0,0 +1,112 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FlatDfaTest extends TestBase
+{
+    @Test
+    public void testJavaTokens() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        DfaState<JavaToken> start = builder.build(null);
+        FlatDfa<JavaToken> flat = builder.buildFlat(null);
+        Assert.assertEquals(1, flat.getStartStateCount());
+        Assert.assertEquals(_countStates(start), flat.getStateCount());
+        final int flatStart = flat.getStartState(0);
+
+        String src = _readResource("SearcherTestInput.txt");
+        StringMatcher want = new StringMatcher(src);
+        StringMatcher have = new StringMatcher(src);
+        for (int pos = 0; pos < src.length(); ++pos)
+        {
+            Assert.assertEquals(want.matchAt(start, pos), have.matchAt(flat, flatStart, pos));
+            Assert.assertEquals(want.getLastMatchEnd(), have.getLastMatchEnd());
+        }
+
+        want.reset();
+        have.reset();
+        for (;;)
+        {
+            JavaToken tok = want.findNext(start);
+            Assert.assertEquals(tok, have.findNext(flat, flatStart));
+            if (tok == null)
+            {
+                break;
+            }
+            Assert.assertEquals(want.getLastMatchStart(), have.getLastMatchStart());
+            Assert.assertEquals(want.getLastMatchEnd(), have.getLastMatchEnd());
+        }
+    }
+
+    @Test
+    public void testWholeString() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        for (int i=0;i<10000;++i)
+        {
+            builder.addPattern(Pattern.match(Integer.toString(i)), i%7);
+        }
+        FlatDfa<Integer> flat = builder.buildFlat(null);
+        final int start = flat.getStartState(0);
+        Assert.assertEquals(null, StringMatcher.matchWholeString(flat, start, ""));
+        Assert.assertEquals(null, StringMatcher.matchWholeString(flat, start, "10001"));
+        Assert.assertEquals(null, StringMatcher.matchWholeString(flat, start, "12x"));
+        for (int i=0;i<10000;++i)
+        {
+            Assert.assertEquals((Integer)(i%7), StringMatcher.matchWholeString(flat, start, Integer.toString(i)));
+        }
+    }
+
+    @Test
+    public void testCharClasses() throws Exception
+    {
+        DfaBuilder<Boolean> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.match(CharRange.JAVA_LETTER).thenMaybeRepeat(CharRange.JAVA_ID_CHAR), true);
+        FlatDfa<Boolean> flat = builder.buildFlat(null);
+        //letters, digits, and everything else
+        Assert.assertEquals(3, flat.getCharClassCount());
+        Assert.assertEquals(flat.getCharClass('a'), flat.getCharClass('Z'));
+        Assert.assertEquals(flat.getCharClass('a'), flat.getCharClass('$'));
+        Assert.assertEquals(flat.getCharClass(' '), flat.getCharClass('\uffff'));
+        Assert.assertTrue(flat.getCharClass('0') != flat.getCharClass('a'));
+        Assert.assertTrue(flat.getCharClass('0') != flat.getCharClass('-'));
+        final int start = flat.getStartState(0);
+        Assert.assertEquals(Boolean.TRUE, StringMatcher.matchWholeString(flat, start, "$abc_12Z"));
+        Assert.assertEquals(null, StringMatcher.matchWholeString(flat, start, "1abc"));
+
+        //more than 256 classes
+        DfaBuilder<Integer> builder2 = new DfaBuilder<>();
+        for (int i = 0; i < 1000; ++i)
+        {
+            builder2.addPattern(CharRange.single((char)(i*60)), i);
+        }
+        FlatDfa<Integer> flat2 = builder2.buildFlat(null);
+        Assert.assertTrue(flat2.getCharClassCount() > 1000);
+        final int start2 = flat2.getStartState(0);
+        for (int i = 0; i < 1000; ++i)
+        {
+            Assert.assertEquals((Integer)i, StringMatcher.matchWholeString(flat2, start2, String.valueOf((char)(i*60))));
+            Assert.assertEquals(null, StringMatcher.matchWholeString(flat2, start2, String.valueOf((char)(i*60+1))));
+        }
+    }
+}
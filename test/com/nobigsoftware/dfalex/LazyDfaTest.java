@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LazyDfaTest extends TestBase
+{
+    @Test
+    public void testJavaTokens() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        DfaState<JavaToken> start = builder.build(null);
+        DfaState<JavaToken> lazy = builder.buildLazy(null);
+
+        String src = _readResource("SearcherTestInput.txt");
+        StringMatcher want = new StringMatcher(src);
+        StringMatcher have = new StringMatcher(src);
+        for (int pos = 0; pos < src.length(); ++pos)
+        {
+            Assert.assertEquals(want.matchAt(start, pos), have.matchAt(lazy, pos));
+            Assert.assertEquals(want.getLastMatchEnd(), have.getLastMatchEnd());
+        }
+    }
+
+    @Test
+    public void testBlowup() throws Exception
+    {
+        //The DFA for this has 2^21 states
+        StringBuilder sb = new StringBuilder("[ab]*a");
+        for (int i = 0; i < 20; ++i)
+        {
+            sb.append("[ab]");
+        }
+        Nfa<Boolean> nfa = new Nfa<>();
+        int accept = nfa.addState(true);
+        int nfaStart = Pattern.regex(sb.toString()).addToNFA(nfa, accept);
+        LazyDfa<Boolean> dfa = new LazyDfa<>(nfa, new int[] {nfaStart}, null, 1000);
+        DfaState<Boolean> start = dfa.getStartStates().get(0);
+
+        Random r = new Random(1234);
+        char[] chars = new char[200];
+        for (int test = 0; test < 200; ++test)
+        {
+            int len = r.nextInt(chars.length);
+            for (int i = 0; i < len; ++i)
+            {
+                chars[i] = (r.nextBoolean() ? 'a' : 'b');
+            }
+            String str = new String(chars, 0, len);
+            Boolean want = (len >= 21 && chars[len-21] == 'a' ? Boolean.TRUE : null);
+            Assert.assertEquals(want, StringMatcher.matchWholeString(start, str));
+            Assert.assertTrue(dfa.getCachedStateCount() <= 1002);
+        }
+        Assert.assertTrue(dfa.getFlushCount() > 0);
+    }
+
+    @Test
+    public void testBuilder() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        for (int i=0;i<10000;++i)
+        {
+            builder.addPattern(Pattern.match(Integer.toString(i)), i%7);
+        }
+        DfaState<Integer> start = builder.buildLazy(null);
+        Assert.assertEquals(null, StringMatcher.matchWholeString(start, "10001"));
+        Assert.assertEquals(null, StringMatcher.matchWholeString(start, "12x"));
+        for (int i=0;i<10000;++i)
+        {
+            Assert.assertEquals((Integer)(i%7), StringMatcher.matchWholeString(start, Integer.toString(i)));
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.nobigsoftware.dfalex;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LexerTest extends TestBase
+{
+    @Test
+    public void testJavaTokens() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        Lexer<JavaToken> lexer = builder.buildLexer(null, JavaToken::ordinal, LexerErrorPolicy.SKIP);
+        DfaState<JavaToken> dfa = builder.build(null);
+        String src = _readResource("SearcherTestInput.txt");
+        TokenStream tokens = lexer.tokenize(src);
+
+        //compare with tokenizing the slow way
+        StringMatcher matcher = new StringMatcher(src);
+        int count = 0;
+        for (int pos = 0; pos < src.length();)
+        {
+            JavaToken tok = matcher.matchAt(dfa, pos);
+            if (tok == null)
+            {
+                ++pos;
+                continue;
+            }
+            Assert.assertEquals(tok.ordinal(), tokens.getTokenId(count));
+            Assert.assertEquals(pos, tokens.getStart(count));
+            Assert.assertEquals(matcher.getLastMatchEnd(), tokens.getEnd(count));
+            ++count;
+            pos = matcher.getLastMatchEnd();
+        }
+        Assert.assertEquals(count, tokens.size());
+
+        //restart from a token boundary
+        int restart = tokens.size()/2;
+        TokenStream tokens2 = new TokenStream();
+        Assert.assertEquals(src.length(), lexer.tokenize(src, tokens.getStart(restart), src.length(), tokens2));
+        Assert.assertEquals(tokens.size() - restart, tokens2.size());
+        for (int i = 0; i < tokens2.size(); ++i)
+        {
+            Assert.assertEquals(tokens.getTokenId(restart+i), tokens2.getTokenId(i));
+            Assert.assertEquals(tokens.getStart(restart+i), tokens2.getStart(i));
+            Assert.assertEquals(tokens.getLength(restart+i), tokens2.getLength(i));
+        }
+    }
+
+    @Test
+    public void testErrorPolicies() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("[a-z]+"), 1);
+        builder.addPattern(Pattern.regex("[0-9]+"), 2);
+        builder.addPattern(Pattern.regex("a-+b"), 3);
+        String src = "ab12 cd--a--b!?x";
+
+        Lexer<Integer> lexer = builder.buildLexer(null, x -> x, LexerErrorPolicy.SKIP);
+        Assert.assertArrayEquals(new int[] {1,0,2, 2,2,2, 1,5,2, 3,9,4, 1,15,1}, lexer.tokenize(src).toArray());
+
+        lexer = builder.buildLexer(null, x -> x, LexerErrorPolicy.ERROR_TOKEN);
+        Assert.assertArrayEquals(new int[] {1,0,2, 2,2,2, -1,4,1, 1,5,2, -1,7,2, 3,9,4, -1,13,2, 1,15,1},
+                lexer.tokenize(src).toArray());
+        char[] array = ("xx" + src).toCharArray();
+        TokenStream tokens = new TokenStream(1);
+        Assert.assertEquals(src.length(), lexer.tokenize(array, 2, src.length(), tokens));
+        Assert.assertArrayEquals(lexer.tokenize(src).toArray(), tokens.toArray());
+
+        lexer = builder.buildLexer(null, x -> x, LexerErrorPolicy.STOP);
+        tokens.clear();
+        Assert.assertEquals(4, lexer.tokenize(src, 0, src.length(), tokens));
+        Assert.assertArrayEquals(new int[] {1,0,2, 2,2,2}, tokens.toArray());
+    }
+
+    @Test
+    public void testRelex() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("[a-z]+"), 1);
+        builder.addPattern(Pattern.regex("[0-9]+"), 2);
+        builder.addPattern(Pattern.regex("a-+b"), 3);
+        builder.addPattern(Pattern.regex("/\\*([^*]|\\*+[^*/])*\\*+/"), 4);
+        builder.addPattern(Pattern.regex("/"), 5);
+        final String alphabet = "ab-/*1 !";
+        Random r = new Random(8642);
+        for (LexerErrorPolicy policy : LexerErrorPolicy.values())
+        {
+            Lexer<Integer> lexer = builder.buildLexer(null, x -> x, policy);
+            StringBuilder doc = new StringBuilder();
+            TokenStream tokens = lexer.tokenize(doc);
+            for (int edit = 0; edit < 1000; ++edit)
+            {
+                int editStart = r.nextInt(doc.length()+1);
+                int oldEditEnd = Math.min(doc.length(), editStart + r.nextInt(4));
+                StringBuilder insert = new StringBuilder();
+                for (int n = r.nextInt(doc.length() < 200 ? 6 : 3); n > 0; --n)
+                {
+                    insert.append(alphabet.charAt(r.nextInt(alphabet.length())));
+                }
+                doc.replace(editStart, oldEditEnd, insert.toString());
+                int first = lexer.relex(doc, tokens, editStart, oldEditEnd, editStart + insert.length());
+                TokenStream want = lexer.tokenize(doc);
+                Assert.assertArrayEquals(want.toArray(), tokens.toArray());
+                Assert.assertTrue(first <= tokens.size());
+                for (int i = 0; i < first; ++i)
+                {
+                    Assert.assertTrue(tokens.getEnd(i) <= editStart);
+                }
+            }
+        }
+
+        //input skipped before the first token depends on characters after the edit
+        DfaBuilder<Integer> builder2 = new DfaBuilder<>();
+        builder2.addPattern(Pattern.regex("[a-z]+"), 1);
+        builder2.addPattern(Pattern.regex("\"[^\"]*\""), 2);
+        Lexer<Integer> lexer = builder2.buildLexer(null, x -> x, LexerErrorPolicy.SKIP);
+        TokenStream tokens = lexer.tokenize("\"ab x");
+        Assert.assertArrayEquals(new int[] {1,1,2, 1,4,1}, tokens.toArray());
+        lexer.relex("\"ab x\"", tokens, 5, 5, 6);
+        Assert.assertArrayEquals(new int[] {2,0,6}, tokens.toArray());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class NfaStepperTest extends TestBase
+{
+    @Test
+    public void testClosureCache() throws Exception
+    {
+        Nfa<Boolean> nfa = new Nfa<>();
+        int start = _addDictionary(nfa, 1000);
+
+        NfaStepper<Boolean> cached = new NfaStepper<>(nfa, null);
+        NfaStepper<Boolean> uncached = new NfaStepper<>(nfa, null, 0);
+        //small enough to run out
+        NfaStepper<Boolean> limited = new NfaStepper<>(nfa, null, 5000);
+        for (int state = 0; state < nfa.numStates(); ++state)
+        {
+            IntListKey want = _getSignature(uncached, state);
+            Assert.assertEquals(want, _getSignature(cached, state));
+            Assert.assertEquals(want, _getSignature(limited, state));
+        }
+
+        //follow some transitions
+        IntListKey sig = _getSignature(uncached, start);
+        for (int i = 0; i < 10; ++i)
+        {
+            List<IntListKey> wantSigs = new ArrayList<>();
+            List<NfaTransition> want = new ArrayList<>();
+            uncached.getTransitions(sig, key -> _intern(wantSigs, key), want);
+            for (NfaStepper<Boolean> stepper : Arrays.asList(cached, limited))
+            {
+                List<IntListKey> haveSigs = new ArrayList<>();
+                List<NfaTransition> have = new ArrayList<>();
+                stepper.getTransitions(sig, key -> _intern(haveSigs, key), have);
+                Assert.assertEquals(want, have);
+                Assert.assertEquals(wantSigs, haveSigs);
+            }
+            Assert.assertFalse(wantSigs.isEmpty());
+            sig = wantSigs.get(i % wantSigs.size());
+        }
+    }
+
+    @Test
+    public void testDictionarySpeed() throws Exception
+    {
+        Nfa<Boolean> nfa = new Nfa<>();
+        int start = _addDictionary(nfa, 10000);
+        long tstart = System.currentTimeMillis();
+        RawDfa<Boolean> dfa = new DfaFromNfa<>(nfa, new int[] {start}, null).getDfa();
+        long telapsed = System.currentTimeMillis() - tstart;
+        System.out.printf("Made DFA for comma-separated list of 10000 words (%d states) in %1.3f seconds",
+                dfa.getStates().size(), telapsed*.001);
+        System.out.println();
+    }
+
+    private static int _addDictionary(Nfa<Boolean> nfa, int numWords)
+    {
+        Random r = new Random(12345);
+        List<Pattern> words = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numWords; ++i)
+        {
+            sb.setLength(0);
+            for (int len = r.nextInt(8) + 3; len > 0; --len)
+            {
+                sb.append((char)('a' + r.nextInt(26)));
+            }
+            words.add(Pattern.match(sb.toString()));
+        }
+        Pattern dict = Pattern.anyOf(words);
+        Pattern list = dict.thenMaybeRepeat(Pattern.match(",").then(dict));
+        return list.addToNFA(nfa, nfa.addState(Boolean.TRUE));
+    }
+
+    private static IntListKey _getSignature(NfaStepper<Boolean> stepper, int nfaState)
+    {
+        IntListKey[] ret = new IntListKey[1];
+        stepper.getDfaState(nfaState, key -> {
+            ret[0] = new IntListKey(key);
+            return 0;
+        });
+        return ret[0];
+    }
+
+    private static int _intern(List<IntListKey> sigs, IntListKey key)
+    {
+        int i = sigs.indexOf(key);
+        if (i < 0)
+        {
+            i = sigs.size();
+            sigs.add(new IntListKey(key));
+        }
+        return i;
+    }
+}
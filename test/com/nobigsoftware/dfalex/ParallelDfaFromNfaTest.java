@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ParallelDfaFromNfaTest extends TestBase
+{
+    @Test
+    public void testJavaTokens() throws Exception
+    {
+        Nfa<JavaToken> nfa = new Nfa<>();
+        int start = nfa.addState(null);
+        for (JavaToken tok : JavaToken.values())
+        {
+            nfa.addEpsilon(start, tok.m_pattern.addToNFA(nfa, nfa.addState(tok)));
+        }
+        _compare(nfa, new int[] {start, start}, (DfaAmbiguityResolver<JavaToken>)(set -> set.iterator().next()));
+    }
+
+    @Test
+    public void testNumbers() throws Exception
+    {
+        Nfa<Integer> nfa = new Nfa<>();
+        int start1 = nfa.addState(null);
+        int start2 = nfa.addState(null);
+        for (int i = 0; i < 10000; ++i)
+        {
+            int st = Pattern.match(Integer.toString(i)).addToNFA(nfa, nfa.addState(i%7));
+            nfa.addEpsilon(start1, st);
+            if ((i%3) == 0)
+            {
+                nfa.addEpsilon(start2, st);
+            }
+        }
+        _compare(nfa, new int[] {start1, start2}, null);
+    }
+
+    @Test
+    public void testMinimizer() throws Exception
+    {
+        Nfa<Integer> nfa = new Nfa<>();
+        int start = nfa.addState(null);
+        for (int i = 0; i < 100000; ++i)
+        {
+            nfa.addEpsilon(start, Pattern.match(Integer.toString(i)).addToNFA(nfa, nfa.addState(i%7)));
+        }
+        RawDfa<Integer> rawDfa = new DfaFromNfa<>(nfa, new int[] {start}, null).getDfa();
+        RawDfa<Integer> want = new DfaMinimizer<>(rawDfa).getMinimizedDfa();
+        RawDfa<Integer> have = new DfaMinimizer<>(rawDfa, ForkJoinPool.commonPool()).getMinimizedDfa();
+        Assert.assertEquals(36, have.getStates().size());
+        _compareDfas(want, have);
+    }
+
+    @Test
+    public void testBuilder() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        builder.setBuildPool(ForkJoinPool.commonPool());
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        StringSearcher<JavaToken> searcher = builder.buildStringSearcher(null);
+        String instr = _readResource("SearcherTestInput.txt");
+        String want = _readResource("SearcherTestOutput.txt");
+        String have = searcher.findAndReplace(instr, StringSearcherTest::tokenReplace);
+        Assert.assertEquals(want, have);
+    }
+
+    private <R> void _compare(Nfa<R> nfa, int[] startStates, DfaAmbiguityResolver<R> resolver)
+    {
+        RawDfa<R> want = new DfaFromNfa<>(nfa, startStates, resolver).getDfa();
+        RawDfa<R> have = new ParallelDfaFromNfa<>(nfa, startStates, resolver, ForkJoinPool.commonPool()).getDfa();
+        _compareDfas(want, have);
+    }
+
+    private <R> void _compareDfas(RawDfa<R> want, RawDfa<R> have)
+    {
+        Assert.assertArrayEquals(want.getStartStates(), have.getStartStates());
+        Assert.assertEquals(want.getAcceptSets(), have.getAcceptSets());
+        Assert.assertEquals(want.getStates().size(), have.getStates().size());
+        for (int i = 0; i < want.getStates().size(); ++i)
+        {
+            DfaStateInfo wantState = want.getStates().get(i);
+            DfaStateInfo haveState = have.getStates().get(i);
+            Assert.assertEquals(wantState.getAcceptSetIndex(), haveState.getAcceptSetIndex());
+            Assert.assertEquals(wantState.getTransitionCount(), haveState.getTransitionCount());
+            for (int t = 0; t < wantState.getTransitionCount(); ++t)
+            {
+                Assert.assertEquals(wantState.getTransition(t), haveState.getTransition(t));
+            }
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StreamSearcherTest extends TestBase
+{
+    @Test
+    public void testJavaTokens() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        DfaState<JavaToken> dfa = builder.build(null);
+        String src = _readResource("SearcherTestInput.txt");
+
+        StringBuilder want = new StringBuilder();
+        StringMatcher m = new StringMatcher(src);
+        for (JavaToken tok = m.findNext(dfa); tok != null; tok = m.findNext(dfa))
+        {
+            want.append(tok).append(':').append(m.getLastMatchStart()).append(':').append(m.getLastMatch()).append('\n');
+        }
+
+        //small buffers and small reads exercise the buffer management
+        StreamSearcher<JavaToken> searcher = new StreamSearcher<>(dfa, 100);
+        StringBuilder have = new StringBuilder();
+        long end = searcher.search(new ChunkReader(src, 7), (tok, s, e, text) -> {
+            Assert.assertEquals(e-s, text.length());
+            have.append(tok).append(':').append(s).append(':').append(text).append('\n');
+            return true;
+        });
+        Assert.assertEquals(src.length(), end);
+        Assert.assertEquals(want.toString(), have.toString());
+
+        have.setLength(0);
+        end = new StreamSearcher<>(dfa).search(Channels.newChannel(new ByteArrayInputStream(src.getBytes(StandardCharsets.UTF_8))),
+            StandardCharsets.UTF_8, (tok, s, e, text) -> {
+                have.append(tok).append(':').append(s).append(':').append(text).append('\n');
+                return true;
+            });
+        Assert.assertEquals(src.length(), end);
+        Assert.assertEquals(want.toString(), have.toString());
+    }
+
+    @Test
+    public void testStopAndLimit() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab]*b"), 1);
+        builder.addPattern(Pattern.regex("a[ab]*c"), 2);
+        DfaState<Integer> dfa = builder.build(null);
+        String src = "bbbbbaaaaaaaaaaaaaaaaaaaaaaaabbbbcaaaaaaabbbaaaaaaa";
+
+        StringBuilder have = new StringBuilder();
+        long end = new StreamSearcher<>(dfa).search(new StringReader(src), (r, s, e, text) -> {
+            have.append(r).append(':').append(text).append('\n');
+            return false;
+        });
+        Assert.assertEquals("2:aaaaaaaaaaaaaaaaaaaaaaaabbbbc\n", have.toString());
+        Assert.assertEquals(34, end);
+
+        //matches are cut off at the maximum length
+        have.setLength(0);
+        new StreamSearcher<>(dfa, 10).search(new ChunkReader(src, 3), (r, s, e, text) -> {
+            have.append(r).append(':').append(s).append(':').append(text).append('\n');
+            return true;
+        });
+        Assert.assertEquals("1:20:aaaaaaaaab\n1:34:aaaaaaabbb\n", have.toString());
+    }
+
+    @Test
+    public void testScanner() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        DfaState<JavaToken> dfa = builder.build(null);
+        String src = _readResource("SearcherTestInput.txt");
+        StringBuilder want = new StringBuilder();
+        new StreamSearcher<>(dfa).search(new StringReader(src), (tok, s, e, text) -> {
+            want.append(tok).append(':').append(s).append(':').append(text).append('\n');
+            return true;
+        });
+
+        StringBuilder have = new StringBuilder();
+        StreamScanner<JavaToken> scanner = new StreamSearcher<>(dfa).newScanner((tok, s, e, text) -> {
+            Assert.assertEquals(e-s, text.length());
+            have.append(tok).append(':').append(s).append(':').append(text).append('\n');
+            return true;
+        });
+        Random r = new Random(1357);
+        char[] chars = src.toCharArray();
+        for (int pass = 0; pass < 2; ++pass)
+        {
+            have.setLength(0);
+            for (int pos = 0; pos < chars.length;)
+            {
+                int len = Math.min(chars.length - pos, 1 + r.nextInt(40));
+                if (pass == 0)
+                {
+                    Assert.assertTrue(scanner.feed(chars, pos, len));
+                }
+                else
+                {
+                    //read-only buffers have no array
+                    Assert.assertTrue(scanner.feed(CharBuffer.wrap(src, pos, pos+len)));
+                }
+                pos += len;
+                Assert.assertEquals(pos, scanner.getPosition());
+            }
+            Assert.assertTrue(scanner.finish());
+            Assert.assertEquals(want.toString(), have.toString());
+        }
+    }
+
+    @Test
+    public void testScannerStopAndLimit() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab]*b"), 1);
+        builder.addPattern(Pattern.regex("a[ab]*c"), 2);
+        DfaState<Integer> dfa = builder.build(null);
+        String src = "bbbbbaaaaaaaaaaaaaaaaaaaaaaaabbbbcaaaaaaabbbaaaaaaa";
+
+        StringBuilder have = new StringBuilder();
+        StreamScanner<Integer> scanner = new StreamSearcher<>(dfa, 10).newScanner((r, s, e, text) -> {
+            have.append(r).append(':').append(s).append(':').append(text).append('\n');
+            return true;
+        });
+        for (int pos = 0; pos < src.length(); pos += 3)
+        {
+            scanner.feed(src.substring(pos, Math.min(pos+3, src.length())).toCharArray(), 0, Math.min(3, src.length()-pos));
+        }
+        scanner.finish();
+        Assert.assertEquals("1:20:aaaaaaaaab\n1:34:aaaaaaabbb\n", have.toString());
+
+        //the match isn't complete until the DFA stops
+        have.setLength(0);
+        scanner = new StreamSearcher<>(dfa).newScanner((r, s, e, text) -> {
+            have.append(r).append(':').append(text).append('\n');
+            return false;
+        });
+        Assert.assertTrue(scanner.feed(src.toCharArray(), 0, 33));
+        Assert.assertEquals(5, scanner.getPendingStart());
+        Assert.assertEquals("", have.toString());
+        Assert.assertFalse(scanner.feed(src.toCharArray(), 33, 5));
+        Assert.assertEquals("2:aaaaaaaaaaaaaaaaaaaaaaaabbbbc\n", have.toString());
+        Assert.assertFalse(scanner.feed(src.toCharArray(), 38, 5));
+    }
+
+    @Test
+    public void testNonMatchingMemo() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab]*b"), 1);
+        builder.addPattern(Pattern.regex("ba*c"), 2);
+        DfaState<Integer> dfa = builder.build(null);
+
+        //failed attempts over a long run would take quadratic time without the memo
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i)
+        {
+            sb.append('a');
+        }
+        String src = sb.append("bc").toString();
+        Assert.assertEquals("1:0:100001\n", _search(dfa, StreamSearcher.DEFAULT_MAX_MATCH_LENGTH, src, 1000, false));
+        src = src.replace('b', 'c');
+        Assert.assertEquals("", _search(dfa, StreamSearcher.DEFAULT_MAX_MATCH_LENGTH, src, 1000, false));
+        Assert.assertEquals("", _search(dfa, StreamSearcher.DEFAULT_MAX_MATCH_LENGTH, src, 1000, true));
+
+        //attempts cut short by the maximum match length must not fool the memo
+        Random r = new Random(1357);
+        for (int test = 0; test < 200; ++test)
+        {
+            sb.setLength(0);
+            while (sb.length() < 500)
+            {
+                int run = r.nextInt(40);
+                char c = "aabc".charAt(r.nextInt(4));
+                for (int i = 0; i < run; ++i)
+                {
+                    sb.append(c);
+                }
+            }
+            src = sb.toString();
+            for (int maxLen : new int[] {5, 17, 1000})
+            {
+                String want = _naiveSearch(dfa, maxLen, src);
+                Assert.assertEquals(want, _search(dfa, maxLen, src, 7, false));
+                Assert.assertEquals(want, _search(dfa, maxLen, src, 7, true));
+            }
+        }
+    }
+
+    private static String _search(DfaState<Integer> dfa, int maxLen, String src, int chunkSize, boolean useScanner) throws IOException
+    {
+        StringBuilder have = new StringBuilder();
+        StreamMatchConsumer<Integer> consumer = (r, s, e, text) -> {
+            have.append(r).append(':').append(s).append(':').append(e).append('\n');
+            return true;
+        };
+        if (!useScanner)
+        {
+            new StreamSearcher<>(dfa, maxLen).search(new ChunkReader(src, chunkSize), consumer);
+            return have.toString();
+        }
+        StreamScanner<Integer> scanner = new StreamSearcher<>(dfa, maxLen).newScanner(consumer);
+        char[] chars = src.toCharArray();
+        for (int pos = 0; pos < chars.length; pos += chunkSize)
+        {
+            scanner.feed(chars, pos, Math.min(chunkSize, chars.length-pos));
+        }
+        scanner.finish();
+        return have.toString();
+    }
+
+    //try every position, without a memo
+    private static String _naiveSearch(DfaState<Integer> dfa, int maxLen, String src)
+    {
+        StringBuilder want = new StringBuilder();
+        int pos = 0;
+        while (pos < src.length())
+        {
+            DfaState<Integer> state = dfa;
+            Integer result = null;
+            int matchEnd = pos;
+            for (int i = pos; i < Math.min(src.length(), pos + maxLen) && state != null;)
+            {
+                state = state.getNextState(src.charAt(i++));
+                if (state != null && state.getMatch() != null)
+                {
+                    result = state.getMatch();
+                    matchEnd = i;
+                }
+            }
+            if (result == null)
+            {
+                ++pos;
+                continue;
+            }
+            want.append(result).append(':').append(pos).append(':').append(matchEnd).append('\n');
+            pos = matchEnd;
+        }
+        return want.toString();
+    }
+
+    //returns at most a given number of characters from each read
+    private static class ChunkReader extends Reader
+    {
+        private final String m_src;
+        private final int m_chunkSize;
+        private int m_pos = 0;
+
+        ChunkReader(String src, int chunkSize)
+        {
+            m_src = src;
+            m_chunkSize = chunkSize;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException
+        {
+            if (m_pos >= m_src.length())
+            {
+                return -1;
+            }
+            len = Math.min(Math.min(len, m_chunkSize), m_src.length()-m_pos);
+            m_src.getChars(m_pos, m_pos+len, cbuf, off);
+            m_pos += len;
+            return len;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package com.nobigsoftware.dfalex;
 
+import java.nio.CharBuffer;
+import java.util.Arrays;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -35,4 +37,94 @@ public class StringMatcherTest extends TestBase
         result = matcher.findNext(dfa);
         Assert.assertEquals(null, result);
     }
+
+    @Test
+    public void testCharSequences()
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab]*b"), 1);
+        builder.addPattern(Pattern.regex("a[ab]*c"), 2);
+        DfaState<Integer> dfa = builder.build(null);
+        FlatDfa<Integer> flat = builder.buildFlat(null);
+        String src = "bbbbbaaaaaaaaaaaaaaaaaaaaaaaabbbbcaaaaaaabbbaaaaaaa";
+        char[] array = ("cc" + src + "ab").toCharArray();
+        StringMatcher[] matchers = {
+            new StringMatcher(new StringBuilder(src)),
+            new StringMatcher(array, 2, src.length()),
+            new StringMatcher(CharBuffer.wrap(array, 2, src.length()))
+        };
+        for (StringMatcher matcher : matchers)
+        {
+            Assert.assertEquals((Integer)2, matcher.findNext(dfa));
+            Assert.assertEquals("aaaaaaaaaaaaaaaaaaaaaaaabbbbc", matcher.getLastMatch());
+            Assert.assertEquals(5, matcher.getLastMatchStart());
+            Assert.assertEquals(34, matcher.getLastMatchEnd());
+            Assert.assertEquals((Integer)1, matcher.findNext(flat, flat.getStartState(0)));
+            Assert.assertEquals("aaaaaaabbb", matcher.getLastMatch());
+            //doesn't run past the end of the range
+            Assert.assertEquals(null, matcher.findNext(dfa));
+        }
+    }
+
+    @Test
+    public void testLowTableStates()
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab\u00e9\u4e00]*b"), 1);
+        builder.addPattern(Pattern.regex("a[ab\u00e9\u4e00]*c"), 2);
+        DfaState<Integer> packed = builder.build(null);
+        builder.setStateRepresentation(DfaStateRepresentation.ASCII_TABLE);
+        DfaState<Integer> ascii = builder.build(null);
+        builder.setStateRepresentation(DfaStateRepresentation.LATIN1_TABLE);
+        DfaState<Integer> latin1 = builder.build(null);
+        Assert.assertEquals(_countStates(packed), _countStates(ascii));
+        Assert.assertEquals(_countStates(packed), _countStates(latin1));
+
+        String src = "bbba\u00e9\u4e00aab\u00e9a\u4e00bcxa\u00e9\u00e9b\u00ff\u4e00ac";
+        for (DfaState<Integer> dfa : Arrays.asList(ascii, latin1))
+        {
+            StringMatcher want = new StringMatcher(src);
+            StringMatcher have = new StringMatcher(src);
+            for (int pos = 0; pos < src.length(); ++pos)
+            {
+                Assert.assertEquals(want.matchAt(packed, pos), have.matchAt(dfa, pos));
+                Assert.assertEquals(want.getLastMatchEnd(), have.getLastMatchEnd());
+            }
+        }
+    }
+
+    @Test
+    public void testFirstChars()
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab]*b"), 1);
+        builder.addPattern(Pattern.regex("[xy]z"), 2);
+        DfaState<Integer> dfa = builder.build(null);
+        FlatDfa<Integer> flat = builder.buildFlat(null);
+        CharRange want = CharRange.anyOf("axy");
+        Assert.assertEquals(want, dfa.getFirstChars());
+        Assert.assertEquals(want, flat.getFirstChars(0));
+
+        String src = "qqqabbqxzaaaqyzqqab\u4e00xxzq";
+        StringMatcher matcher = new StringMatcher(src);
+        StringMatcher flatMatcher = new StringMatcher(src.toCharArray(), 0, src.length());
+        StringMatcher slowMatcher = new StringMatcher(src);
+        for (int pos = 0; pos < src.length(); ++pos)
+        {
+            Integer result = slowMatcher.matchAt(dfa, pos);
+            if (result == null)
+            {
+                continue;
+            }
+            Assert.assertEquals(result, matcher.findNext(dfa));
+            Assert.assertEquals(pos, matcher.getLastMatchStart());
+            Assert.assertEquals(slowMatcher.getLastMatchEnd(), matcher.getLastMatchEnd());
+            Assert.assertEquals(result, flatMatcher.findNext(flat, flat.getStartState(0)));
+            Assert.assertEquals(pos, flatMatcher.getLastMatchStart());
+            Assert.assertEquals(slowMatcher.getLastMatchEnd(), flatMatcher.getLastMatchEnd());
+            pos = slowMatcher.getLastMatchEnd()-1;
+        }
+        Assert.assertNull(matcher.findNext(dfa));
+        Assert.assertNull(flatMatcher.findNext(flat, flat.getStartState(0)));
+    }
 }
@@ -1,5 +1,12 @@
 package com.nobigsoftware.dfalex;
 
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.Function;
 
 import org.junit.Assert;
@@ -7,6 +14,8 @@ import org.junit.Test;
 
 public class StringSearcherTest extends TestBase
 {
+    private static final String[] TOKENS = {"a", "b", "c", "ab", "ca"};
+
     @Test
     public void test() throws Exception
     {
@@ -22,6 +31,450 @@ public class StringSearcherTest extends TestBase
         Assert.assertEquals(want, have);
     }
 
+    @Test
+    public void testStateRepresentations() throws Exception
+    {
+        String instr = _readResource("SearcherTestInput.txt");
+        String want = _readResource("SearcherTestOutput.txt");
+        for (DfaStateRepresentation rep : DfaStateRepresentation.values())
+        {
+            DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+            builder.setStateRepresentation(rep);
+            for (JavaToken tok : JavaToken.values())
+            {
+                builder.addPattern(tok.m_pattern, tok);
+            }
+            StringSearcher<JavaToken> searcher = builder.buildStringSearcher(null);
+            String have = searcher.findAndReplace(instr, StringSearcherTest::tokenReplace);
+            Assert.assertEquals(want, have);
+        }
+    }
+
+    @Test
+    public void testCharSequences() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        StringSearcher<JavaToken> searcher = builder.buildStringSearcher(null);
+        String instr = _readResource("SearcherTestInput.txt");
+        String want = _readResource("SearcherTestOutput.txt");
+
+        Assert.assertEquals(want, searcher.findAndReplace(new StringBuilder(instr), StringSearcherTest::tokenReplace));
+        Assert.assertEquals(want, searcher.findAndReplace(CharBuffer.wrap(instr), StringSearcherTest::tokenReplace));
+
+        //array slices and array-backed buffers
+        char[] array = ("xx" + instr + "yy").toCharArray();
+        Assert.assertEquals(want, searcher.findAndReplace(array, 2, instr.length(), StringSearcherTest::tokenReplace));
+        CharBuffer buf = CharBuffer.wrap(array, 2, instr.length()).slice();
+        Assert.assertEquals(want, searcher.findAndReplace(buf, StringSearcherTest::tokenReplace));
+
+        //same matches and positions
+        StringMatchIterator<JavaToken> wantIt = searcher.searchString(instr);
+        StringMatchIterator<JavaToken> haveIt = searcher.searchString(array, 2, instr.length());
+        while(wantIt.hasNext())
+        {
+            Assert.assertTrue(haveIt.hasNext());
+            Assert.assertEquals(wantIt.next(), haveIt.next());
+            Assert.assertEquals(wantIt.matchStartPosition(), haveIt.matchStartPosition());
+            Assert.assertEquals(wantIt.matchEndPosition(), haveIt.matchEndPosition());
+            Assert.assertEquals(wantIt.matchValue(), haveIt.matchValue());
+        }
+        Assert.assertFalse(haveIt.hasNext());
+    }
+
+    @Test
+    public void testParallel() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        StringSearcher<JavaToken> searcher = builder.buildStringSearcher(null);
+        String instr = _readResource("SearcherTestInput.txt");
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 1000000)
+        {
+            sb.append(instr);
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try
+        {
+            _checkParallel(searcher, sb.toString(), pool);
+
+            //matches that span many chunks
+            DfaBuilder<Integer> builder2 = new DfaBuilder<>();
+            builder2.addPattern(Pattern.regex("a[ab]*b"), 1);
+            builder2.addPattern(Pattern.regex("a[ab]*c"), 2);
+            builder2.addPattern(Pattern.regex("ba"), 3);
+            StringSearcher<Integer> searcher2 = builder2.buildStringSearcher(null);
+            Random r = new Random(1234);
+            sb.setLength(0);
+            while (sb.length() < 1000000)
+            {
+                int runlen = r.nextInt(4) == 0 ? r.nextInt(200000) : r.nextInt(10);
+                for (int i = 0; i < runlen; ++i)
+                {
+                    sb.append(r.nextInt(3) == 0 ? 'a' : 'b');
+                }
+                sb.append("abcx".charAt(r.nextInt(4)));
+            }
+            _checkParallel(searcher2, sb.toString(), pool);
+            _checkParallel(searcher2, CharBuffer.wrap(sb.toString().toCharArray()), pool);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static <T> void _checkParallel(StringSearcher<T> searcher, CharSequence src, ForkJoinPool pool)
+    {
+        StringMatchIterator<T> wantIt = searcher.searchString(src);
+        StringMatchIterator<T> haveIt = searcher.searchStringParallel(src, pool);
+        int count = 0;
+        while(wantIt.hasNext())
+        {
+            Assert.assertTrue(haveIt.hasNext());
+            Assert.assertEquals(wantIt.next(), haveIt.next());
+            Assert.assertEquals(wantIt.matchStartPosition(), haveIt.matchStartPosition());
+            Assert.assertEquals(wantIt.matchEndPosition(), haveIt.matchEndPosition());
+            if (++count % 7 == 0)
+            {
+                //reposition into the middle of the match
+                int pos = (wantIt.matchStartPosition() + wantIt.matchEndPosition() + 1) / 2;
+                Assert.assertEquals(wantIt.reposition(pos), haveIt.reposition(pos));
+            }
+        }
+        Assert.assertFalse(haveIt.hasNext());
+    }
+
+    @Test
+    public void testSession() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        StringSearcher<JavaToken> searcher = builder.buildStringSearcher(null);
+        SearchSession<JavaToken> session = searcher.newSession(JavaToken::ordinal);
+        List<String> lines = new ArrayList<>();
+        for (String line : _readResource("SearcherTestInput.txt").split("\n"))
+        {
+            lines.add(line);
+        }
+        int[] starts = new int[10000];
+        int[] ends = new int[10000];
+        int[] ids = new int[10000];
+        int[] counts = new int[lines.size()];
+        int total = session.searchAll(lines, counts, starts, ends, ids);
+        Assert.assertTrue(total > 100);
+        int pos = 0;
+        for (int i = 0; i < lines.size(); ++i)
+        {
+            StringMatchIterator<JavaToken> want = searcher.searchString(lines.get(i));
+            for (int n = 0; n < counts[i]; ++n, ++pos)
+            {
+                Assert.assertTrue(want.hasNext());
+                Assert.assertEquals(want.next().ordinal(), ids[pos]);
+                Assert.assertEquals(want.matchStartPosition(), starts[pos]);
+                Assert.assertEquals(want.matchEndPosition(), ends[pos]);
+            }
+            Assert.assertFalse(want.hasNext());
+        }
+        Assert.assertEquals(total, pos);
+
+        //only the first matches are written when the arrays are full
+        int li = 0;
+        pos = 0;
+        for (; counts[li] < 3; ++li)
+        {
+            pos += counts[li];
+        }
+        String line = lines.get(li);
+        int[] smallStarts = new int[3];
+        int n = session.search(line.toCharArray(), 0, line.length(), smallStarts, new int[3], new int[3], 1);
+        Assert.assertEquals(counts[li], n);
+        Assert.assertEquals(0, smallStarts[0]);
+        Assert.assertEquals(starts[pos], smallStarts[1]);
+        Assert.assertEquals(starts[pos+1], smallStarts[2]);
+    }
+
+    @Test
+    public void testVisitor() throws Exception
+    {
+        DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+        for (JavaToken tok : JavaToken.values())
+        {
+            builder.addPattern(tok.m_pattern, tok);
+        }
+        StringSearcher<JavaToken> searcher = builder.buildStringSearcher(null);
+        String instr = _readResource("SearcherTestInput.txt");
+        StringMatchIterator<JavaToken> want = searcher.searchString(instr);
+        int[] count = new int[1];
+        int n = searcher.searchString(instr, (mr, s, e) -> {
+            Assert.assertTrue(want.hasNext());
+            Assert.assertEquals(want.next(), mr);
+            Assert.assertEquals(want.matchStartPosition(), s);
+            Assert.assertEquals(want.matchEndPosition(), e);
+            if (++count[0] % 7 == 0)
+            {
+                //reposition into the middle of the match
+                int pos = (s + e + 1) / 2;
+                want.reposition(pos);
+                return pos;
+            }
+            return 0;
+        });
+        Assert.assertFalse(want.hasNext());
+        Assert.assertEquals(count[0], n);
+        Assert.assertTrue(n > 100);
+
+        //stop early
+        n = searcher.searchString(CharBuffer.wrap(instr.toCharArray()), (mr, s, e) -> (s > 500 ? -1 : 0));
+        Assert.assertTrue(n > 1 && n < 500);
+    }
+
+    @Test
+    public void testNestedVisitor() throws Exception
+    {
+        String words = "the quick brown fox jumps over the lazy dog and then runs far away home";
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("[a-z]+"), 1);
+        for (SearchMode mode : new SearchMode[] {SearchMode.REVERSE_FINDER, SearchMode.FORWARD_FINDER})
+        {
+            StringSearcher<Integer> searcher = builder.buildStringSearcher(null, mode);
+            SearchSession<Integer> session = searcher.newSession(x -> x);
+            StringBuilder have = new StringBuilder();
+            int n = searcher.searchString(words, (mr, s, e) -> {
+                //search again from inside the visitor, with the searcher and with the session
+                String word = words.substring(s, e);
+                Assert.assertEquals(1, searcher.searchString(word, (mr2, s2, e2) -> {
+                    Assert.assertEquals(0, s2);
+                    Assert.assertEquals(word.length(), e2);
+                    return 0;
+                }));
+                Assert.assertEquals(1, session.search(word, (mr2, s2, e2) -> {
+                    Assert.assertEquals(2, session.search(word + " " + word, (mr3, s3, e3) -> 0));
+                    return 0;
+                }));
+                have.append(have.length() > 0 ? " " : "").append(word);
+                return 0;
+            });
+            Assert.assertEquals(15, n);
+            Assert.assertEquals(words, have.toString());
+        }
+    }
+
+    @Test
+    public void testMaskModes() throws Exception
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a[ab]*b"), 1);
+        builder.addPattern(Pattern.regex("ca"), 2);
+        StringSearcher<Integer> searcher = builder.buildStringSearcher(null);
+        Random r = new Random(5678);
+        for (int density : new int[] {2, 50, 5000})
+        {
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 100000)
+            {
+                sb.append(r.nextInt(density) == 0 ? TOKENS[r.nextInt(TOKENS.length)] : "x");
+            }
+            String src = sb.toString();
+            long reallocs = StringSearcher.getMaskReallocationCount();
+            StringMatchIterator<Integer> it = searcher.searchString(src);
+            int[] count = new int[1];
+            searcher.searchString(src, (mr, s, e) -> {
+                Assert.assertTrue(it.hasNext());
+                Assert.assertEquals(mr, it.next());
+                Assert.assertEquals(s, it.matchStartPosition());
+                Assert.assertEquals(e, it.matchEndPosition());
+                ++count[0];
+                return 0;
+            });
+            Assert.assertFalse(it.hasNext());
+            Assert.assertTrue(count[0] > 0);
+            //at most one reallocation for each doubling, and the switch to a bit mask
+            Assert.assertTrue(StringSearcher.getMaskReallocationCount() - reallocs <= 10);
+
+            //rewind
+            Assert.assertTrue(it.reposition(0));
+            it.next();
+            Assert.assertEquals(searcher.searchString(src).next(), it.matchResult());
+        }
+    }
+
+    @Test
+    public void testSearchModes() throws Exception
+    {
+        String instr = _readResource("SearcherTestInput.txt");
+        String want = _readResource("SearcherTestOutput.txt");
+        for (SearchMode mode : SearchMode.values())
+        {
+            DfaBuilder<JavaToken> builder = new DfaBuilder<>();
+            for (JavaToken tok : JavaToken.values())
+            {
+                builder.addPattern(tok.m_pattern, tok);
+            }
+            StringSearcher<JavaToken> searcher = builder.buildStringSearcher(null, mode);
+            Assert.assertEquals(want, searcher.findAndReplace(instr, StringSearcherTest::tokenReplace));
+            StringMatchIterator<JavaToken> it = searcher.searchString(instr);
+            searcher.searchString(CharBuffer.wrap(instr.toCharArray()), (mr, s, e) -> {
+                Assert.assertEquals(it.next(), mr);
+                Assert.assertEquals(it.matchStartPosition(), s);
+                return 0;
+            });
+            Assert.assertFalse(it.hasNext());
+
+            //dense matches, with repositioning
+            DfaBuilder<Integer> builder2 = new DfaBuilder<>();
+            builder2.addPattern(Pattern.regex("a[ab]*b"), 1);
+            builder2.addPattern(Pattern.regex("ca"), 2);
+            builder2.addPattern(Pattern.regex("bc+"), 3);
+            StringSearcher<Integer> reverse = builder2.buildStringSearcher(null);
+            StringSearcher<Integer> searcher2 = builder2.buildStringSearcher(null, mode);
+            Random r = new Random(2468);
+            StringBuilder sb = new StringBuilder();
+            while (sb.length() < 10000)
+            {
+                sb.append(TOKENS[r.nextInt(TOKENS.length)]);
+            }
+            String src = sb.toString();
+            StringMatchIterator<Integer> wantIt = reverse.searchString(src);
+            StringMatchIterator<Integer> haveIt = searcher2.searchString(src);
+            int count = 0;
+            while(wantIt.hasNext())
+            {
+                Assert.assertTrue(haveIt.hasNext());
+                Assert.assertEquals(wantIt.next(), haveIt.next());
+                Assert.assertEquals(wantIt.matchStartPosition(), haveIt.matchStartPosition());
+                Assert.assertEquals(wantIt.matchEndPosition(), haveIt.matchEndPosition());
+                if (++count % 7 == 0)
+                {
+                    int pos = (wantIt.matchStartPosition() + wantIt.matchEndPosition() + 1) / 2;
+                    Assert.assertEquals(wantIt.reposition(pos), haveIt.reposition(pos));
+                }
+            }
+            Assert.assertFalse(haveIt.hasNext());
+            int[] starts = new int[10000], ends = new int[10000], ids = new int[10000];
+            int[] starts2 = new int[10000], ends2 = new int[10000], ids2 = new int[10000];
+            int n = reverse.newSession(x -> x).search(src, starts, ends, ids, 0);
+            Assert.assertEquals(n, searcher2.newSession(x -> x).search(src, starts2, ends2, ids2, 0));
+            Assert.assertArrayEquals(starts, starts2);
+            Assert.assertArrayEquals(ends, ends2);
+            Assert.assertArrayEquals(ids, ids2);
+        }
+    }
+
+    @Test
+    public void testAutoMode() throws Exception
+    {
+        //patterns with a single looping state are unbounded, so forward finding would be quadratic
+        String[][] cases = {
+            {"ab|c", "FORWARD_FINDER"},
+            {"a+b|c", "REVERSE_FINDER"},
+            {"[a-z]+", "REVERSE_FINDER"},
+            {"x(ab)+y", "REVERSE_FINDER"},
+        };
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 2000; ++i)
+        {
+            sb.append('a');
+        }
+        String src = sb.append("c ab abc aab").toString();
+        for (String[] c : cases)
+        {
+            DfaBuilder<Integer> builder = new DfaBuilder<>();
+            builder.addPattern(Pattern.regex(c[0]), 1);
+            StringSearcher<Integer> searcher = builder.buildStringSearcher(null, SearchMode.AUTO);
+            Assert.assertEquals(c[0], SearchMode.valueOf(c[1]), searcher.getSearchMode());
+            StringSearcher<Integer> reverse = builder.buildStringSearcher(null, SearchMode.REVERSE_FINDER);
+            StringMatchIterator<Integer> wantIt = reverse.searchString(src);
+            StringMatchIterator<Integer> haveIt = searcher.searchString(src);
+            while(wantIt.hasNext())
+            {
+                Assert.assertTrue(haveIt.hasNext());
+                Assert.assertEquals(wantIt.next(), haveIt.next());
+                Assert.assertEquals(wantIt.matchStartPosition(), haveIt.matchStartPosition());
+                Assert.assertEquals(wantIt.matchEndPosition(), haveIt.matchEndPosition());
+            }
+            Assert.assertFalse(haveIt.hasNext());
+        }
+    }
+
+    @Test
+    public void testPrefilter() throws Exception
+    {
+        Assert.assertEquals(new HashSet<>(Arrays.asList("abce", "abde")),
+                RequiredLiterals.forMatchable(Pattern.regex("ab(c|d)e")).getRequired());
+        Assert.assertEquals(new HashSet<>(Arrays.asList("xbar", "foo")),
+                RequiredLiterals.forMatchable(Pattern.regex("[a-z]*(foo|x+bar)[0-9]*")).getRequired());
+        Assert.assertNull(RequiredLiterals.forMatchable(Pattern.regex("[a-z]*(foo)?")).getRequired());
+
+        //literals that share first characters
+        LiteralPrefilter multi = LiteralPrefilter.create(Arrays.asList("abd", "b", "abc", "zz", "axe"));
+        String text = "aaxbzab abc zaxe";
+        char[] textChars = text.toCharArray();
+        for (int pos = 0; pos <= text.length(); ++pos)
+        {
+            int want = -1;
+            for (int i = pos; i < text.length() && want < 0; ++i)
+            {
+                for (String lit : new String[] {"abd", "b", "abc", "zz", "axe"})
+                {
+                    if (text.startsWith(lit, i))
+                    {
+                        want = i;
+                    }
+                }
+            }
+            Assert.assertEquals(want, multi.indexIn(text, null, 0, text.length(), pos));
+            Assert.assertEquals(want, multi.indexIn(null, textChars, 0, text.length(), pos));
+        }
+
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("ERROR: [a-z]+"), 1);
+        builder.addPattern(Pattern.regexI("exception"), 2);
+        builder.addPattern(Pattern.regex("x[0-9]+y"), 3);
+        StringSearcher<Integer> unfiltered = new StringSearcher<>(builder.build(null), builder.buildReverseFinder());
+        String[] words = {"ERROR: ", "error ", "ExCePtIoN ", "except ", "x12y ", "xy ", "abc ", "x9", "y "};
+        Random r = new Random(97531);
+        for (SearchMode mode : SearchMode.values())
+        {
+            StringSearcher<Integer> searcher = builder.buildStringSearcher(null, mode);
+            SearchSession<Integer> session = searcher.newSession(x -> x);
+            int[] starts = new int[100], ends = new int[100], ids = new int[100];
+            for (int test = 0; test < 200; ++test)
+            {
+                StringBuilder sb = new StringBuilder();
+                int nwords = r.nextInt(8);
+                for (int i = 0; i < nwords; ++i)
+                {
+                    sb.append(words[r.nextInt(words.length)]);
+                }
+                String src = sb.toString();
+                StringMatchIterator<Integer> wantIt = unfiltered.searchString(src);
+                StringMatchIterator<Integer> haveIt = searcher.searchString(CharBuffer.wrap(src));
+                int count = 0;
+                while (wantIt.hasNext())
+                {
+                    Assert.assertTrue(haveIt.hasNext());
+                    Assert.assertEquals(wantIt.next(), haveIt.next());
+                    Assert.assertEquals(wantIt.matchStartPosition(), haveIt.matchStartPosition());
+                    Assert.assertEquals(wantIt.matchEndPosition(), haveIt.matchEndPosition());
+                    ++count;
+                }
+                Assert.assertFalse(haveIt.hasNext());
+                Assert.assertEquals(count, session.search(src, starts, ends, ids, 0));
+            }
+        }
+    }
+
     @Test
     public void crazyWontonTest() throws Exception
     {
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2015 Matthew Timmermans
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.nobigsoftware.dfalex;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class Utf8DfaTest extends TestBase
+{
+    private static final String TEXT = "abc x\u00e9\u4e00\ud83d\ude00y #\u00ff# #\u4e00# #\uffff# #\ud83d\ude00#"
+            + "\u00e9t\u00e9 \u4e00\u4e8c\u4e09 \ud83d\ude00\ud83d\ude00\ud83d\ude4f\ud83d\ude50 x\n\u07ff\u0800y";
+
+    @Test
+    public void testMatchesSameAsChars()
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("[a-z\u00e9]+"), 1);
+        builder.addPattern(Pattern.regex("\u4e00[\u4e00-\u9fff]*"), 2);
+        builder.addPattern(Pattern.regex("(\ud83d\ude00)+"), 3);
+        builder.addPattern(Pattern.regex("x.*y"), 4);
+        builder.addPattern(Pattern.regex("#[\u0080-\uffff]#"), 5);
+        builder.addPattern(Pattern.regex("\ud83d[\ude00-\ude4f]"), 6);
+        DfaAmbiguityResolver<Integer> resolver = conflicts -> Collections.max(conflicts);
+        FlatDfa<Integer> charDfa = builder.buildFlat(resolver);
+        FlatDfa<Integer> byteDfa = builder.buildUtf8(resolver);
+
+        //byte DFAs have a tiny alphabet
+        Assert.assertTrue(byteDfa.getCharClassCount() < 40);
+
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        StringMatcher want = new StringMatcher(TEXT);
+        ByteMatcher have = new ByteMatcher(ByteBuffer.wrap(bytes));
+        int matches = 0;
+        for (int pos = 0, bytePos = 0; pos < TEXT.length(); pos = TEXT.offsetByCodePoints(pos, 1))
+        {
+            Integer wantResult = want.matchAt(charDfa, charDfa.getStartState(0), pos);
+            Integer haveResult = have.matchAt(byteDfa, byteDfa.getStartState(0), bytePos);
+            Assert.assertEquals(wantResult, haveResult);
+            if (wantResult != null)
+            {
+                ++matches;
+                Assert.assertEquals(bytePos, have.getLastMatchStart());
+                Assert.assertEquals(_utf8Length(TEXT.substring(0, want.getLastMatchEnd())), have.getLastMatchEnd());
+            }
+            bytePos += _utf8Length(TEXT.substring(pos, TEXT.offsetByCodePoints(pos, 1)));
+        }
+        Assert.assertTrue(matches > 10);
+
+        //findNext
+        want.reset();
+        have.reset();
+        for (;;)
+        {
+            Integer wantResult = want.findNext(charDfa, charDfa.getStartState(0));
+            Integer haveResult = have.findNext(byteDfa, byteDfa.getStartState(0));
+            Assert.assertEquals(wantResult, haveResult);
+            if (wantResult == null)
+            {
+                break;
+            }
+            String wantMatch = want.getLastMatch();
+            String haveMatch = new String(bytes, have.getLastMatchStart(),
+                    have.getLastMatchEnd() - have.getLastMatchStart(), StandardCharsets.UTF_8);
+            Assert.assertEquals(wantMatch, haveMatch);
+        }
+    }
+
+    @Test
+    public void testInvalidUtf8()
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a.*b"), 1);
+        FlatDfa<Integer> dfa = builder.buildUtf8(null);
+        int start = dfa.getStartState(0);
+        //overlong encoding, encoded surrogate, stray continuation byte, truncated sequence
+        byte[][] bad = {
+            {'a', (byte)0xC0, (byte)0x80, 'b'},
+            {'a', (byte)0xED, (byte)0xA0, (byte)0x80, 'b'},
+            {'a', (byte)0x80, 'b'},
+            {'a', (byte)0xE4, (byte)0xB8, 'b'},
+            {'a', (byte)0xF4, (byte)0x90, (byte)0x80, (byte)0x80, 'b'},
+        };
+        for (byte[] src : bad)
+        {
+            Assert.assertNull(new ByteMatcher(src, 0, src.length).matchAt(dfa, start, 0));
+        }
+        byte[] good = "xa\ud83d\ude00b".getBytes(StandardCharsets.UTF_8);
+        ByteMatcher matcher = new ByteMatcher(good, 1, good.length-1);
+        Assert.assertEquals((Integer)1, matcher.findNext(dfa, start));
+        Assert.assertEquals(0, matcher.getLastMatchStart());
+        Assert.assertEquals(6, matcher.getLastMatchEnd());
+
+        //direct buffers
+        ByteBuffer buf = ByteBuffer.allocateDirect(good.length);
+        buf.put(good).flip();
+        buf.position(1);
+        matcher = new ByteMatcher(buf);
+        Assert.assertEquals((Integer)1, matcher.findNext(dfa, start));
+        Assert.assertEquals(6, matcher.getLastMatchEnd());
+    }
+
+    @Test
+    public void testNonMatchingMemo()
+    {
+        DfaBuilder<Integer> builder = new DfaBuilder<>();
+        builder.addPattern(Pattern.regex("a+b"), 1);
+        builder.addPattern(Pattern.regex("\u00e9+c"), 2);
+        FlatDfa<Integer> dfa = builder.buildUtf8(null);
+        int start = dfa.getStartState(0);
+
+        //failed searches over a long run would take quadratic time without the memo
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i)
+        {
+            sb.append(i < 50000 ? 'a' : '\u00e9');
+        }
+        byte[] bytes = sb.append("xb").toString().getBytes(StandardCharsets.UTF_8);
+        Assert.assertNull(new ByteMatcher(bytes, 0, bytes.length).findNext(dfa, start));
+        ByteBuffer buf = ByteBuffer.allocateDirect(bytes.length);
+        buf.put(bytes).flip();
+        Assert.assertNull(new ByteMatcher(buf).findNext(dfa, start));
+
+        //the memo doesn't outlive a change to the search limit
+        bytes[bytes.length-2] = 'c';
+        ByteMatcher matcher = new ByteMatcher(bytes, 0, bytes.length);
+        matcher.setPositions(0, 0, bytes.length-2);
+        Assert.assertNull(matcher.findNext(dfa, start));
+        matcher.setPositions(0, 0, bytes.length);
+        Assert.assertEquals((Integer)2, matcher.findNext(dfa, start));
+        Assert.assertEquals(50000, matcher.getLastMatchStart());
+        Assert.assertEquals(bytes.length-1, matcher.getLastMatchEnd());
+    }
+
+    private static int _utf8Length(String s)
+    {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+}